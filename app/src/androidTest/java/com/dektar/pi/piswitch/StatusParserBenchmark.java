@@ -0,0 +1,101 @@
+package com.dektar.pi.piswitch;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares {@link StatusParser} with the org.json tree walk it replaced. Run on a device;
+ * timings are written to logcat under "StatusParserBenchmark".
+ */
+public class StatusParserBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = "StatusParserBenchmark";
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+
+    public void testSmallPayload() throws Exception {
+        compare("small", buildPayload(2, 1));
+    }
+
+    public void testLargePayload() throws Exception {
+        compare("large", buildPayload(64, 32));
+    }
+
+    private void compare(String label, String json) throws Exception {
+        byte[] data = json.getBytes("UTF-8");
+        PiStatus expected = parseDom(data);
+        assertEquals(expected, StatusParser.parse(data));
+
+        for (int i = 0; i < WARMUP; i++) {
+            parseDom(data);
+            StatusParser.parse(data);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseDom(data);
+        }
+        long domNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            StatusParser.parse(data);
+        }
+        long streamNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(LOG_TAG, label + " (" + data.length + " bytes): dom " + domNanos
+                + " ns/op, streaming " + streamNanos + " ns/op");
+    }
+
+    /**
+     * Builds a status document with the living room lamp in the middle of the lamp list and
+     * some unrelated sensors, like the Pi produces once more hardware is attached.
+     */
+    private static String buildPayload(int lamps, int sensors) {
+        StringBuilder builder = new StringBuilder("{\"lamps\":[");
+        for (int i = 0; i < lamps; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            String name = i == lamps / 2 ? PiStatus.PRIMARY_LAMP : "lamp " + i;
+            builder.append("{\"name\":\"").append(name).append("\",\"state\":")
+                    .append(i % 2).append(",\"gpio\":").append(i).append('}');
+        }
+        builder.append("],\"heating\":[{\"current_temp\":21.4,\"ext_temp\":7.9,"
+                + "\"target\":20.0,\"mode\":\"auto\"}],\"sensors\":[");
+        for (int i = 0; i < sensors; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"sensor-").append(i).append("\",\"value\":")
+                    .append(i * 0.5).append(",\"history\":[1,2,3,4,5,6,7,8]}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static PiStatus parseDom(byte[] data) throws Exception {
+        JSONObject response = new JSONObject(new String(data, "UTF-8"));
+        List<Lamp> lamps = new ArrayList<Lamp>();
+        JSONArray lampArray = response.getJSONArray("lamps");
+        for (int i = 0; i < lampArray.length(); i++) {
+            JSONObject lamp = lampArray.getJSONObject(i);
+            lamps.add(new Lamp(lamp.getString("name"), null, lamp.getInt("state") == 1));
+        }
+        return new PiStatus(lamps, getTemp(response, "current_temp"),
+                getTemp(response, "ext_temp"));
+    }
+
+    private static double getTemp(JSONObject response, String tempType) throws JSONException {
+        JSONArray heating = response.getJSONArray("heating");
+        if (heating.length() > 0) {
+            return heating.getJSONObject(0).getDouble(tempType);
+        }
+        return -1;
+    }
+}
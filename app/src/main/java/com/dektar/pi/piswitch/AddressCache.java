@@ -0,0 +1,167 @@
+package com.dektar.pi.piswitch;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers what the Pi's host names resolved to on each network, so that requests can go
+ * straight to an address instead of waiting on a DNS lookup.
+ *
+ * Lookups only ever happen in the background: a host not looked up yet on the current network
+ * is left for the system to resolve as before, and an address older than {@link #TTL_MS} is
+ * still used while a new lookup runs. One older than {@link #MAX_STALE_MS} is no longer
+ * trusted. A failed lookup keeps the old address, since it more likely means the DNS server
+ * is unreachable than that the Pi moved. Thread safe.
+ */
+public class AddressCache {
+    public interface Resolver {
+        InetAddress resolve(String host) throws UnknownHostException;
+    }
+
+    /** How long an address is used before it is looked up again. */
+    static final long TTL_MS = 5 * 60 * 1000;
+    /** How long an address is used at most while new lookups fail. */
+    static final long MAX_STALE_MS = 60 * 60 * 1000;
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d+\\.\\d+\\.\\d+\\.\\d+");
+
+    private static final class Entry {
+        final InetAddress mAddress;
+        final long mResolvedAt;
+
+        Entry(InetAddress address, long resolvedAt) {
+            mAddress = address;
+            mResolvedAt = resolvedAt;
+        }
+    }
+
+    private final Executor mExecutor;
+    private final Resolver mResolver;
+    // Network and host to what the host resolved to there.
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private final Set<String> mResolving = new HashSet<String>();
+
+    public AddressCache(Executor executor, Resolver resolver) {
+        mExecutor = executor;
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns a resolver that asks the system.
+     */
+    public static Resolver systemResolver() {
+        return new Resolver() {
+            @Override
+            public InetAddress resolve(String host) throws UnknownHostException {
+                return InetAddress.getByName(host);
+            }
+        };
+    }
+
+    /**
+     * Returns the address host is known to have on network at time now, in milliseconds, or
+     * null if none is known. Never waits: a lookup needed for later runs in the background.
+     */
+    public InetAddress get(final String network, final String host, final long now) {
+        final String key = network + " " + host;
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+            if (entry != null && now - entry.mResolvedAt > MAX_STALE_MS) {
+                mEntries.remove(key);
+                entry = null;
+            }
+            boolean isDue = entry == null || now - entry.mResolvedAt > TTL_MS;
+            if (!isDue || !mResolving.add(key)) {
+                return entry == null ? null : entry.mAddress;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                InetAddress address = null;
+                try {
+                    address = mResolver.resolve(host);
+                } catch (UnknownHostException e) {
+                    // Keep what we had.
+                }
+                synchronized (AddressCache.this) {
+                    mResolving.remove(key);
+                    if (address != null) {
+                        // Timed from when it was asked for, so it's never thought newer.
+                        mEntries.put(key, new Entry(address, now));
+                    }
+                }
+            }
+        });
+        return entry == null ? null : entry.mAddress;
+    }
+
+    /**
+     * Returns url with its host replaced by the address it is known to have on network, or url
+     * itself if none is known or it's not plain HTTP. See {@link #get}.
+     */
+    public String rewrite(String url, String network, long now) {
+        URL parsed;
+        try {
+            parsed = new URL(url);
+        } catch (MalformedURLException e) {
+            return url;
+        }
+        String host = parsed.getHost();
+        // The address would be checked against the certificate instead of the name.
+        if (!"http".equals(parsed.getProtocol()) || host.isEmpty() || isLiteral(host)) {
+            return url;
+        }
+        InetAddress address = get(network, host, now);
+        if (address == null) {
+            return url;
+        }
+        String literal = address.getHostAddress();
+        if (address instanceof Inet6Address) {
+            literal = "[" + literal + "]";
+        }
+        try {
+            return new URL(parsed.getProtocol(), literal, parsed.getPort(), parsed.getFile())
+                    .toString();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Forgets every address, e.g. because a request to one just failed.
+     */
+    public synchronized void invalidate() {
+        mEntries.clear();
+    }
+
+    /**
+     * Returns what the Host header of a request for url should be once it has been rewritten:
+     * its host, with the port if that isn't the default one; null if url is malformed.
+     */
+    static String getHostHeader(String url) {
+        try {
+            URL parsed = new URL(url);
+            int port = parsed.getPort();
+            return port < 0 || port == parsed.getDefaultPort()
+                    ? parsed.getHost() : parsed.getHost() + ":" + port;
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    static boolean isLiteral(String host) {
+        return host.startsWith("[") || host.indexOf(':') >= 0
+                || IPV4_LITERAL.matcher(host).matches();
+    }
+}
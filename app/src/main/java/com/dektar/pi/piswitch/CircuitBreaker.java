@@ -0,0 +1,128 @@
+package com.dektar.pi.piswitch;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops requests to a Pi that keeps failing, so callers hear about it at once instead of
+ * each waiting for its own timeout.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and refuses requests.
+ * Once a backoff delay has passed it lets a single probe through: success closes it again,
+ * failure reopens it for twice as long, up to {@link #MAX_OPEN_MS}, with jitter.
+ *
+ * There is one breaker per Pi address, shared by every request to it; see
+ * {@link #forUrl(String)}. Times are passed in, in milliseconds on any monotonic clock.
+ * Thread safe.
+ */
+public class CircuitBreaker {
+    static final int FAILURE_THRESHOLD = 3;
+    static final long INITIAL_OPEN_MS = 2 * 1000;
+    static final long MAX_OPEN_MS = 5 * 60 * 1000;
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int PROBING = 2;
+
+    private static final Map<String, CircuitBreaker> sBreakers =
+            new HashMap<String, CircuitBreaker>();
+
+    private final ExponentialBackoff mBackoff;
+    private int mState = CLOSED;
+    private int mFailures;
+    private long mRetryAt;
+
+    public CircuitBreaker() {
+        this(new ExponentialBackoff(INITIAL_OPEN_MS, MAX_OPEN_MS));
+    }
+
+    CircuitBreaker(ExponentialBackoff backoff) {
+        mBackoff = backoff;
+    }
+
+    /**
+     * Returns the breaker for the Pi serving url, shared by every script on it.
+     */
+    public static CircuitBreaker forUrl(String url) {
+        String key = url;
+        try {
+            URL parsed = new URL(url);
+            key = parsed.getProtocol() + "://" + parsed.getHost() + ":" + parsed.getPort();
+        } catch (MalformedURLException e) {
+            // Volley will refuse it anyway; give it a breaker of its own.
+        }
+        synchronized (sBreakers) {
+            CircuitBreaker breaker = sBreakers.get(key);
+            if (breaker == null) {
+                breaker = new CircuitBreaker();
+                sBreakers.put(key, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Returns whether a request may go out now. When the breaker has been open long enough
+     * this lets exactly one request through as a probe; see {@link #isProbing()}.
+     */
+    public synchronized boolean allowRequest(long nowMs) {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nowMs < mRetryAt) {
+                    return false;
+                }
+                mState = PROBING;
+                return true;
+            default:
+                // The probe is still out.
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether the request just allowed is a probe of a Pi that has been failing.
+     */
+    public synchronized boolean isProbing() {
+        return mState == PROBING;
+    }
+
+    public synchronized boolean isOpen() {
+        return mState != CLOSED;
+    }
+
+    public synchronized void onSuccess() {
+        mState = CLOSED;
+        mFailures = 0;
+        mBackoff.reset();
+    }
+
+    public synchronized void onFailure(long nowMs) {
+        mFailures++;
+        if (mState == PROBING || mFailures >= FAILURE_THRESHOLD) {
+            mState = OPEN;
+            mRetryAt = nowMs + mBackoff.nextDelayMs();
+        }
+    }
+
+    /**
+     * Lets the next request probe straight away, for when the probe was cancelled before it
+     * could tell anything.
+     */
+    public synchronized void onProbeCancelled(long nowMs) {
+        if (mState == PROBING) {
+            mState = OPEN;
+            mRetryAt = nowMs;
+        }
+    }
+
+    /**
+     * Returns how long until a probe will be let through, or 0 if requests go out now.
+     */
+    public synchronized long getRetryInMs(long nowMs) {
+        return mState == OPEN ? Math.max(0, mRetryAt - nowMs) : 0;
+    }
+}
@@ -0,0 +1,313 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Lamp states the user asked for that the Pi hasn't confirmed yet, in an append-only file so
+ * they survive process death and can be sent once the Pi is reachable again.
+ *
+ * Every command is appended with a sequence number and the time it was given; confirming a
+ * request appends the sequence number it covered. Only the newest state per lamp is ever
+ * pending, so a burst of toggles while offline is replayed as at most one request. Replay is
+ * idempotent: commands set absolute states, so sending one again after a crash between the Pi
+ * applying it and the confirmation reaching disk changes nothing.
+ *
+ * Reads come from memory once the file has been loaded; writes happen in order on a background
+ * thread. Thread safe.
+ */
+public class CommandJournal {
+    /** Commands older than this are dropped rather than replayed. */
+    static final long MAX_AGE_MS = 60 * 60 * 1000;
+
+    private static final String FILE_NAME = "commands.journal";
+    // Rewrite the file with only what is pending once it grows past this.
+    private static final int COMPACT_AFTER_BYTES = 16 * 1024;
+    private static final byte RECORD_COMMAND = 1;
+    private static final byte RECORD_APPLIED = 2;
+
+    private static CommandJournal sInstance;
+
+    private final File mFile;
+    private final Executor mWriter;
+    // Lamp name to its newest unconfirmed command, oldest first.
+    private final Map<String, Command> mPending = new LinkedHashMap<String, Command>();
+    private long mLastSeq;
+    private long mFileLength;
+    private boolean mIsLoaded;
+
+    private static final class Command {
+        final long mSeq;
+        final long mTimeMillis;
+        final String mLamp;
+        final boolean mIsOn;
+
+        Command(long seq, long timeMillis, String lamp, boolean isOn) {
+            mSeq = seq;
+            mTimeMillis = timeMillis;
+            mLamp = lamp;
+            mIsOn = isOn;
+        }
+    }
+
+    public static synchronized CommandJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CommandJournal(new File(context.getFilesDir(), FILE_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    CommandJournal(File file, Executor writer) {
+        mFile = file;
+        mWriter = writer;
+    }
+
+    /**
+     * Records that the user asked for the given lamps, keyed by name, to be switched at
+     * timeMillis. Returns the sequence number to confirm them with.
+     */
+    public synchronized long record(Map<String, Boolean> states, long timeMillis) {
+        load();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Map.Entry<String, Boolean> state : states.entrySet()) {
+                Command command = new Command(++mLastSeq, timeMillis, state.getKey(),
+                        state.getValue());
+                // Re-inserted so that the map stays ordered by when each lamp was asked for.
+                mPending.remove(command.mLamp);
+                mPending.put(command.mLamp, command);
+                writeCommand(out, command);
+            }
+        } catch (IOException e) {
+            // Not from a byte array.
+        }
+        append(bytes.toByteArray());
+        return mLastSeq;
+    }
+
+    /**
+     * Returns the sequence number of the newest command recorded.
+     */
+    public synchronized long getLastSeq() {
+        load();
+        return mLastSeq;
+    }
+
+    /**
+     * Returns the newest pending state of each lamp, oldest first, leaving out any given
+     * before nowMillis - {@link #MAX_AGE_MS}.
+     */
+    public synchronized Map<String, Boolean> getPending(long nowMillis) {
+        load();
+        Map<String, Boolean> pending = new LinkedHashMap<String, Boolean>();
+        for (Command command : mPending.values()) {
+            if (nowMillis - command.mTimeMillis <= MAX_AGE_MS) {
+                pending.put(command.mLamp, command.mIsOn);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Records that the Pi applied every command up to and including seq.
+     */
+    public synchronized void markApplied(long seq) {
+        load();
+        removeApplied(seq);
+        if (mPending.isEmpty()) {
+            // Nothing left worth keeping.
+            rewrite(new byte[0]);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (mFileLength > COMPACT_AFTER_BYTES) {
+                for (Command command : mPending.values()) {
+                    writeCommand(out, command);
+                }
+                rewrite(bytes.toByteArray());
+            } else {
+                out.writeByte(RECORD_APPLIED);
+                out.writeLong(seq);
+                append(bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            // Not from a byte array.
+        }
+    }
+
+    private void removeApplied(long seq) {
+        Iterator<Command> commands = mPending.values().iterator();
+        while (commands.hasNext()) {
+            if (commands.next().mSeq <= seq) {
+                commands.remove();
+            }
+        }
+    }
+
+    private void append(final byte[] record) {
+        mFileLength += record.length;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(record, true);
+            }
+        });
+    }
+
+    private void rewrite(final byte[] contents) {
+        mFileLength = contents.length;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(contents, false);
+            }
+        });
+    }
+
+    private void write(byte[] bytes, boolean isAppend) {
+        if (!isAppend && bytes.length == 0) {
+            mFile.delete();
+            return;
+        }
+        // A compacted file replaces the old one atomically, as in StatusStore.
+        File target = isAppend ? mFile : new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(target, isAppend);
+            out.write(bytes);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!isAppend && !target.renameTo(mFile)) {
+                throw new IOException("Couldn't replace " + mFile);
+            }
+        } catch (IOException e) {
+            // The commands stay pending in memory; at worst a crash loses them.
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException closeError) {
+                    // Failed already.
+                }
+            }
+            if (!isAppend) {
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the file on first use, dropping a record torn by a crash mid-append so the next
+     * append starts on a record boundary.
+     */
+    private void load() {
+        if (mIsLoaded) {
+            return;
+        }
+        mIsLoaded = true;
+        byte[] contents = readFile();
+        if (contents == null) {
+            return;
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(contents);
+        DataInputStream in = new DataInputStream(bytes);
+        int good = 0;
+        try {
+            while (bytes.available() > 0) {
+                byte type = in.readByte();
+                if (type == RECORD_COMMAND) {
+                    long seq = in.readLong();
+                    long timeMillis = in.readLong();
+                    String lamp = in.readUTF();
+                    Command command = new Command(seq, timeMillis, lamp, in.readBoolean());
+                    mPending.remove(lamp);
+                    mPending.put(lamp, command);
+                    mLastSeq = Math.max(mLastSeq, seq);
+                } else if (type == RECORD_APPLIED) {
+                    long seq = in.readLong();
+                    removeApplied(seq);
+                    mLastSeq = Math.max(mLastSeq, seq);
+                } else {
+                    break;
+                }
+                good = contents.length - bytes.available();
+            }
+        } catch (EOFException e) {
+            // Torn tail; everything before it is good.
+        } catch (IOException e) {
+            // Not from a byte array.
+        }
+        mFileLength = good;
+        if (good < contents.length) {
+            truncate(good);
+        }
+    }
+
+    private byte[] readFile() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            byte[] contents = new byte[(int) mFile.length()];
+            new DataInputStream(in).readFully(contents);
+            return contents;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Read already.
+                }
+            }
+        }
+    }
+
+    private void truncate(int length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            file.setLength(length);
+        } catch (IOException e) {
+            // Appends after the torn record will be lost with it on the next load.
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Nothing more to do.
+                }
+            }
+        }
+    }
+
+    private static void writeCommand(DataOutputStream out, Command command) throws IOException {
+        out.writeByte(RECORD_COMMAND);
+        out.writeLong(command.mSeq);
+        out.writeLong(command.mTimeMillis);
+        out.writeUTF(command.mLamp);
+        out.writeBoolean(command.mIsOn);
+    }
+}
@@ -0,0 +1,353 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends lamp commands to the Pi, one request at a time and latest wins.
+ *
+ * A command is reported to listeners straight away as the expected state. While a request is
+ * in flight further commands only record the state the user wants for each lamp; when the
+ * request finishes, everything still differing from what was sent goes out together in one
+ * more request. The request's own response confirms the state, so no extra status request is
+ * needed unless there is nothing to build the confirmed status from.
+ *
+ * Every command is also written to a {@link CommandJournal}. Unless the Pi refuses it the
+ * command stays there until it goes through, and is sent with the next one, or by
+ * {@link #replayPending(String)}, even from a later process.
+ *
+ * With {@link #setFastPort(String, int)} commands to the internal URL go over the LAN command
+ * channel, see {@link FastChannel}, and over HTTP only if that gets no answer.
+ *
+ * Must only be used from the main thread.
+ */
+public class CommandQueue {
+    private static final String TAG = "command_queue_tag";
+
+    private static CommandQueue sInstance;
+
+    private final PiNetwork mNetwork;
+    private final StatusRepository mStatusRepository;
+    private final CommandJournal mJournal;
+    private final WidgetRefreshScheduler mRefreshScheduler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Fast channel calls block; one at a time is all the queue ever needs.
+    private final ExecutorService mFastExecutor = Executors.newSingleThreadExecutor();
+    private final List<PiController.OnPiStatusResponseListener> mWaiting =
+            new ArrayList<PiController.OnPiStatusResponseListener>();
+    // Lamp name to wanted state, for changes not sent yet.
+    private final Map<String, Boolean> mPending = new HashMap<String, Boolean>();
+    // Lamp name to state, for the request in flight.
+    private Map<String, Boolean> mSending;
+    // The newest journal entry covered by the request in flight.
+    private long mSendingSeq;
+    // Everything asked for since the queue was last idle, for optimistic updates.
+    private final Map<String, Boolean> mWanted = new HashMap<String, Boolean>();
+
+    private String mUrlBase;
+    // When the queue was last asked for something while idle.
+    private long mFirstAskedAt;
+    // The only URL the fast channel is used for, and its UDP port, or 0 to use HTTP only.
+    private String mFastUrlBase;
+    private int mFastPort;
+
+    public static synchronized CommandQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CommandQueue(PiNetwork.getInstance(context),
+                    StatusRepository.getInstance(context), CommandJournal.getInstance(context),
+                    WidgetRefreshScheduler.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private CommandQueue(PiNetwork network, StatusRepository statusRepository,
+                         CommandJournal journal, WidgetRefreshScheduler refreshScheduler) {
+        mNetwork = network;
+        mStatusRepository = statusRepository;
+        mJournal = journal;
+        mRefreshScheduler = refreshScheduler;
+    }
+
+    /**
+     * Asks for the primary lamp at urlBase to be turned on or off.
+     */
+    public void toggle(String urlBase, boolean turnOn,
+                       PiController.OnPiStatusResponseListener listener) {
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
+        states.put(PiStatus.PRIMARY_LAMP, turnOn);
+        setLamps(urlBase, states, listener);
+    }
+
+    /**
+     * Asks for the given lamps at urlBase, keyed by name, to be turned on or off. listener
+     * hears the expected state at once if a status is known, then the confirmed state or an
+     * error.
+     */
+    public void setLamps(String urlBase, Map<String, Boolean> states,
+                         PiController.OnPiStatusResponseListener listener) {
+        mUrlBase = urlBase;
+        if (mWanted.isEmpty()) {
+            mFirstAskedAt = SystemClock.elapsedRealtime();
+        }
+        mJournal.record(states, System.currentTimeMillis());
+        mRefreshScheduler.onCommand();
+        mPending.putAll(states);
+        mWanted.putAll(states);
+        if (!mWaiting.contains(listener)) {
+            mWaiting.add(listener);
+        }
+
+        PiStatus known = mStatusRepository.getCachedStatus(urlBase,
+                StatusRepository.MAX_STALE_MS);
+        if (known != null) {
+            PiStatus expected = known.withLampStates(mWanted);
+            for (PiController.OnPiStatusResponseListener waiting : copyWaiting()) {
+                waiting.onStatus(expected);
+            }
+        }
+
+        if (mSending == null) {
+            send();
+        }
+    }
+
+    /**
+     * Sends the commands the Pi at urlBase never confirmed, coalesced to the newest state per
+     * lamp, unless a request is already in flight (it takes them along) or the Pi's latest
+     * status shows they have been applied.
+     */
+    public void replayPending(String urlBase) {
+        if (mSending != null) {
+            return;
+        }
+        Map<String, Boolean> pending = mJournal.getPending(System.currentTimeMillis());
+        if (pending.isEmpty()) {
+            // Nothing to replay or to clear; this runs on every poll.
+            return;
+        }
+        PiStatus known = mStatusRepository.getCachedStatus(urlBase, StatusRepository.FRESH_MS);
+        if (known != null && known.withLampStates(pending).equals(known)) {
+            mJournal.markApplied(mJournal.getLastSeq());
+            return;
+        }
+        mUrlBase = urlBase;
+        send();
+    }
+
+    /**
+     * Returns the status the Pi at urlBase will have once every command asked for has gone
+     * through, or null if no recent status is known.
+     */
+    public PiStatus getExpectedStatus(String urlBase) {
+        PiStatus known = mStatusRepository.getCachedStatus(urlBase,
+                StatusRepository.MAX_STALE_MS);
+        if (known == null) {
+            return null;
+        }
+        return urlBase.equals(mUrlBase) ? known.withLampStates(mWanted) : known;
+    }
+
+    /**
+     * Returns whether every command asked for has been confirmed by the Pi or has failed.
+     */
+    public boolean isIdle() {
+        return mSending == null && mWanted.isEmpty();
+    }
+
+    /**
+     * Sends commands to internalUrl over the fast channel on port first, or only over HTTP if
+     * port is 0. Commands to any other URL always go over HTTP.
+     */
+    public void setFastPort(String internalUrl, int port) {
+        mFastUrlBase = internalUrl;
+        mFastPort = port;
+    }
+
+    /**
+     * Stops delivering results to listener.
+     */
+    public void cancel(PiController.OnPiStatusResponseListener listener) {
+        mWaiting.remove(listener);
+    }
+
+    private void send() {
+        // Everything the journal still holds, which includes mPending, so that commands that
+        // failed earlier go out with this one.
+        mSendingSeq = mJournal.getLastSeq();
+        mSending = mJournal.getPending(System.currentTimeMillis());
+        mSending.putAll(mPending);
+        mPending.clear();
+        FastChannel channel = getFastChannel(mUrlBase, mFastUrlBase, mFastPort);
+        if (channel != null) {
+            sendFast(channel);
+        } else {
+            sendHttp(mUrlBase);
+        }
+    }
+
+    /**
+     * Sends mSending over channel, falling back to HTTP if the Pi doesn't answer.
+     */
+    private void sendFast(final FastChannel channel) {
+        final String urlBase = mUrlBase;
+        final Map<String, Boolean> states = new HashMap<String, Boolean>(mSending);
+        mFastExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PiStatus status = null;
+                try {
+                    status = channel.setLamps(states);
+                } catch (IOException e) {
+                    Log.d("Error", "fast channel: " + e.getMessage());
+                }
+                final PiStatus result = status;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result != null) {
+                            onSent(urlBase, result);
+                        } else {
+                            // Commands set absolute states, so sending again is safe even if
+                            // only the answer was lost.
+                            sendHttp(urlBase);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void sendHttp(final String urlBase) {
+        final long sendingSeq = mSendingSeq;
+        PiCommandRequest request = new PiCommandRequest(CommandUrls.build(urlBase, mSending),
+                new Response.Listener<PiStatus>() {
+                    @Override
+                    public void onResponse(PiStatus status) {
+                        onSent(urlBase, status);
+                    }
+                }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                if (isRejected(error)) {
+                    // The Pi got it and refused; sending it again would only fail again.
+                    mJournal.markApplied(sendingSeq);
+                }
+                mSending = null;
+                mPending.clear();
+                mWanted.clear();
+                if (!(error instanceof PiUnreachableError)) {
+                    // It may have gone through; the cached status can't be trusted.
+                    mStatusRepository.invalidate();
+                }
+                for (PiController.OnPiStatusResponseListener listener : drainWaiting()) {
+                    listener.onError();
+                }
+                Log.d("Error", ": " + error.getMessage());
+            }
+        });
+        request.setTag(TAG);
+        mNetwork.add(request);
+    }
+
+    private void onSent(String urlBase, PiStatus status) {
+        Map<String, Boolean> sent = mSending;
+        long sentSeq = mSendingSeq;
+        mSending = null;
+        mJournal.markApplied(sentSeq);
+        // Drop changes that only asked again for what was just sent.
+        Iterator<Map.Entry<String, Boolean>> pending = mPending.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<String, Boolean> entry = pending.next();
+            if (entry.getValue().equals(sent.get(entry.getKey()))) {
+                pending.remove();
+            }
+        }
+        if (!mPending.isEmpty()) {
+            // The user changed their mind while this one was in flight.
+            send();
+            return;
+        }
+        if (mJournal.getLastSeq() > sentSeq) {
+            // Only asked again for what was just sent, so that has been applied too.
+            mJournal.markApplied(mJournal.getLastSeq());
+        }
+        // Nobody asked for anything if this was a replay.
+        boolean isReplay = mWanted.isEmpty();
+        Map<String, Boolean> applied = new HashMap<String, Boolean>(sent);
+        applied.putAll(mWanted);
+        mWanted.clear();
+
+        if (status == null) {
+            PiStatus known = mStatusRepository.getCachedStatus(urlBase,
+                    StatusRepository.MAX_STALE_MS);
+            if (known != null) {
+                status = known.withLampStates(applied);
+            }
+        }
+        if (status == null) {
+            // Nothing to build a status from; ask for it.
+            mStatusRepository.invalidate();
+            for (PiController.OnPiStatusResponseListener listener : drainWaiting()) {
+                mStatusRepository.requestStatus(urlBase, listener);
+            }
+            return;
+        }
+
+        if (!isReplay) {
+            PiMetrics.getInstance().recordTapToConfirmed(
+                    SystemClock.elapsedRealtime() - mFirstAskedAt);
+        }
+        mStatusRepository.setStatus(urlBase, status);
+        for (PiController.OnPiStatusResponseListener listener : drainWaiting()) {
+            listener.onStatus(status);
+        }
+    }
+
+    /**
+     * Returns the fast channel for commands to urlBase, or null to use HTTP. The channel is
+     * unauthenticated and waits out its retries before giving up, so it is only for the Pi at
+     * internalUrl on the LAN, never for one reached over the internet.
+     */
+    static FastChannel getFastChannel(String urlBase, String internalUrl, int port) {
+        if (port <= 0 || !urlBase.equals(internalUrl)) {
+            return null;
+        }
+        return FastChannel.forUrlBase(urlBase, port);
+    }
+
+    /**
+     * Returns whether the Pi answered error with a client error, e.g. a 404 for a lamp it
+     * doesn't have. Anything else, a 500 from a script that crashed or a 503 from a busy Pi
+     * included, may go through when sent again.
+     */
+    static boolean isRejected(VolleyError error) {
+        NetworkResponse response = error.networkResponse;
+        return response != null && response.statusCode >= 400 && response.statusCode < 500;
+    }
+
+    private List<PiController.OnPiStatusResponseListener> copyWaiting() {
+        return new ArrayList<PiController.OnPiStatusResponseListener>(mWaiting);
+    }
+
+    private List<PiController.OnPiStatusResponseListener> drainWaiting() {
+        List<PiController.OnPiStatusResponseListener> waiting = copyWaiting();
+        mWaiting.clear();
+        return waiting;
+    }
+}
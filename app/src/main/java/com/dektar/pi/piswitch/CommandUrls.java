@@ -0,0 +1,51 @@
+package com.dektar.pi.piswitch;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * Builds the URLs of the Pi's command scripts. Plain Java, so it runs and can be benchmarked
+ * off the device.
+ */
+final class CommandUrls {
+    private static final String HTTP_ON = "cgi-bin/on.py";
+    private static final String HTTP_OFF = "cgi-bin/off.py";
+    private static final String HTTP_SET = "cgi-bin/set.py";
+    private static final String PARAM_ON = "on";
+    private static final String PARAM_OFF = "off";
+
+    private CommandUrls() {
+    }
+
+    /**
+     * Returns the URL that sets the given lamps, keyed by name, on or off. Uses the old
+     * single-lamp scripts when only the primary lamp changes, so Pis without set.py keep
+     * working; anything else goes out as one batched request.
+     */
+    static String build(String urlBase, Map<String, Boolean> states) {
+        if (states.size() == 1 && states.containsKey(PiStatus.PRIMARY_LAMP)) {
+            return urlBase + "/" + (states.get(PiStatus.PRIMARY_LAMP) ? HTTP_ON : HTTP_OFF);
+        }
+        StringBuilder on = new StringBuilder();
+        StringBuilder off = new StringBuilder();
+        for (Map.Entry<String, Boolean> entry : states.entrySet()) {
+            StringBuilder names = entry.getValue() ? on : off;
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(entry.getKey());
+        }
+        return urlBase + "/" + HTTP_SET + "?" + PARAM_ON + "=" + encode(on) + "&" + PARAM_OFF
+                + "=" + encode(off);
+    }
+
+    private static String encode(CharSequence value) {
+        try {
+            // Spaces as %20 rather than +, as in a path, so lamp names read the same either way.
+            return URLEncoder.encode(value.toString(), "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.dektar.pi.piswitch;
+
+import android.os.Bundle;
+import android.support.v7.app.ActionBarActivity;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Shows how requests to the Pi have been doing since the app started, and saves the report
+ * to a file that can be attached to a bug.
+ */
+public class DiagnosticsActivity extends ActionBarActivity {
+    private static final String EXPORT_FILE_NAME = "piswitch-metrics.txt";
+
+    private TextView mReport;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        mReport = (TextView) findViewById(R.id.diagnostics_report);
+        findViewById(R.id.diagnostics_export).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                export();
+            }
+        });
+        findViewById(R.id.diagnostics_reset).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                PiMetrics.getInstance().reset();
+                showReport();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    private void showReport() {
+        mReport.setText(PiMetrics.getInstance().getReport());
+    }
+
+    private void export() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            Toast.makeText(this, R.string.diagnostics_export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        File file = new File(dir, EXPORT_FILE_NAME);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(PiMetrics.getInstance().getReport().getBytes("UTF-8"));
+            Toast.makeText(this, getString(R.string.diagnostics_exported, file.getPath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(this, R.string.diagnostics_export_failed, Toast.LENGTH_SHORT).show();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already written or already reported.
+                }
+            }
+        }
+    }
+}
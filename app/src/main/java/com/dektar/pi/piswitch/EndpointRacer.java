@@ -0,0 +1,74 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes several base URLs for the same Pi at once and reports whichever answers first.
+ *
+ * A probe is a HEAD request for the web root; any HTTP response counts as an answer. The
+ * whole race is bounded by a deadline, so an unreachable address costs at most that long
+ * rather than a full socket timeout.
+ */
+public class EndpointRacer {
+    private static final String NO_ANSWER = "";
+
+    private final ExecutorService mExecutor;
+
+    public EndpointRacer(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Blocks until one of urlBases answers or deadlineMs passes. Returns the first to answer,
+     * or null if none did in time.
+     */
+    public String race(String[] urlBases, long deadlineMs) throws InterruptedException {
+        final LinkedBlockingQueue<String> answers = new LinkedBlockingQueue<String>();
+        final int timeoutMs = (int) deadlineMs;
+        for (final String urlBase : urlBases) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    answers.add(probe(urlBase, timeoutMs) ? urlBase : NO_ANSWER);
+                }
+            });
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        for (int pending = urlBases.length; pending > 0; pending--) {
+            long remaining = deadline - System.nanoTime();
+            String answer = answers.poll(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            if (answer == null) {
+                return null;
+            }
+            if (!NO_ANSWER.equals(answer)) {
+                return answer;
+            }
+        }
+        return null;
+    }
+
+    static boolean probe(String urlBase, int timeoutMs) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(urlBase + "/").openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setUseCaches(false);
+            connection.getResponseCode();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dektar.pi.piswitch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks between the internal and external URL of the Pi by racing them, and remembers the
+ * winner for the current network until connectivity changes.
+ *
+ * Must only be used from the main thread; listeners are called on it too.
+ */
+public class EndpointSelector {
+    public interface OnEndpointSelectedListener {
+        void onEndpointSelected(String urlBase);
+    }
+
+    /** How long to wait for either URL before giving up and using the preferred one. */
+    static final long RACE_DEADLINE_MS = 1500;
+
+    private static final String NO_NETWORK = "none";
+
+    private static EndpointSelector sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final EndpointRacer mRacer = new EndpointRacer(mExecutor);
+    private final List<OnEndpointSelectedListener> mWaiting =
+            new ArrayList<OnEndpointSelectedListener>();
+
+    private String mWinner;
+    private String mWinnerNetwork;
+    private String mWinnerCandidates;
+    private String mRacingCandidates;
+    private int mRaceGeneration;
+
+    public static synchronized EndpointSelector getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EndpointSelector(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private EndpointSelector(Context context) {
+        mConnectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Calls listener with whichever of preferred and alternative answers first on the current
+     * network, or with preferred if neither answers within {@link #RACE_DEADLINE_MS}.
+     */
+    public void select(final String preferred, String alternative,
+                       OnEndpointSelectedListener listener) {
+        final String candidates = preferred + " " + alternative;
+        final String network = getNetworkKey(mConnectivityManager);
+        if (mWinner != null && network.equals(mWinnerNetwork)
+                && candidates.equals(mWinnerCandidates)) {
+            listener.onEndpointSelected(mWinner);
+            return;
+        }
+        mWaiting.add(listener);
+        if (candidates.equals(mRacingCandidates)) {
+            return;
+        }
+
+        mRacingCandidates = candidates;
+        final int generation = ++mRaceGeneration;
+        final String[] urlBases = new String[] {preferred, alternative};
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String winner = null;
+                try {
+                    winner = mRacer.race(urlBases, RACE_DEADLINE_MS);
+                } catch (InterruptedException e) {
+                    Log.d("Error", "endpoint race interrupted");
+                }
+                final String result = winner;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRaceFinished(generation, network, candidates, preferred, result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forgets the winner, e.g. because a request to it just failed.
+     */
+    public void invalidate() {
+        mWinner = null;
+    }
+
+    private void onRaceFinished(int generation, String network, String candidates,
+                                String preferred, String winner) {
+        if (generation != mRaceGeneration) {
+            // A race for different URLs replaced this one; its listeners wait for that.
+            return;
+        }
+        mRacingCandidates = null;
+        if (winner != null) {
+            mWinner = winner;
+            mWinnerNetwork = network;
+            mWinnerCandidates = candidates;
+        }
+        String urlBase = winner != null ? winner : preferred;
+        List<OnEndpointSelectedListener> waiting =
+                new ArrayList<OnEndpointSelectedListener>(mWaiting);
+        mWaiting.clear();
+        for (OnEndpointSelectedListener listener : waiting) {
+            listener.onEndpointSelected(urlBase);
+        }
+    }
+
+    /**
+     * Returns a name for the network the device is on, different for every Wi-Fi network and
+     * mobile APN.
+     */
+    static String getNetworkKey(ConnectivityManager connectivityManager) {
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return NO_NETWORK;
+        }
+        // The extra info is the SSID on Wi-Fi and the APN on mobile.
+        return info.getType() + ":" + info.getExtraInfo();
+    }
+}
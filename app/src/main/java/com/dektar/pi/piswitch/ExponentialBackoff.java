@@ -0,0 +1,43 @@
+package com.dektar.pi.piswitch;
+
+import java.util.Random;
+
+/**
+ * Delays for retrying something that keeps failing: each delay doubles up to a cap, and is
+ * spread out randomly so that many clients don't retry in lockstep. Not thread safe.
+ */
+public class ExponentialBackoff {
+    private final long mInitialDelayMs;
+    private final long mMaxDelayMs;
+    private final Random mRandom;
+    private long mNextDelayMs;
+
+    public ExponentialBackoff(long initialDelayMs, long maxDelayMs) {
+        this(initialDelayMs, maxDelayMs, new Random());
+    }
+
+    ExponentialBackoff(long initialDelayMs, long maxDelayMs, Random random) {
+        mInitialDelayMs = initialDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mRandom = random;
+        mNextDelayMs = initialDelayMs;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt: a random point between half and all
+     * of the current delay, which then doubles.
+     */
+    public long nextDelayMs() {
+        long delay = mNextDelayMs;
+        mNextDelayMs = Math.min(mNextDelayMs * 2, mMaxDelayMs);
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /**
+     * Starts over from the initial delay, e.g. after a success.
+     */
+    public void reset() {
+        mNextDelayMs = mInitialDelayMs;
+    }
+}
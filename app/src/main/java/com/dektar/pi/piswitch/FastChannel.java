@@ -0,0 +1,180 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Sends lamp commands to a Pi on the same network as small UDP datagrams instead of HTTP
+ * requests, so a toggle costs one round trip with no connection to set up and no CGI script
+ * to start. See {@link FastProtocol} for the format.
+ *
+ * Each request carries a sequence number and is sent again, with the same number, if no
+ * answer arrives within {@link #RETRANSMIT_MS}; the Pi answers a number it has seen again
+ * from memory rather than switching twice. Commands set absolute states, so even a Pi that
+ * doesn't remember is safe. After the last retry the call fails and the caller should fall
+ * back to HTTP. A channel that keeps failing is skipped at once for a while, as by a
+ * {@link CircuitBreaker}.
+ *
+ * Calls block, so must not be made on the main thread. Thread safe.
+ */
+public class FastChannel {
+    /** How long to wait for an answer before each retry, and before giving up after the last. */
+    static final int[] RETRANSMIT_MS = {50, 100, 200};
+
+    private static final Map<String, FastChannel> sChannels = new HashMap<String, FastChannel>();
+
+    private final InetSocketAddress mAddress;
+    private final CircuitBreaker mBreaker = new CircuitBreaker();
+    private final byte[] mReceiveBuffer = new byte[FastProtocol.MAX_DATAGRAM_SIZE];
+    private DatagramSocket mSocket;
+    private int mSeq = new Random().nextInt();
+
+    FastChannel(String host, int port) {
+        // Resolved when first used, off the main thread.
+        mAddress = InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /**
+     * Returns the channel to port on the Pi serving urlBase, shared by every caller, or null
+     * if urlBase has no host.
+     */
+    public static FastChannel forUrlBase(String urlBase, int port) {
+        String host;
+        try {
+            host = new URL(urlBase).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        String key = host + ":" + port;
+        synchronized (sChannels) {
+            FastChannel channel = sChannels.get(key);
+            if (channel == null) {
+                channel = new FastChannel(host, port);
+                sChannels.put(key, channel);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Sets the given lamps, keyed by name, and returns the Pi's status afterwards. Throws
+     * IOException if the Pi didn't answer or refused.
+     */
+    public PiStatus setLamps(Map<String, Boolean> states) throws IOException {
+        int seq = nextSeq();
+        byte[] request;
+        try {
+            request = FastProtocol.encodeSet(seq, states);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        return exchange(seq, request);
+    }
+
+    /**
+     * Returns the Pi's status. Throws IOException if it didn't answer.
+     */
+    public PiStatus requestStatus() throws IOException {
+        int seq = nextSeq();
+        return exchange(seq, FastProtocol.encodeStatusRequest(seq));
+    }
+
+    /**
+     * Closes the socket; the next call opens a new one.
+     */
+    public synchronized void close() {
+        if (mSocket != null) {
+            mSocket.close();
+            mSocket = null;
+        }
+    }
+
+    private synchronized int nextSeq() {
+        return ++mSeq;
+    }
+
+    private synchronized PiStatus exchange(int seq, byte[] request) throws IOException {
+        long now = System.nanoTime() / 1000000;
+        if (!mBreaker.allowRequest(now)) {
+            throw new IOException("Fast channel to " + mAddress + " is failing, retry in "
+                    + mBreaker.getRetryInMs(now) + " ms");
+        }
+        try {
+            PiStatus status = send(seq, request);
+            mBreaker.onSuccess();
+            return status;
+        } catch (IOException e) {
+            mBreaker.onFailure(System.nanoTime() / 1000000);
+            // Start from a fresh socket next time, e.g. after the network changed.
+            close();
+            throw e;
+        }
+    }
+
+    private PiStatus send(int seq, byte[] request) throws IOException {
+        DatagramSocket socket = open();
+        DatagramPacket packet = new DatagramPacket(request, request.length);
+        DatagramPacket answer = new DatagramPacket(mReceiveBuffer, mReceiveBuffer.length);
+        for (int wait : RETRANSMIT_MS) {
+            socket.send(packet);
+            long deadline = System.nanoTime() / 1000000 + wait;
+            while (true) {
+                long remaining = deadline - System.nanoTime() / 1000000;
+                if (remaining <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remaining);
+                answer.setLength(mReceiveBuffer.length);
+                try {
+                    socket.receive(answer);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                FastProtocol.Message message;
+                try {
+                    message = FastProtocol.decode(answer.getData(), answer.getLength());
+                } catch (IOException e) {
+                    // Not for us; keep waiting.
+                    continue;
+                }
+                if (!message.isAnswer() || message.mSeq != seq) {
+                    // A late answer to an earlier request or retry.
+                    continue;
+                }
+                if (message.mType == FastProtocol.TYPE_ERROR) {
+                    throw new IOException("Pi refused: " + message.mError);
+                }
+                return message.mStatus;
+            }
+        }
+        throw new SocketTimeoutException("No answer from " + mAddress);
+    }
+
+    private DatagramSocket open() throws IOException {
+        if (mSocket == null) {
+            InetSocketAddress address = mAddress;
+            if (address.isUnresolved()) {
+                address = new InetSocketAddress(address.getHostName(), address.getPort());
+                if (address.isUnresolved()) {
+                    throw new IOException("Unknown host " + mAddress.getHostName());
+                }
+            }
+            DatagramSocket socket = new DatagramSocket();
+            // Connected, so only the Pi's datagrams arrive and an unreachable port fails fast.
+            socket.connect(address);
+            mSocket = socket;
+        }
+        return mSocket;
+    }
+}
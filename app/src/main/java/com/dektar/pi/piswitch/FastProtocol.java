@@ -0,0 +1,246 @@
+package com.dektar.pi.piswitch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes and decodes the datagrams of the LAN command channel; see {@link FastChannel}.
+ *
+ * Every datagram starts with the magic "PS", a version, a type and the sequence number of the
+ * request it belongs to, big-endian. A request to set lamps carries a count and then each
+ * lamp's name and wanted state; a status request carries nothing. Both are answered with the
+ * same sequence number and a status snapshot: the temperatures and every lamp's name, id and
+ * state. A request the Pi can't carry out is answered with an error and a message. A discovery
+ * request, broadcast to every Pi on the network, carries nothing and is answered with the
+ * Pi's name and the port of its web server.
+ *
+ * Both ends are here so the Pi side can be checked against the same code.
+ */
+final class FastProtocol {
+    static final int VERSION = 1;
+    static final byte TYPE_SET = 1;
+    static final byte TYPE_STATUS = 2;
+    static final byte TYPE_DISCOVER = 3;
+    // Answers are the request type with the top bit set.
+    static final byte TYPE_ACK = (byte) 0x80;
+    static final byte TYPE_ERROR = (byte) 0xFF;
+    /** Stays inside one Ethernet frame, so a datagram is never fragmented. */
+    static final int MAX_DATAGRAM_SIZE = 1400;
+
+    private static final short MAGIC = 0x5053;
+    private static final int MAX_LAMPS = 255;
+
+    /**
+     * A decoded datagram. Requests to set lamps have states; answers have a status or, for
+     * errors, a message; answers to discovery have a name and a web server port.
+     */
+    static final class Message {
+        final byte mType;
+        final int mSeq;
+        final Map<String, Boolean> mStates;
+        final PiStatus mStatus;
+        final String mError;
+        final String mName;
+        final int mHttpPort;
+
+        Message(byte type, int seq, Map<String, Boolean> states, PiStatus status,
+                String error) {
+            this(type, seq, states, status, error, null, 0);
+        }
+
+        Message(byte type, int seq, Map<String, Boolean> states, PiStatus status,
+                String error, String name, int httpPort) {
+            mType = type;
+            mSeq = seq;
+            mStates = states;
+            mStatus = status;
+            mError = error;
+            mName = name;
+            mHttpPort = httpPort;
+        }
+
+        boolean isAnswer() {
+            return (mType & TYPE_ACK) != 0;
+        }
+    }
+
+    private FastProtocol() {
+    }
+
+    /**
+     * Returns a request to set the given lamps, keyed by name. Throws
+     * IllegalArgumentException if they don't fit in one datagram.
+     */
+    static byte[] encodeSet(int seq, Map<String, Boolean> states) {
+        if (states.size() > MAX_LAMPS) {
+            throw new IllegalArgumentException("Too many lamps: " + states.size());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, TYPE_SET, seq);
+        try {
+            out.writeByte(states.size());
+            for (Map.Entry<String, Boolean> state : states.entrySet()) {
+                out.writeUTF(state.getKey());
+                out.writeBoolean(state.getValue());
+            }
+        } catch (IOException e) {
+            // Not to a byte array.
+        }
+        return checkSize(bytes.toByteArray());
+    }
+
+    static byte[] encodeStatusRequest(int seq) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        header(bytes, TYPE_STATUS, seq);
+        return bytes.toByteArray();
+    }
+
+    static byte[] encodeDiscover(int seq) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        header(bytes, TYPE_DISCOVER, seq);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the answer to a discovery request from the Pi called name, whose web server
+     * listens on httpPort.
+     */
+    static byte[] encodeDiscoverAnswer(int seq, String name, int httpPort) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, (byte) (TYPE_DISCOVER | TYPE_ACK), seq);
+        try {
+            out.writeUTF(name);
+            out.writeShort(httpPort);
+        } catch (IOException e) {
+            // Not to a byte array.
+        }
+        return checkSize(bytes.toByteArray());
+    }
+
+    /**
+     * Returns the answer to a request of requestType: status as it is after the request was
+     * carried out.
+     */
+    static byte[] encodeAck(byte requestType, int seq, PiStatus status) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, (byte) (requestType | TYPE_ACK), seq);
+        List<Lamp> lamps = status.getLamps();
+        try {
+            out.writeDouble(status.getInsideTemp());
+            out.writeDouble(status.getOutsideTemp());
+            if (lamps.isEmpty()) {
+                // Only the primary lamp is known; report it so its state isn't lost.
+                out.writeByte(1);
+                writeLamp(out, new Lamp(PiStatus.PRIMARY_LAMP, null, status.isOn()));
+            } else {
+                out.writeByte(Math.min(lamps.size(), MAX_LAMPS));
+                for (int i = 0; i < lamps.size() && i < MAX_LAMPS; i++) {
+                    writeLamp(out, lamps.get(i));
+                }
+            }
+        } catch (IOException e) {
+            // Not to a byte array.
+        }
+        return checkSize(bytes.toByteArray());
+    }
+
+    static byte[] encodeError(int seq, String message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, TYPE_ERROR, seq);
+        try {
+            out.writeUTF(message);
+        } catch (IOException e) {
+            // Not to a byte array.
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes length bytes of data. Throws IOException if they aren't a datagram of this
+     * protocol and version.
+     */
+    static Message decode(byte[] data, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+        if (in.readShort() != MAGIC) {
+            throw new IOException("Not a Pi Switch datagram");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        byte type = in.readByte();
+        int seq = in.readInt();
+        switch (type) {
+            case TYPE_SET:
+                int count = in.readUnsignedByte();
+                Map<String, Boolean> states = new LinkedHashMap<String, Boolean>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    states.put(name, in.readBoolean());
+                }
+                return new Message(type, seq, states, null, null);
+            case TYPE_STATUS:
+            case TYPE_DISCOVER:
+                return new Message(type, seq, null, null, null);
+            case TYPE_SET | TYPE_ACK:
+            case TYPE_STATUS | TYPE_ACK:
+                return new Message(type, seq, null, readStatus(in), null);
+            case TYPE_DISCOVER | TYPE_ACK:
+                String name = in.readUTF();
+                return new Message(type, seq, null, null, null, name, in.readUnsignedShort());
+            case TYPE_ERROR:
+                return new Message(type, seq, null, null, in.readUTF());
+            default:
+                throw new IOException("Unknown type " + type);
+        }
+    }
+
+    private static PiStatus readStatus(DataInputStream in) throws IOException {
+        double insideTemp = in.readDouble();
+        double outsideTemp = in.readDouble();
+        int count = in.readUnsignedByte();
+        List<Lamp> lamps = new ArrayList<Lamp>(count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String id = in.readBoolean() ? in.readUTF() : null;
+            lamps.add(new Lamp(name, id, in.readBoolean()));
+        }
+        return new PiStatus(lamps, insideTemp, outsideTemp);
+    }
+
+    private static void writeLamp(DataOutputStream out, Lamp lamp) throws IOException {
+        out.writeUTF(lamp.getName());
+        out.writeBoolean(lamp.getId() != null);
+        if (lamp.getId() != null) {
+            out.writeUTF(lamp.getId());
+        }
+        out.writeBoolean(lamp.isOn());
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes, byte type, int seq) {
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            out.writeInt(seq);
+        } catch (IOException e) {
+            // Not to a byte array.
+        }
+        return out;
+    }
+
+    private static byte[] checkSize(byte[] datagram) {
+        if (datagram.length > MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Datagram too large: " + datagram.length);
+        }
+        return datagram;
+    }
+}
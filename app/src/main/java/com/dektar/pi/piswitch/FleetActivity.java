@@ -0,0 +1,267 @@
+package com.dektar.pi.piswitch;
+
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.ActionBarActivity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Dashboard of every Pi in the fleet, filled in as each one answers, with group commands.
+ */
+public class FleetActivity extends ActionBarActivity {
+    private final Handler mHandler = new Handler();
+    private final Executor mMainThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    private FleetClient mClient;
+    private TemperatureLabels mTemperatureLabels;
+    private ListView mList;
+    private ArrayAdapter<String> mRows;
+    private TextView mSummary;
+    private List<PiNode> mNodes = new ArrayList<PiNode>();
+    // Latest status of each node; kept across refreshes so the dashboard never empties.
+    private final Map<PiNode, PiStatus> mStatuses = new HashMap<PiNode, PiStatus>();
+    // Nodes that answered the latest refresh, and nodes that couldn't be reached.
+    private final Set<PiNode> mAnswered = new HashSet<PiNode>();
+    private final Set<PiNode> mUnreachable = new HashSet<PiNode>();
+    private FleetClient.Batch mFetch;
+    private FleetClient.Batch mCommand;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_fleet);
+        mClient = FleetClient.getInstance();
+        mTemperatureLabels = new TemperatureLabels(getString(R.string.temp_string));
+
+        mSummary = (TextView) findViewById(R.id.fleet_summary);
+        mList = (ListView) findViewById(R.id.fleet_list);
+        mList.setEmptyView(findViewById(R.id.fleet_empty));
+        mRows = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1,
+                new ArrayList<String>());
+        mList.setAdapter(mRows);
+        mList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                confirmDelete(mNodes.get(position));
+            }
+        });
+        findViewById(R.id.fleet_all_on).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                setAll(true);
+            }
+        });
+        findViewById(R.id.fleet_all_off).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                setAll(false);
+            }
+        });
+        findViewById(R.id.fleet_add).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showAddDialog();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mNodes = FleetStore.getInstance(this).getNodes();
+        refresh();
+    }
+
+    @Override
+    protected void onPause() {
+        // Requests already sent finish on their own; only stop hearing about them.
+        if (mFetch != null) {
+            mFetch.cancel();
+            mFetch = null;
+        }
+        if (mCommand != null) {
+            mCommand.cancel();
+            mCommand = null;
+        }
+        super.onPause();
+    }
+
+    private void refresh() {
+        if (mFetch != null) {
+            mFetch.cancel();
+        }
+        mAnswered.clear();
+        mUnreachable.clear();
+        showNodes();
+        mFetch = mClient.fetchStatuses(mNodes, mMainThread, new FleetClient.Listener() {
+            @Override
+            public void onNodeStatus(PiNode node, PiStatus status) {
+                mStatuses.put(node, status);
+                mAnswered.add(node);
+                showNodes();
+            }
+
+            @Override
+            public void onNodeError(PiNode node) {
+                mUnreachable.add(node);
+                showNodes();
+            }
+
+            @Override
+            public void onDone() {
+                mFetch = null;
+            }
+        });
+    }
+
+    /**
+     * Switches every known lamp of every node, all nodes at once.
+     */
+    private void setAll(boolean turnOn) {
+        if (mCommand != null) {
+            mCommand.cancel();
+        }
+        final Map<PiNode, Map<String, Boolean>> states =
+                new LinkedHashMap<PiNode, Map<String, Boolean>>();
+        for (PiNode node : mNodes) {
+            states.put(node, FleetClient.statesForAll(mStatuses.get(node), turnOn));
+        }
+        mCommand = mClient.setLamps(states, mMainThread, new FleetClient.Listener() {
+            @Override
+            public void onNodeStatus(PiNode node, PiStatus status) {
+                PiStatus known = mStatuses.get(node);
+                if (status == null && known != null) {
+                    // The script only said it ran.
+                    status = known.withLampStates(states.get(node));
+                }
+                if (status != null) {
+                    mStatuses.put(node, status);
+                }
+                mAnswered.add(node);
+                mUnreachable.remove(node);
+                showNodes();
+            }
+
+            @Override
+            public void onNodeError(PiNode node) {
+                mUnreachable.add(node);
+                showNodes();
+            }
+
+            @Override
+            public void onDone() {
+                mCommand = null;
+            }
+        });
+    }
+
+    private void showNodes() {
+        List<String> rows = new ArrayList<String>(mNodes.size());
+        int lampsOn = 0;
+        for (PiNode node : mNodes) {
+            rows.add(describe(node));
+            PiStatus status = mStatuses.get(node);
+            if (status != null && mAnswered.contains(node)) {
+                lampsOn += countOn(status);
+            }
+        }
+        mSummary.setText(getString(R.string.fleet_summary, mAnswered.size(), mNodes.size(),
+                lampsOn));
+        // Same adapter, so the list keeps its scroll position as nodes answer.
+        mRows.setNotifyOnChange(false);
+        mRows.clear();
+        mRows.addAll(rows);
+        mRows.notifyDataSetChanged();
+    }
+
+    private String describe(PiNode node) {
+        if (mUnreachable.contains(node)) {
+            return getString(R.string.fleet_node_unreachable, node.getName());
+        }
+        PiStatus status = mStatuses.get(node);
+        if (status == null) {
+            return getString(R.string.fleet_node_waiting, node.getName());
+        }
+        // A Pi without a lamp list has just the one.
+        int lampCount = Math.max(1, status.getLamps().size());
+        return getString(R.string.fleet_node_status, node.getName(), countOn(status), lampCount,
+                mTemperatureLabels.get(TemperatureLabels.toTenths(status.getInsideTemp())),
+                mTemperatureLabels.get(TemperatureLabels.toTenths(status.getOutsideTemp())));
+    }
+
+    private static int countOn(PiStatus status) {
+        if (status.getLamps().isEmpty()) {
+            return status.isOn() ? 1 : 0;
+        }
+        return status.getLampsOnCount();
+    }
+
+    private void confirmDelete(final PiNode node) {
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.fleet_delete, node.getName()))
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        List<PiNode> nodes = new ArrayList<PiNode>(mNodes);
+                        nodes.remove(node);
+                        setNodes(nodes);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void showAddDialog() {
+        final View view = LayoutInflater.from(this).inflate(R.layout.dialog_fleet_node, null);
+        final EditText name = (EditText) view.findViewById(R.id.fleet_name);
+        final EditText url = (EditText) view.findViewById(R.id.fleet_url);
+        new AlertDialog.Builder(this)
+                .setView(view)
+                .setPositiveButton(R.string.fleet_add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String nodeName = name.getText().toString().trim();
+                        String urlBase = url.getText().toString().trim();
+                        while (urlBase.endsWith("/")) {
+                            urlBase = urlBase.substring(0, urlBase.length() - 1);
+                        }
+                        if (nodeName.isEmpty() || urlBase.isEmpty()) {
+                            return;
+                        }
+                        List<PiNode> nodes = new ArrayList<PiNode>(mNodes);
+                        nodes.add(new PiNode(nodeName, urlBase));
+                        setNodes(nodes);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void setNodes(List<PiNode> nodes) {
+        FleetStore.getInstance(this).setNodes(nodes);
+        mNodes = FleetStore.getInstance(this).getNodes();
+        refresh();
+    }
+}
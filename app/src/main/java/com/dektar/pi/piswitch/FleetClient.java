@@ -0,0 +1,264 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Talks to every Pi of a fleet at once: fetches their statuses or sends them commands, at most
+ * a fixed number of requests in flight, and reports each Pi as soon as it answers.
+ *
+ * Each request has a deadline of its own, counted from when it starts, after which its
+ * connection is dropped and the Pi reported as unreachable; one Pi that has gone away costs
+ * the others nothing. Status fetches are conditional and compact, as in
+ * {@link StatusResponseCache}, with one cache per Pi.
+ */
+public class FleetClient {
+    public interface Listener {
+        /**
+         * node answered. status is null if it was sent a command and didn't say what its
+         * status is now.
+         */
+        void onNodeStatus(PiNode node, PiStatus status);
+
+        void onNodeError(PiNode node);
+
+        /**
+         * Every node has been reported.
+         */
+        void onDone();
+    }
+
+    /**
+     * Results of one fan-out, until cancelled.
+     */
+    public static final class Batch {
+        private volatile boolean mIsCancelled;
+
+        /**
+         * Stops reporting results and skips Pis not asked yet.
+         */
+        public void cancel() {
+            mIsCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mIsCancelled;
+        }
+    }
+
+    /** Requests in flight at once, whatever the size of the fleet. */
+    static final int MAX_PARALLEL = 4;
+    /** How long one Pi gets to answer. */
+    static final long NODE_DEADLINE_MS = 3000;
+
+    private static final String HTTP_STATUS = "status.php";
+    private static final long IDLE_THREAD_MS = 30 * 1000;
+
+    private static FleetClient sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledThreadPoolExecutor mWatchdog;
+    private final long mNodeDeadlineMs;
+    // Base URL to the cache for its status, so every Pi has its own validators.
+    private final Map<String, StatusResponseCache> mCaches =
+            new HashMap<String, StatusResponseCache>();
+
+    public static synchronized FleetClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new FleetClient(MAX_PARALLEL, NODE_DEADLINE_MS);
+        }
+        return sInstance;
+    }
+
+    FleetClient(int maxParallel, long nodeDeadlineMs) {
+        mNodeDeadlineMs = nodeDeadlineMs;
+        // Extra requests wait in the queue; threads go away when the fleet is left alone.
+        mExecutor = new ThreadPoolExecutor(maxParallel, maxParallel, IDLE_THREAD_MS,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+        mWatchdog = new ScheduledThreadPoolExecutor(1);
+        mWatchdog.setKeepAliveTime(IDLE_THREAD_MS, TimeUnit.MILLISECONDS);
+        mWatchdog.allowCoreThreadTimeOut(true);
+        mWatchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Fetches the status of every node, calling listener on callbackExecutor as each answers.
+     */
+    public Batch fetchStatuses(List<PiNode> nodes, Executor callbackExecutor,
+                               Listener listener) {
+        Map<PiNode, String> urls = new LinkedHashMap<PiNode, String>();
+        for (PiNode node : nodes) {
+            urls.put(node, node.getUrlBase() + "/" + HTTP_STATUS + "?"
+                    + StatusResponseCache.FIELDS_QUERY);
+        }
+        return fanOut(urls, true, callbackExecutor, listener);
+    }
+
+    /**
+     * Sends every node its lamp states, keyed by lamp name, calling listener on
+     * callbackExecutor as each answers.
+     */
+    public Batch setLamps(Map<PiNode, Map<String, Boolean>> states, Executor callbackExecutor,
+                          Listener listener) {
+        Map<PiNode, String> urls = new LinkedHashMap<PiNode, String>();
+        for (Map.Entry<PiNode, Map<String, Boolean>> entry : states.entrySet()) {
+            urls.put(entry.getKey(),
+                    CommandUrls.build(entry.getKey().getUrlBase(), entry.getValue()));
+        }
+        return fanOut(urls, false, callbackExecutor, listener);
+    }
+
+    /**
+     * Returns the states that switch every lamp in known on or off, or only the primary lamp
+     * if known is null or lists no lamps.
+     */
+    public static Map<String, Boolean> statesForAll(PiStatus known, boolean turnOn) {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        if (known != null) {
+            for (Lamp lamp : known.getLamps()) {
+                states.put(lamp.getName(), turnOn);
+            }
+        }
+        if (states.isEmpty()) {
+            states.put(PiStatus.PRIMARY_LAMP, turnOn);
+        }
+        return states;
+    }
+
+    private Batch fanOut(Map<PiNode, String> urls, final boolean isStatus,
+                         final Executor callbackExecutor, final Listener listener) {
+        final Batch batch = new Batch();
+        final AtomicInteger remaining = new AtomicInteger(urls.size());
+        if (urls.isEmpty()) {
+            deliverDone(batch, callbackExecutor, listener);
+            return batch;
+        }
+        for (final Map.Entry<PiNode, String> entry : urls.entrySet()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (batch.isCancelled()) {
+                        return;
+                    }
+                    PiNode node = entry.getKey();
+                    try {
+                        deliverStatus(batch, callbackExecutor, listener, node,
+                                request(node, entry.getValue(), isStatus));
+                    } catch (IOException e) {
+                        deliverError(batch, callbackExecutor, listener, node);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        deliverDone(batch, callbackExecutor, listener);
+                    }
+                }
+            });
+        }
+        return batch;
+    }
+
+    private PiStatus request(PiNode node, String url, boolean isStatus) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(url).openConnection();
+        // Timeouts only bound each read; the watchdog bounds the whole exchange.
+        ScheduledFuture<?> watchdog = mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        }, mNodeDeadlineMs, TimeUnit.MILLISECONDS);
+        try {
+            connection.setConnectTimeout((int) mNodeDeadlineMs);
+            connection.setReadTimeout((int) mNodeDeadlineMs);
+            connection.setUseCaches(false);
+            StatusResponseCache cache = isStatus ? getCache(node) : null;
+            if (cache != null) {
+                for (Map.Entry<String, String> header : cache.getRequestHeaders(url).entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK
+                    && code != StatusResponseCache.SC_NOT_MODIFIED) {
+                throw new IOException("HTTP " + code + " from " + node);
+            }
+            byte[] body = code == HttpURLConnection.HTTP_OK
+                    ? HttpResponses.readBody(connection) : new byte[0];
+            if (cache != null) {
+                return cache.onResponse(url, code, HttpResponses.getHeaders(connection), body);
+            }
+            if (body.length == 0) {
+                return null;
+            }
+            try {
+                return StatusParser.parse(body);
+            } catch (IOException e) {
+                // Plain text from an older script; the 200 is all we get.
+                return null;
+            }
+        } finally {
+            watchdog.cancel(false);
+            connection.disconnect();
+        }
+    }
+
+    private StatusResponseCache getCache(PiNode node) {
+        synchronized (mCaches) {
+            StatusResponseCache cache = mCaches.get(node.getUrlBase());
+            if (cache == null) {
+                cache = new StatusResponseCache();
+                mCaches.put(node.getUrlBase(), cache);
+            }
+            return cache;
+        }
+    }
+
+    private static void deliverStatus(final Batch batch, Executor executor,
+                                      final Listener listener, final PiNode node,
+                                      final PiStatus status) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!batch.isCancelled()) {
+                    listener.onNodeStatus(node, status);
+                }
+            }
+        });
+    }
+
+    private static void deliverError(final Batch batch, Executor executor,
+                                     final Listener listener, final PiNode node) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!batch.isCancelled()) {
+                    listener.onNodeError(node);
+                }
+            }
+        });
+    }
+
+    private static void deliverDone(final Batch batch, Executor executor,
+                                    final Listener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!batch.isCancelled()) {
+                    listener.onDone();
+                }
+            }
+        });
+    }
+}
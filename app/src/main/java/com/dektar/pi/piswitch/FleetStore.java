@@ -0,0 +1,141 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The Pis of the user's fleet, kept on disk in the order they were added.
+ *
+ * Works like {@link StatusStore}: once loaded the list is read from memory, and each change is
+ * written to a temporary file on a background thread and renamed over the old one, so a crash
+ * mid-write never leaves half a list.
+ */
+public class FleetStore {
+    private static final String FILE_NAME = "fleet.bin";
+    private static final int VERSION = 1;
+
+    private static FleetStore sInstance;
+
+    private final File mFile;
+    private final Executor mWriter;
+    private final AtomicReference<List<PiNode>> mPendingWrite =
+            new AtomicReference<List<PiNode>>();
+    private List<PiNode> mNodes;
+
+    public static synchronized FleetStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FleetStore(new File(context.getFilesDir(), FILE_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    FleetStore(File file, Executor writer) {
+        mFile = file;
+        mWriter = writer;
+    }
+
+    /**
+     * Returns every node, oldest first. Only the first call may touch the disk.
+     */
+    public synchronized List<PiNode> getNodes() {
+        if (mNodes == null) {
+            mNodes = read();
+        }
+        return mNodes;
+    }
+
+    /**
+     * Replaces every node, effective immediately for {@link #getNodes()} and written to disk in
+     * the background.
+     */
+    public synchronized void setNodes(List<PiNode> nodes) {
+        mNodes = Collections.unmodifiableList(new ArrayList<PiNode>(nodes));
+        if (mPendingWrite.getAndSet(mNodes) == null) {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<PiNode> latest = mPendingWrite.getAndSet(null);
+                    if (latest != null) {
+                        write(latest);
+                    }
+                }
+            });
+        }
+    }
+
+    private List<PiNode> read() {
+        List<PiNode> nodes = new ArrayList<PiNode>();
+        if (!mFile.exists()) {
+            return Collections.unmodifiableList(nodes);
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() == VERSION) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    nodes.add(new PiNode(name, in.readUTF()));
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable; start over.
+            nodes.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return Collections.unmodifiableList(nodes);
+    }
+
+    private void write(List<PiNode> nodes) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(VERSION);
+            out.writeInt(nodes.size());
+            for (PiNode node : nodes) {
+                out.writeUTF(node.getName());
+                out.writeUTF(node.getUrlBase());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            fileOut = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Couldn't replace " + mFile);
+            }
+        } catch (IOException e) {
+            closeQuietly(fileOut);
+            tmp.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+}
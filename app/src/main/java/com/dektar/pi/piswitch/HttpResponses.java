@@ -0,0 +1,50 @@
+package com.dektar.pi.piswitch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads what the Pi answered on a plain HttpURLConnection, for requests that don't go through
+ * Volley. Free of Android, so the load test can use it too.
+ */
+public class HttpResponses {
+    private HttpResponses() {
+    }
+
+    /**
+     * Reads the whole body of connection's response and closes its stream.
+     */
+    public static byte[] readBody(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the first value of each of connection's response headers, by name.
+     */
+    public static Map<String, String> getHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            // The status line has a null name.
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+}
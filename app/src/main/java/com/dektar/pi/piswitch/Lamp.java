@@ -0,0 +1,62 @@
+package com.dektar.pi.piswitch;
+
+/**
+ * One lamp attached to the Pi. Lamps are addressed by name; the Pi may also give them an id.
+ */
+public final class Lamp {
+    private final String mName;
+    private final String mId;
+    private final boolean mIsOn;
+
+    public Lamp(String name, String id, boolean isOn) {
+        mName = name;
+        mId = id;
+        mIsOn = isOn;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the Pi's id for this lamp, or null if it doesn't report one.
+     */
+    public String getId() {
+        return mId;
+    }
+
+    public boolean isOn() {
+        return mIsOn;
+    }
+
+    public Lamp withState(boolean isOn) {
+        return isOn == mIsOn ? this : new Lamp(mName, mId, isOn);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Lamp)) {
+            return false;
+        }
+        Lamp other = (Lamp) o;
+        return mIsOn == other.mIsOn && mName.equals(other.mName)
+                && (mId == null ? other.mId == null : mId.equals(other.mId));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mName.hashCode();
+        result = 31 * result + (mId != null ? mId.hashCode() : 0);
+        result = 31 * result + (mIsOn ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Lamp{" + mName + (mId != null ? "#" + mId : "") + "=" + (mIsOn ? "on" : "off")
+                + "}";
+    }
+}
@@ -0,0 +1,84 @@
+package com.dektar.pi.piswitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lamps known to a screen, indexed by name and by the Pi's id.
+ *
+ * Each status is merged in place: entries that didn't change are kept as they are and the
+ * names of those that did are returned, so a UI only needs to touch the rows that changed.
+ * Not thread safe.
+ */
+public class LampRegistry {
+    private final LinkedHashMap<String, Lamp> mByName = new LinkedHashMap<String, Lamp>();
+    private final Map<String, Lamp> mById = new HashMap<String, Lamp>();
+
+    /**
+     * Merges lamps in, returning the names of lamps that were added, removed or switched.
+     */
+    public List<String> update(List<Lamp> lamps) {
+        List<String> changed = new ArrayList<String>();
+        boolean sameOrder = lamps.size() == mByName.size();
+        Iterator<String> known = mByName.keySet().iterator();
+        for (Lamp lamp : lamps) {
+            if (sameOrder && !(known.hasNext() && known.next().equals(lamp.getName()))) {
+                sameOrder = false;
+            }
+            Lamp previous = mByName.get(lamp.getName());
+            if (!lamp.equals(previous)) {
+                changed.add(lamp.getName());
+            }
+        }
+        if (sameOrder) {
+            // Common case: same lamps in the same order, so only replace what changed.
+            for (Lamp lamp : lamps) {
+                if (!lamp.equals(mByName.get(lamp.getName()))) {
+                    put(lamp);
+                }
+            }
+            return changed;
+        }
+
+        Map<String, Lamp> previous = new LinkedHashMap<String, Lamp>(mByName);
+        mByName.clear();
+        mById.clear();
+        for (Lamp lamp : lamps) {
+            put(lamp);
+            previous.remove(lamp.getName());
+        }
+        changed.addAll(previous.keySet());
+        return changed;
+    }
+
+    /**
+     * Returns the lamp with the given name or id, or null.
+     */
+    public Lamp get(String nameOrId) {
+        Lamp lamp = mByName.get(nameOrId);
+        return lamp != null ? lamp : mById.get(nameOrId);
+    }
+
+    public List<Lamp> getLamps() {
+        return Collections.unmodifiableList(new ArrayList<Lamp>(mByName.values()));
+    }
+
+    public int size() {
+        return mByName.size();
+    }
+
+    private void put(Lamp lamp) {
+        Lamp previous = mByName.put(lamp.getName(), lamp);
+        if (previous != null && previous.getId() != null) {
+            mById.remove(previous.getId());
+        }
+        if (lamp.getId() != null) {
+            mById.put(lamp.getId(), lamp);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.dektar.pi.piswitch;
+
+/**
+ * Counts durations in buckets that each grow by about a quarter, from 1ms to a minute, so
+ * percentiles come out within 25% using a fixed few hundred bytes. Recording allocates
+ * nothing.
+ *
+ * Not thread safe.
+ */
+public class LatencyHistogram {
+    private static final long MAX_BOUND_MS = 60 * 1000;
+    // Upper bound of each bucket, inclusive; the last one takes everything longer too.
+    private static final long[] BOUNDS_MS;
+
+    static {
+        long[] bounds = new long[64];
+        int count = 0;
+        long bound = 1;
+        while (bound < MAX_BOUND_MS) {
+            bounds[count++] = bound;
+            bound = Math.max(bound + 1, Math.round(bound * 1.25));
+        }
+        bounds[count++] = MAX_BOUND_MS;
+        BOUNDS_MS = new long[count];
+        System.arraycopy(bounds, 0, BOUNDS_MS, 0, count);
+    }
+
+    private final int[] mCounts = new int[BOUNDS_MS.length];
+    private int mCount;
+    private long mSumMs;
+    private long mMaxMs;
+
+    public void record(long durationMs) {
+        if (durationMs < 0) {
+            durationMs = 0;
+        }
+        mCounts[bucketOf(durationMs)]++;
+        mCount++;
+        mSumMs += durationMs;
+        mMaxMs = Math.max(mMaxMs, durationMs);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getMeanMs() {
+        return mCount == 0 ? 0 : mSumMs / mCount;
+    }
+
+    public long getMaxMs() {
+        return mMaxMs;
+    }
+
+    /**
+     * Returns a duration that at least the given fraction (0 to 1) of recorded durations are
+     * no longer than, rounded up to the bucket's bound.
+     */
+    public long getPercentileMs(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * mCount));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                // The last bucket has no real bound; the max is the best answer there.
+                return i == mCounts.length - 1 ? mMaxMs : Math.min(BOUNDS_MS[i], mMaxMs);
+            }
+        }
+        return mMaxMs;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSumMs = 0;
+        mMaxMs = 0;
+    }
+
+    private static int bucketOf(long durationMs) {
+        int low = 0;
+        int high = BOUNDS_MS.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS_MS[mid] < durationMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -2,11 +2,10 @@ package com.dektar.pi.piswitch;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.provider.AlarmClock;
+import android.os.SystemClock;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v7.app.ActionBarActivity;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 
@@ -14,27 +13,15 @@ public class MainActivity extends ActionBarActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long launchedAt = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
         FragmentManager fragmentManager = getSupportFragmentManager();
         FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-        ToggleFragment toggleFragment = new ToggleFragment();
+        ToggleFragment toggleFragment = ToggleFragment.newInstance(launchedAt);
         fragmentTransaction.replace(android.R.id.content, toggleFragment);
         fragmentTransaction.commit();
-
-        Intent intent = getIntent();
-        if (AlarmClock.ACTION_SET_ALARM.equals(intent.getAction())) {
-            if (intent.hasExtra(AlarmClock.EXTRA_HOUR)) {
-                int hour = intent.getIntExtra(AlarmClock.EXTRA_HOUR, 0);
-                Log.d("intent set", "user set the alarm intent with hour " + hour);
-                if (hour % 2 == 0) {
-                    toggleFragment.tryTurningOn();
-                } else {
-                    toggleFragment.tryTurningOff();
-                }
-            }
-        }
     }
 
     @Override
@@ -52,10 +39,19 @@ public class MainActivity extends ActionBarActivity {
         int id = item.getItemId();
 
         //noinspection SimplifiableIfStatement
-        if (id == R.id.action_settings) {
+        if (id == R.id.action_schedule) {
+            startActivity(new Intent(this, ScheduleActivity.class));
+            return true;
+        } else if (id == R.id.action_fleet) {
+            startActivity(new Intent(this, FleetActivity.class));
+            return true;
+        } else if (id == R.id.action_settings) {
             Intent intent = new Intent(this, SettingsActivity.class);
             this.startActivity(intent);
             return true;
+        } else if (id == R.id.action_diagnostics) {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
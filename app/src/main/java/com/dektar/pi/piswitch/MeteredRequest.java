@@ -0,0 +1,131 @@
+package com.dektar.pi.piswitch;
+
+import android.os.SystemClock;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+/**
+ * Base for requests to the Pi that records their phases and outcome in {@link PiMetrics} and
+ * reports whether the Pi could be reached to its {@link CircuitBreaker}.
+ *
+ * Timing comes from the markers Volley adds as a request moves through the queue, so only a
+ * few longs are written per request.
+ */
+public abstract class MeteredRequest<T> extends Request<T> {
+    private final Response.Listener<T> mListener;
+    private final PiMetrics.Endpoint mMetrics;
+    private final CircuitBreaker mCircuitBreaker;
+
+    private long mQueuedAt = -1;
+    private long mTakenAt = -1;
+    private long mReceivedAt = -1;
+    private long mParsedAt = -1;
+    private boolean mIsCacheHit;
+    private boolean mIsProbe;
+    private int mOutcome = PiMetrics.OUTCOME_SUCCESS;
+    private boolean mIsUnreachable;
+
+    public MeteredRequest(int method, String url, Response.Listener<T> listener,
+                          Response.ErrorListener errorListener) {
+        super(method, url, errorListener);
+        mListener = listener;
+        mMetrics = PiMetrics.getInstance().getEndpoint(url);
+        mCircuitBreaker = CircuitBreaker.forUrl(url);
+    }
+
+    /**
+     * Returns whether the Pi's circuit breaker lets this request go out now. Called once, by
+     * {@link PiNetwork} before queueing it.
+     */
+    boolean acquire(long nowMs) {
+        if (!mCircuitBreaker.allowRequest(nowMs)) {
+            return false;
+        }
+        mIsProbe = mCircuitBreaker.isProbing();
+        if (mIsProbe) {
+            // A probe only needs to find out whether the Pi is back; don't retry it.
+            setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 0,
+                    DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        }
+        return true;
+    }
+
+    long getCircuitRetryInMs(long nowMs) {
+        return mCircuitBreaker.getRetryInMs(nowMs);
+    }
+
+    @Override
+    public void addMarker(String tag) {
+        super.addMarker(tag);
+        long now = SystemClock.elapsedRealtime();
+        if ("add-to-queue".equals(tag)) {
+            mQueuedAt = now;
+        } else if ("cache-hit".equals(tag)) {
+            mIsCacheHit = true;
+        } else if ("network-queue-take".equals(tag)) {
+            mTakenAt = now;
+            mIsCacheHit = false;
+        } else if ("network-http-complete".equals(tag)) {
+            mReceivedAt = now;
+        } else if ("post-error".equals(tag) && mReceivedAt < 0) {
+            // Failed on the network; that's where the time went.
+            mReceivedAt = now;
+        } else if ("network-parse-complete".equals(tag)) {
+            mParsedAt = now;
+        }
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        mListener.onResponse(response);
+        onDone(SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        mOutcome = error instanceof TimeoutError ? PiMetrics.OUTCOME_TIMEOUT
+                : PiMetrics.OUTCOME_ERROR;
+        // Anything else came back from the Pi's web server, so the Pi itself is up.
+        mIsUnreachable = error instanceof TimeoutError || error instanceof NetworkError;
+        super.deliverError(error);
+        onDone(SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        if (mIsProbe) {
+            mCircuitBreaker.onProbeCancelled(SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Records the request once its result has been handed over. Volley doesn't mark this
+     * itself: "done" goes to finish(), not addMarker().
+     */
+    private void onDone(long now) {
+        if (mTakenAt < 0) {
+            if (mIsCacheHit) {
+                mMetrics.recordCacheHit();
+            }
+            return;
+        }
+        if (mIsUnreachable) {
+            mCircuitBreaker.onFailure(now);
+        } else {
+            mCircuitBreaker.onSuccess();
+        }
+        long deliveredFrom = mParsedAt >= 0 ? mParsedAt : mReceivedAt >= 0 ? mReceivedAt
+                : mTakenAt;
+        mMetrics.recordRequest(mOutcome,
+                mQueuedAt >= 0 ? mTakenAt - mQueuedAt : -1,
+                mReceivedAt >= 0 ? mReceivedAt - mTakenAt : -1,
+                mParsedAt >= 0 ? mParsedAt - mReceivedAt : -1,
+                now - deliveredFrom);
+    }
+}
@@ -0,0 +1,33 @@
+package com.dektar.pi.piswitch;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+
+import java.io.IOException;
+
+/**
+ * Volley request for one of the Pi's command scripts. If the script answers with a status
+ * document it is delivered as the confirmed state; otherwise the response is null and only
+ * tells that the command ran.
+ */
+public class PiCommandRequest extends MeteredRequest<PiStatus> {
+    public PiCommandRequest(String url, Response.Listener<PiStatus> listener,
+                            Response.ErrorListener errorListener) {
+        super(Method.GET, url, listener, errorListener);
+        // Commands change state on the Pi; never answer one from the cache.
+        setShouldCache(false);
+    }
+
+    @Override
+    protected Response<PiStatus> parseNetworkResponse(NetworkResponse response) {
+        PiStatus status = null;
+        if (response.data != null && response.data.length > 0) {
+            try {
+                status = StatusParser.parse(response.data);
+            } catch (IOException e) {
+                // Plain text from an older script; the 200 is all we get.
+            }
+        }
+        return Response.success(status, null);
+    }
+}
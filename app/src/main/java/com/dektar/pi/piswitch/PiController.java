@@ -4,148 +4,238 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
-import android.util.Log;
 
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Class for communicating with and controlling the Pi.
  */
 public class PiController {
     public interface OnPiStatusResponseListener {
-        void onStatus(boolean isOn, double insideTemp, double outsideTemp);
+        void onStatus(PiStatus status);
         void onError();
     }
 
-    private static final String HTTP_ON = "cgi-bin/on.py";
-    private static final String HTTP_OFF = "cgi-bin/off.py";
-    private static final String HTTP_STATUS = "status.php";
-
-    private static final String TAG = "request_tag";
-
-    private RequestQueue mRequestQueue;
+    private PiNetwork mNetwork;
+    private StatusRepository mStatusRepository;
+    private CommandQueue mCommandQueue;
+    private EndpointSelector mEndpointSelector;
+    private StatusStore mStatusStore;
     private OnPiStatusResponseListener mStatusListener;
+    private OnPiStatusResponseListener mRepositoryListener;
+    private Context mContext;
     private String mUrlBase;
+    private boolean mIsSubscribed;
 
+    private boolean mIsAutoUrl;
     private boolean mIsInternalIp;
     private String mInternalUrl;
     private String mExternalUrl;
+    // UDP port of the Pi's fast command channel, or 0 to send commands over HTTP only.
+    private int mFastPort;
 
     public PiController(Context context, OnPiStatusResponseListener listener) {
+        mContext = context.getApplicationContext();
         mStatusListener = listener;
+        mRepositoryListener = new OnPiStatusResponseListener() {
+            @Override
+            public void onStatus(PiStatus status) {
+                mStatusListener.onStatus(status);
+            }
+
+            @Override
+            public void onError() {
+                mEndpointSelector.invalidate();
+                mNetwork.forgetAddresses();
+                // The Pi may have a new address, e.g. from DHCP.
+                PiDiscoveryService.startIfDue(mContext);
+                mStatusListener.onError();
+            }
+        };
         loadPreferences(context);
-        mRequestQueue = Volley.newRequestQueue(context);
+        mNetwork = PiNetwork.getInstance(context);
+        mStatusRepository = StatusRepository.getInstance(context);
+        mCommandQueue = CommandQueue.getInstance(context);
+        mCommandQueue.setFastPort(mInternalUrl, mFastPort);
+        mEndpointSelector = EndpointSelector.getInstance(context);
+        mStatusStore = StatusStore.getInstance(context);
+        withUrlBase(new EndpointSelector.OnEndpointSelectedListener() {
+            @Override
+            public void onEndpointSelected(String urlBase) {
+                mNetwork.warmUp(urlBase);
+            }
+        });
+    }
+
+    /**
+     * Picks the Pi's URL and opens a connection to it ahead of the first real request.
+     */
+    public static void warmUp(Context context) {
+        // The constructor does all the work; no requests are sent so no listener is needed.
+        new PiController(context, null);
     }
 
     public void onDestroy() {
-        mRequestQueue.cancelAll(TAG);
-        mRequestQueue.stop();
-        mRequestQueue = null;
+        // Requests are shared with the rest of the app; just stop listening for their results.
+        mStatusRepository.cancel(mRepositoryListener);
+        mCommandQueue.cancel(mRepositoryListener);
+        unsubscribe();
         mStatusListener = null;
     }
 
-    public void toggle(boolean turnOn) {
-        sendRequest(mUrlBase + "/" + (turnOn ? HTTP_ON : HTTP_OFF));
+    public void toggle(final boolean turnOn) {
+        withUrlBase(new EndpointSelector.OnEndpointSelectedListener() {
+            @Override
+            public void onEndpointSelected(String urlBase) {
+                if (mStatusListener != null) {
+                    mCommandQueue.toggle(urlBase, turnOn, mRepositoryListener);
+                }
+            }
+        });
+    }
+
+    /**
+     * Turns the primary lamp off if it is on or about to be, and on otherwise. Decides from
+     * what this process or the last one knew about the Pi, so the command goes out at once;
+     * only when nothing recent is known is the status asked for first.
+     */
+    public void quickToggle() {
+        withUrlBase(new EndpointSelector.OnEndpointSelectedListener() {
+            @Override
+            public void onEndpointSelected(final String urlBase) {
+                if (mStatusListener == null) {
+                    return;
+                }
+                PiStatus known = getLastKnownStatus(urlBase);
+                if (known != null) {
+                    mCommandQueue.toggle(urlBase, !known.isOn(), mRepositoryListener);
+                    return;
+                }
+                mStatusRepository.requestStatus(urlBase, new OnPiStatusResponseListener() {
+                    @Override
+                    public void onStatus(PiStatus status) {
+                        if (mStatusListener != null) {
+                            mCommandQueue.toggle(urlBase, !status.isOn(), mRepositoryListener);
+                        }
+                    }
+
+                    @Override
+                    public void onError() {
+                        if (mStatusListener != null) {
+                            mRepositoryListener.onError();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Turns the named lamp on or off.
+     */
+    public void setLamp(String name, boolean turnOn) {
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
+        states.put(name, turnOn);
+        setLamps(states);
+    }
+
+    /**
+     * Turns several lamps, keyed by name, on or off with a single request.
+     */
+    public void setLamps(final Map<String, Boolean> states) {
+        withUrlBase(new EndpointSelector.OnEndpointSelectedListener() {
+            @Override
+            public void onEndpointSelected(String urlBase) {
+                if (mStatusListener != null) {
+                    mCommandQueue.setLamps(urlBase, states, mRepositoryListener);
+                }
+            }
+        });
     }
 
     public void refreshAll(Context context) {
-        loadPreferences(context);
+        refreshOptions(context);
         updateStatus();
     }
 
     public void refreshOptions(Context context) {
         loadPreferences(context);
+        mCommandQueue.setFastPort(mInternalUrl, mFastPort);
+        if (mIsSubscribed) {
+            // Follow the Pi if its URL changed.
+            subscribe();
+        }
     }
 
-    public void updateStatus() {
-        String url = mUrlBase + "/" + HTTP_STATUS;
-
-        // Request a string response from the provided URL.
-        JsonObjectRequest statusRequest = new JsonObjectRequest(
-                com.android.volley.Request.Method.GET, url, null,
-                new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        try {
-                            boolean isCurrentlyOn = getLampState(response);
-                            double insideTemp = getInsideTemp(response);
-                            double outsideTemp = getOutsideTemp(response);
-                            mStatusListener.onStatus(isCurrentlyOn, insideTemp, outsideTemp);
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }, new Response.ErrorListener() {
+    /**
+     * Has the Pi push every change of its status to the listener until {@link #unsubscribe()}
+     * is called, rather than only answering requests.
+     */
+    public void subscribe() {
+        mIsSubscribed = true;
+        withUrlBase(new EndpointSelector.OnEndpointSelectedListener() {
             @Override
-            public void onErrorResponse(VolleyError error) {
-                mStatusListener.onError();
-                Log.d("Error", error.getMessage());
+            public void onEndpointSelected(String urlBase) {
+                if (mIsSubscribed && mStatusListener != null) {
+                    mStatusRepository.subscribe(urlBase, mRepositoryListener);
+                }
             }
         });
-        statusRequest.setTag(TAG);
-        // Add the request to the RequestQueue.
-        mRequestQueue.add(statusRequest);
     }
 
-    private void sendRequest(String url) {
-        StringRequest request = new StringRequest(com.android.volley.Request.Method.GET, url,
-                new Response.Listener<String>() {
-                    @Override
-                    public void onResponse(String response) {
-                        updateStatus();
-                    }
-                }, new Response.ErrorListener() {
+    public void unsubscribe() {
+        mIsSubscribed = false;
+        mStatusRepository.unsubscribe(mRepositoryListener);
+    }
+
+    public void updateStatus() {
+        withUrlBase(new EndpointSelector.OnEndpointSelectedListener() {
             @Override
-            public void onErrorResponse(VolleyError error) {
-                mStatusListener.onError();
-                Log.d("Error", ": " + error.getMessage());
+            public void onEndpointSelected(String urlBase) {
+                if (mStatusListener != null) {
+                    // Whenever we talk to the Pi anyway, catch up on commands it missed.
+                    mCommandQueue.replayPending(urlBase);
+                    mStatusRepository.requestStatus(urlBase, mRepositoryListener);
+                }
             }
         });
-        request.setTag(TAG);
-        mRequestQueue.add(request);
     }
 
-    private boolean getLampState(JSONObject response) throws JSONException {
-        JSONArray lamps = response.getJSONArray("lamps");
-        for (int i = 0; i < lamps.length(); i++) {
-            JSONObject lamp = lamps.getJSONObject(i);
-            if (TextUtils.equals(lamp.getString("name"), "living room")) {
-                return lamp.getInt("state") == 1;
-            }
+    /**
+     * Returns the status the Pi at urlBase is expected to have, from this process or saved by
+     * the last one, or null if nothing recent is known.
+     */
+    private PiStatus getLastKnownStatus(String urlBase) {
+        PiStatus expected = mCommandQueue.getExpectedStatus(urlBase);
+        if (expected != null) {
+            return expected;
         }
-        return false;
-    }
-
-    private double getInsideTemp(JSONObject response) throws JSONException {
-        return getTemp(response, "current_temp");
-    }
-
-    private double getOutsideTemp(JSONObject response) throws JSONException {
-        return getTemp(response, "ext_temp");
+        StatusStore.Snapshot snapshot = mStatusStore.get();
+        if (snapshot != null && urlBase.equals(snapshot.getUrlBase())
+                && snapshot.getAgeMillis() <= StatusRepository.MAX_STALE_MS) {
+            return snapshot.getStatus();
+        }
+        return null;
     }
 
-    private double getTemp(JSONObject response, String tempType) throws JSONException {
-        JSONArray heating = response.getJSONArray("heating");
-        for (int i = 0; i < heating.length(); i++) {
-            JSONObject state = heating.getJSONObject(i);
-            return state.getDouble(tempType);
+    /**
+     * Calls listener with the base URL to use: the configured one, or when automatic
+     * selection is on, whichever of the internal and external URL is reachable fastest.
+     */
+    private void withUrlBase(EndpointSelector.OnEndpointSelectedListener listener) {
+        if (!mIsAutoUrl) {
+            listener.onEndpointSelected(mUrlBase);
+            return;
         }
-        return -1;
+        String alternative = mIsInternalIp ? mExternalUrl : mInternalUrl;
+        mEndpointSelector.select(mUrlBase, alternative, listener);
     }
 
     private void loadPreferences(Context context) {
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
         Resources resources = context.getResources();
+        mIsAutoUrl = sharedPref.getBoolean(resources.getString(R.string.pref_auto_url_id), true);
         mIsInternalIp = sharedPref.getBoolean(resources.getString(R.string.pref_which_url_id),
                 true);
         mInternalUrl = sharedPref.getString(resources.getString(R.string.pref_internal_url_id),
@@ -153,5 +243,28 @@ public class PiController {
         mExternalUrl = sharedPref.getString(resources.getString(R.string.pref_external_url_id),
                 resources.getString(R.string.default_external_url));
         mUrlBase = mIsInternalIp ? mInternalUrl : mExternalUrl;
+        mFastPort = sharedPref.getBoolean(resources.getString(R.string.pref_fast_commands_id),
+                false) ? readFastPort(sharedPref, resources) : 0;
+        if (mInternalUrl.equals(resources.getString(R.string.default_internal_url))) {
+            // Nobody has told us where the Pi is, the settings screen at most saved its
+            // placeholder; look for it.
+            PiDiscoveryService.startIfDue(context);
+        }
+    }
+
+    /**
+     * Returns the UDP port of the Pi's fast command listener from the settings, or 0 if it is
+     * out of range.
+     */
+    static int readFastPort(SharedPreferences sharedPref, Resources resources) {
+        int port;
+        try {
+            port = Integer.parseInt(sharedPref.getString(
+                    resources.getString(R.string.pref_fast_port_id),
+                    resources.getString(R.string.default_fast_port)).trim());
+        } catch (NumberFormatException e) {
+            port = Integer.parseInt(resources.getString(R.string.default_fast_port));
+        }
+        return port <= 0 || port > 65535 ? 0 : port;
     }
 }
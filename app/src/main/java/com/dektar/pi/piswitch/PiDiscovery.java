@@ -0,0 +1,156 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Finds Pis on the local network, so their address needn't be typed in or kept up to date by
+ * hand. A discovery request of the {@link FastProtocol} is broadcast to the fast command
+ * port and every Pi listening there answers with its name and web server port; the address
+ * an answer came from makes that Pi's base URL.
+ *
+ * The request is sent a few times over the timeout in case one is lost. Calls block, so must
+ * not be made on the main thread.
+ */
+public class PiDiscovery {
+    /** Sends of the request per discovery, spread evenly over the timeout. */
+    static final int SENDS = 3;
+
+    private static final byte ANSWER_TYPE =
+            (byte) (FastProtocol.TYPE_DISCOVER | FastProtocol.TYPE_ACK);
+
+    /**
+     * A Pi that answered.
+     */
+    public static final class Found {
+        private final String mName;
+        private final String mUrlBase;
+
+        Found(String name, String urlBase) {
+            mName = name;
+            mUrlBase = urlBase;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getUrlBase() {
+            return mUrlBase;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " at " + mUrlBase;
+        }
+    }
+
+    private PiDiscovery() {
+    }
+
+    /**
+     * Sends a discovery request to port at target, usually a broadcast address, and returns
+     * every Pi that answered within timeoutMs, in the order they first answered.
+     */
+    public static List<Found> discover(InetAddress target, int port, long timeoutMs)
+            throws IOException {
+        int seq = new Random().nextInt();
+        byte[] request = FastProtocol.encodeDiscover(seq);
+        byte[] buffer = new byte[FastProtocol.MAX_DATAGRAM_SIZE];
+        Map<String, Found> found = new LinkedHashMap<String, Found>();
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.setBroadcast(true);
+            long start = System.nanoTime() / 1000000;
+            for (int send = 1; send <= SENDS; send++) {
+                socket.send(new DatagramPacket(request, request.length, target, port));
+                long deadline = start + timeoutMs * send / SENDS;
+                while (true) {
+                    long remaining = deadline - System.nanoTime() / 1000000;
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    socket.setSoTimeout((int) remaining);
+                    DatagramPacket answer = new DatagramPacket(buffer, buffer.length);
+                    try {
+                        socket.receive(answer);
+                    } catch (SocketTimeoutException e) {
+                        break;
+                    }
+                    FastProtocol.Message message;
+                    try {
+                        message = FastProtocol.decode(answer.getData(), answer.getLength());
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (message.mType != ANSWER_TYPE || message.mSeq != seq) {
+                        // Another Pi's traffic or an answer to an earlier discovery.
+                        continue;
+                    }
+                    String urlBase = toUrlBase(answer.getAddress(), message.mHttpPort);
+                    if (!found.containsKey(urlBase)) {
+                        found.put(urlBase, new Found(message.mName, urlBase));
+                    }
+                }
+            }
+        } finally {
+            socket.close();
+        }
+        return new ArrayList<Found>(found.values());
+    }
+
+    /**
+     * Returns the first Pi called name among found or, if name is null, the only Pi found;
+     * null if there is no such Pi.
+     */
+    public static Found choose(List<Found> found, String name) {
+        if (name == null) {
+            return found.size() == 1 ? found.get(0) : null;
+        }
+        for (Found pi : found) {
+            if (name.equals(pi.getName())) {
+                return pi;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns what the internal URL should become now that a Pi was found at foundBase, or
+     * null to leave it as it is. Only a URL that isn't set or whose base, discoveredBase, was
+     * found by an earlier discovery is replaced, and it keeps its path; one typed in by the
+     * user is left alone.
+     */
+    static String updateInternalUrl(String current, String discoveredBase, String foundBase) {
+        if (current == null) {
+            return foundBase;
+        }
+        if (discoveredBase == null || !current.startsWith(discoveredBase)) {
+            return null;
+        }
+        String path = current.substring(discoveredBase.length());
+        if (!path.isEmpty() && !path.startsWith("/")) {
+            // Another host or port that merely starts the same, e.g. 10.1.10.120.
+            return null;
+        }
+        String url = foundBase + path;
+        return url.equals(current) ? null : url;
+    }
+
+    static String toUrlBase(InetAddress address, int httpPort) {
+        String host = address.getHostAddress();
+        if (address instanceof Inet6Address) {
+            host = "[" + host + "]";
+        }
+        return "http://" + host + (httpPort == 80 ? "" : ":" + httpPort);
+    }
+}
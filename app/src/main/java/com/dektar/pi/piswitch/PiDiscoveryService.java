@@ -0,0 +1,108 @@
+package com.dektar.pi.piswitch;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks for the Pi on the Wi-Fi network with {@link PiDiscovery} and, if it answers from an
+ * address other than the internal URL, makes that the internal URL. Runs when no internal URL
+ * has been set yet and when a request fails, e.g. because the Pi got a new address from DHCP;
+ * at most once per network every {@link #MIN_INTERVAL_MS}. An internal URL the user typed in
+ * is never replaced, see {@link PiDiscovery#updateInternalUrl}.
+ *
+ * Once a Pi has been found only one of the same name is taken, so a second Pi on the network
+ * can't take its place; before that, only a Pi that is alone on the network.
+ */
+public class PiDiscoveryService extends IntentService {
+    static final long MIN_INTERVAL_MS = 5 * 60 * 1000;
+
+    private static final long TIMEOUT_MS = 1500;
+    private static final String BROADCAST_ADDRESS = "255.255.255.255";
+
+    // Network to when it was last searched by this process.
+    private static final Map<String, Long> sLastStarts = new HashMap<String, Long>();
+
+    /**
+     * Starts looking for the Pi if on Wi-Fi and it wasn't done there recently.
+     */
+    public static void startIfDue(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()
+                || info.getType() != ConnectivityManager.TYPE_WIFI) {
+            // Broadcasts don't reach the Pi from anywhere else.
+            return;
+        }
+        String network = EndpointSelector.getNetworkKey(connectivityManager);
+        long now = SystemClock.elapsedRealtime();
+        synchronized (sLastStarts) {
+            Long lastStart = sLastStarts.get(network);
+            if (lastStart != null && now - lastStart < MIN_INTERVAL_MS) {
+                return;
+            }
+            sLastStarts.put(network, now);
+        }
+        context.startService(new Intent(context, PiDiscoveryService.class));
+    }
+
+    public PiDiscoveryService() {
+        super("PiDiscoveryService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        Resources resources = getResources();
+        int port = PiController.readFastPort(sharedPref, resources);
+        if (port == 0) {
+            port = Integer.parseInt(resources.getString(R.string.default_fast_port));
+        }
+        List<PiDiscovery.Found> found;
+        try {
+            found = PiDiscovery.discover(InetAddress.getByName(BROADCAST_ADDRESS), port,
+                    TIMEOUT_MS);
+        } catch (IOException e) {
+            Log.d("discovery", "failed: " + e);
+            return;
+        }
+        String nameKey = resources.getString(R.string.pref_discovered_name_id);
+        String discoveredKey = resources.getString(R.string.pref_discovered_url_id);
+        String urlKey = resources.getString(R.string.pref_internal_url_id);
+        PiDiscovery.Found pi = PiDiscovery.choose(found, sharedPref.getString(nameKey, null));
+        if (pi == null) {
+            return;
+        }
+        String current = sharedPref.getString(urlKey, null);
+        if (resources.getString(R.string.default_internal_url).equals(current)) {
+            // Only the settings screen's placeholder.
+            current = null;
+        }
+        String url = PiDiscovery.updateInternalUrl(current,
+                sharedPref.getString(discoveredKey, null), pi.getUrlBase());
+        if (url == null) {
+            return;
+        }
+        Log.d("discovery", "found " + pi);
+        // PiControllers pick it up the next time they load their options.
+        sharedPref.edit()
+                .putString(urlKey, url)
+                .putString(discoveredKey, pi.getUrlBase())
+                .putString(nameKey, pi.getName())
+                .apply();
+    }
+}
@@ -0,0 +1,254 @@
+package com.dektar.pi.piswitch;
+
+import java.util.Locale;
+
+/**
+ * Latency and outcome of every request to the Pi since the process started, by endpoint and
+ * phase, plus how long a tap takes to be confirmed by the Pi.
+ *
+ * Safe to use from any thread. Recording allocates nothing.
+ */
+public class PiMetrics {
+    /** Waiting in the queue for a network thread. */
+    public static final int PHASE_QUEUE = 0;
+    /** Connecting, the Pi running the script, and reading the response. */
+    public static final int PHASE_NETWORK = 1;
+    /** Parsing the response on the network thread. */
+    public static final int PHASE_PARSE = 2;
+    /** Waiting for the main thread to hand the result to listeners. */
+    public static final int PHASE_DELIVERY = 3;
+    public static final int PHASE_TOTAL = 4;
+    static final int PHASE_COUNT = 5;
+    private static final String[] PHASE_NAMES = {"queue", "network", "parse", "delivery",
+            "total"};
+
+    public static final int OUTCOME_SUCCESS = 0;
+    public static final int OUTCOME_ERROR = 1;
+    public static final int OUTCOME_TIMEOUT = 2;
+
+    private static final String[] ENDPOINT_NAMES = {"status.php", "on.py", "off.py", "set.py"};
+    private static final String OTHER_ENDPOINT = "other";
+
+    /**
+     * Metrics for requests to one script on the Pi.
+     */
+    public static final class Endpoint {
+        private final String mName;
+        private final LatencyHistogram[] mPhases = new LatencyHistogram[PHASE_COUNT];
+        private int mSuccesses;
+        private int mErrors;
+        private int mTimeouts;
+        private int mCacheHits;
+
+        Endpoint(String name) {
+            mName = name;
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                mPhases[i] = new LatencyHistogram();
+            }
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Records a request that went to the Pi. Phases it didn't get to are negative.
+         */
+        public synchronized void recordRequest(int outcome, long queueMs, long networkMs,
+                                               long parseMs, long deliveryMs) {
+            if (outcome == OUTCOME_SUCCESS) {
+                mSuccesses++;
+            } else if (outcome == OUTCOME_TIMEOUT) {
+                mTimeouts++;
+            } else {
+                mErrors++;
+            }
+            long total = 0;
+            total += recordPhase(PHASE_QUEUE, queueMs);
+            total += recordPhase(PHASE_NETWORK, networkMs);
+            total += recordPhase(PHASE_PARSE, parseMs);
+            total += recordPhase(PHASE_DELIVERY, deliveryMs);
+            mPhases[PHASE_TOTAL].record(total);
+        }
+
+        /**
+         * Records a request answered from the cache without asking the Pi.
+         */
+        public synchronized void recordCacheHit() {
+            mCacheHits++;
+        }
+
+        public synchronized int getSuccesses() {
+            return mSuccesses;
+        }
+
+        public synchronized int getErrors() {
+            return mErrors;
+        }
+
+        public synchronized int getTimeouts() {
+            return mTimeouts;
+        }
+
+        public synchronized int getCacheHits() {
+            return mCacheHits;
+        }
+
+        public synchronized long getPercentileMs(int phase, double fraction) {
+            return mPhases[phase].getPercentileMs(fraction);
+        }
+
+        synchronized void appendReport(StringBuilder report) {
+            report.append(String.format(Locale.US,
+                    "%s: %d ok, %d errors, %d timeouts, %d from cache%n",
+                    mName, mSuccesses, mErrors, mTimeouts, mCacheHits));
+            if (mPhases[PHASE_TOTAL].getCount() == 0) {
+                return;
+            }
+            report.append(String.format(Locale.US, "  %-9s %6s %6s %6s %6s %6s %6s%n",
+                    "ms", "n", "mean", "p50", "p90", "p99", "max"));
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                LatencyHistogram phase = mPhases[i];
+                report.append(String.format(Locale.US, "  %-9s %6d %6d %6d %6d %6d %6d%n",
+                        PHASE_NAMES[i], phase.getCount(), phase.getMeanMs(),
+                        phase.getPercentileMs(0.5), phase.getPercentileMs(0.9),
+                        phase.getPercentileMs(0.99), phase.getMaxMs()));
+            }
+        }
+
+        synchronized void reset() {
+            for (LatencyHistogram phase : mPhases) {
+                phase.reset();
+            }
+            mSuccesses = 0;
+            mErrors = 0;
+            mTimeouts = 0;
+            mCacheHits = 0;
+        }
+
+        private long recordPhase(int phase, long durationMs) {
+            if (durationMs < 0) {
+                return 0;
+            }
+            mPhases[phase].record(durationMs);
+            return durationMs;
+        }
+    }
+
+    private static PiMetrics sInstance;
+
+    private final Endpoint[] mEndpoints = new Endpoint[ENDPOINT_NAMES.length + 1];
+    private final LatencyHistogram mTapToConfirmed = new LatencyHistogram();
+    private final LatencyHistogram mLaunchToFirstFrame = new LatencyHistogram();
+    private final LatencyHistogram mLaunchToConfirmed = new LatencyHistogram();
+    private final LatencyHistogram mQuickToggleToConfirmed = new LatencyHistogram();
+
+    public static synchronized PiMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new PiMetrics();
+        }
+        return sInstance;
+    }
+
+    PiMetrics() {
+        for (int i = 0; i < ENDPOINT_NAMES.length; i++) {
+            mEndpoints[i] = new Endpoint(ENDPOINT_NAMES[i]);
+        }
+        mEndpoints[ENDPOINT_NAMES.length] = new Endpoint(OTHER_ENDPOINT);
+    }
+
+    /**
+     * Returns the metrics for the script a request to url runs.
+     */
+    public Endpoint getEndpoint(String url) {
+        int end = url.indexOf('?');
+        if (end < 0) {
+            end = url.length();
+        }
+        for (int i = 0; i < ENDPOINT_NAMES.length; i++) {
+            String name = ENDPOINT_NAMES[i];
+            int start = end - name.length();
+            if (start > 0 && url.charAt(start - 1) == '/'
+                    && url.regionMatches(start, name, 0, name.length())) {
+                return mEndpoints[i];
+            }
+        }
+        return mEndpoints[ENDPOINT_NAMES.length];
+    }
+
+    /**
+     * Records how long it took from the user asking for a lamp change to the Pi confirming
+     * it.
+     */
+    public void recordTapToConfirmed(long durationMs) {
+        record(mTapToConfirmed, durationMs);
+    }
+
+    /**
+     * Records how long it took from the main screen being created to its first frame being
+     * drawn.
+     */
+    public void recordLaunchToFirstFrame(long durationMs) {
+        record(mLaunchToFirstFrame, durationMs);
+    }
+
+    /**
+     * Records how long it took from the main screen being created to it showing a status
+     * confirmed by the Pi rather than the one saved by the last process.
+     */
+    public void recordLaunchToConfirmed(long durationMs) {
+        record(mLaunchToConfirmed, durationMs);
+    }
+
+    /**
+     * Records how long it took from the notification's toggle reaching the app to the Pi
+     * confirming the change, with no screen in between.
+     */
+    public void recordQuickToggleToConfirmed(long durationMs) {
+        record(mQuickToggleToConfirmed, durationMs);
+    }
+
+    /**
+     * Returns everything recorded so far as plain text.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        appendTiming(report, "tap to confirmed", mTapToConfirmed);
+        appendTiming(report, "launch to first frame", mLaunchToFirstFrame);
+        appendTiming(report, "launch to confirmed", mLaunchToConfirmed);
+        appendTiming(report, "quick toggle to confirmed", mQuickToggleToConfirmed);
+        report.append(String.format("%n"));
+        for (Endpoint endpoint : mEndpoints) {
+            endpoint.appendReport(report);
+            report.append(String.format("%n"));
+        }
+        return report.toString();
+    }
+
+    public void reset() {
+        for (LatencyHistogram timing : new LatencyHistogram[] {mTapToConfirmed,
+                mLaunchToFirstFrame, mLaunchToConfirmed, mQuickToggleToConfirmed}) {
+            synchronized (timing) {
+                timing.reset();
+            }
+        }
+        for (Endpoint endpoint : mEndpoints) {
+            endpoint.reset();
+        }
+    }
+
+    private static void record(LatencyHistogram timing, long durationMs) {
+        synchronized (timing) {
+            timing.record(durationMs);
+        }
+    }
+
+    private static void appendTiming(StringBuilder report, String name,
+                                     LatencyHistogram timing) {
+        synchronized (timing) {
+            report.append(String.format(Locale.US, "%s: n=%d p50=%dms p90=%dms max=%dms%n",
+                    name, timing.getCount(), timing.getPercentileMs(0.5),
+                    timing.getPercentileMs(0.9), timing.getMaxMs()));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.StringRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+
+/**
+ * The app's single network stack for talking to the Pi.
+ *
+ * One request queue is created per process and lives as long as it does, so the dispatcher
+ * threads and the cache are set up once. Requests go through HttpURLConnection, which keeps
+ * idle connections to the Pi alive in its pool; {@link #warmUp(String)} opens one ahead of
+ * time so the first toggle doesn't pay for the handshake. Host names are replaced by the
+ * address they had on the current network, kept fresh in the background by an
+ * {@link AddressCache}, so no request waits on a DNS lookup; the name still goes in the Host
+ * header, for servers that serve several names from one address.
+ *
+ * Requests to a Pi that has stopped answering are refused with a {@link PiUnreachableError}
+ * while its {@link CircuitBreaker} is open, instead of each one waiting out the timeout.
+ */
+public class PiNetwork {
+    // One Pi answers one request at a time anyway; more threads only add churn.
+    private static final int THREAD_POOL_SIZE = 2;
+    private static final int CACHE_SIZE_BYTES = 64 * 1024;
+    private static final String CACHE_DIR = "volley";
+    private static final int WARM_UP_TIMEOUT_MS = 2000;
+    // Idle pooled connections are evicted after five minutes; re-warm a little before that.
+    private static final long WARM_UP_INTERVAL_MS = 4 * 60 * 1000;
+
+    private static PiNetwork sInstance;
+
+    /**
+     * Connects to the URL its rewriter returned, but with the Host header of the URL it was
+     * given.
+     */
+    private static final class AddressStack extends HurlStack {
+        // Volley opens the connection on the thread that just rewrote its URL.
+        private final ThreadLocal<String> mHost;
+
+        AddressStack(final AddressCache addressCache,
+                final ConnectivityManager connectivityManager, final ThreadLocal<String> host) {
+            super(new HurlStack.UrlRewriter() {
+                @Override
+                public String rewriteUrl(String originalUrl) {
+                    // Volley's cache keeps the original URL, so entries survive a new address.
+                    String url = addressCache.rewrite(originalUrl,
+                            EndpointSelector.getNetworkKey(connectivityManager),
+                            SystemClock.elapsedRealtime());
+                    host.set(url.equals(originalUrl)
+                            ? null : AddressCache.getHostHeader(originalUrl));
+                    return url;
+                }
+            });
+            mHost = host;
+        }
+
+        @Override
+        protected HttpURLConnection createConnection(URL url) throws IOException {
+            HttpURLConnection connection = super.createConnection(url);
+            String host = mHost.get();
+            mHost.remove();
+            if (host != null) {
+                connection.setRequestProperty("Host", host);
+            }
+            return connection;
+        }
+    }
+
+    private final RequestQueue mRequestQueue;
+    private final AddressCache mAddressCache = new AddressCache(
+            Executors.newSingleThreadExecutor(), AddressCache.systemResolver());
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private String mWarmUrlBase;
+    private long mWarmUpTime;
+
+    public static synchronized PiNetwork getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PiNetwork(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PiNetwork(Context context) {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        HurlStack stack = new AddressStack(mAddressCache, connectivityManager,
+                new ThreadLocal<String>());
+        File cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        mRequestQueue = new RequestQueue(new DiskBasedCache(cacheDir, CACHE_SIZE_BYTES),
+                new BasicNetwork(stack), THREAD_POOL_SIZE);
+        mRequestQueue.start();
+    }
+
+    public RequestQueue getRequestQueue() {
+        return mRequestQueue;
+    }
+
+    public <T> Request<T> add(final Request<T> request) {
+        if (request instanceof MeteredRequest) {
+            MeteredRequest<T> metered = (MeteredRequest<T>) request;
+            long now = SystemClock.elapsedRealtime();
+            if (!metered.acquire(now)) {
+                final String message = "Pi unreachable, next try in "
+                        + metered.getCircuitRetryInMs(now) + " ms";
+                // Still asynchronous, like any other answer.
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.isCanceled()) {
+                            request.deliverError(new PiUnreachableError(message));
+                        }
+                    }
+                });
+                return request;
+            }
+        }
+        return mRequestQueue.add(request);
+    }
+
+    /**
+     * Cancels every outstanding request added with the given tag. The queue itself keeps
+     * running for the rest of the app.
+     */
+    public void cancelAll(Object tag) {
+        mRequestQueue.cancelAll(tag);
+    }
+
+    /**
+     * Forgets the addresses host names had, e.g. because a request to the Pi just failed and
+     * it may have moved.
+     */
+    public void forgetAddresses() {
+        mAddressCache.invalidate();
+    }
+
+    /**
+     * Opens a connection to urlBase so that it is sitting in the connection pool by the time
+     * a real request needs it. Does nothing if one was opened recently.
+     */
+    public synchronized void warmUp(String urlBase) {
+        long now = SystemClock.elapsedRealtime();
+        if (urlBase.equals(mWarmUrlBase) && now - mWarmUpTime < WARM_UP_INTERVAL_MS) {
+            return;
+        }
+        mWarmUrlBase = urlBase;
+        mWarmUpTime = now;
+        StringRequest request = new StringRequest(Request.Method.HEAD, urlBase + "/",
+                new Response.Listener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                    }
+                }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                // Nothing to do; the real request will report the problem.
+            }
+        });
+        request.setShouldCache(false);
+        request.setRetryPolicy(new DefaultRetryPolicy(WARM_UP_TIMEOUT_MS, 0,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        mRequestQueue.add(request);
+    }
+}
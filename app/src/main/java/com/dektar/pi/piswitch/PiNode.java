@@ -0,0 +1,44 @@
+package com.dektar.pi.piswitch;
+
+/**
+ * One Pi of the fleet: a name for the user and the base URL it answers on.
+ */
+public final class PiNode {
+    private final String mName;
+    private final String mUrlBase;
+
+    public PiNode(String name, String urlBase) {
+        mName = name;
+        mUrlBase = urlBase;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getUrlBase() {
+        return mUrlBase;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PiNode)) {
+            return false;
+        }
+        PiNode other = (PiNode) o;
+        return mName.equals(other.mName) && mUrlBase.equals(other.mUrlBase);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mName.hashCode() + mUrlBase.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mName + " (" + mUrlBase + ")";
+    }
+}
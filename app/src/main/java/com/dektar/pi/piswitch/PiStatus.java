@@ -0,0 +1,142 @@
+package com.dektar.pi.piswitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the Pi's state as reported by status.php.
+ */
+public final class PiStatus {
+    /** The lamp the main switch and the widget control. */
+    public static final String PRIMARY_LAMP = "living room";
+
+    private final boolean mIsOn;
+    private final double mInsideTemp;
+    private final double mOutsideTemp;
+    private final List<Lamp> mLamps;
+    private final Map<String, Lamp> mLampsByName;
+
+    public PiStatus(boolean isOn, double insideTemp, double outsideTemp) {
+        this(isOn, insideTemp, outsideTemp, Collections.<Lamp>emptyList());
+    }
+
+    public PiStatus(List<Lamp> lamps, double insideTemp, double outsideTemp) {
+        this(isPrimaryOn(lamps), insideTemp, outsideTemp, lamps);
+    }
+
+    private PiStatus(boolean isOn, double insideTemp, double outsideTemp, List<Lamp> lamps) {
+        mIsOn = isOn;
+        mInsideTemp = insideTemp;
+        mOutsideTemp = outsideTemp;
+        mLamps = Collections.unmodifiableList(new ArrayList<Lamp>(lamps));
+        mLampsByName = new HashMap<String, Lamp>(lamps.size() * 2);
+        for (Lamp lamp : lamps) {
+            mLampsByName.put(lamp.getName(), lamp);
+        }
+    }
+
+    /**
+     * Returns whether the primary lamp is on.
+     */
+    public boolean isOn() {
+        return mIsOn;
+    }
+
+    /**
+     * Returns the inside temperature in degrees, or NaN if the Pi didn't report it.
+     */
+    public double getInsideTemp() {
+        return mInsideTemp;
+    }
+
+    /**
+     * Returns the outside temperature in degrees, or NaN if the Pi didn't report it.
+     */
+    public double getOutsideTemp() {
+        return mOutsideTemp;
+    }
+
+    /**
+     * Returns every lamp in the order the Pi reported them.
+     */
+    public List<Lamp> getLamps() {
+        return mLamps;
+    }
+
+    /**
+     * Returns the lamp with the given name, or null if the Pi didn't report it.
+     */
+    public Lamp getLamp(String name) {
+        return mLampsByName.get(name);
+    }
+
+    public int getLampsOnCount() {
+        int count = 0;
+        for (int i = 0; i < mLamps.size(); i++) {
+            if (mLamps.get(i).isOn()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a copy of this status with the given lamps, keyed by name, switched on or off.
+     */
+    public PiStatus withLampStates(Map<String, Boolean> states) {
+        boolean isOn = mIsOn;
+        if (states.containsKey(PRIMARY_LAMP)) {
+            isOn = states.get(PRIMARY_LAMP);
+        }
+        List<Lamp> lamps = new ArrayList<Lamp>(mLamps.size());
+        for (Lamp lamp : mLamps) {
+            Boolean state = states.get(lamp.getName());
+            lamps.add(state != null ? lamp.withState(state) : lamp);
+        }
+        return new PiStatus(isOn, mInsideTemp, mOutsideTemp, lamps);
+    }
+
+    private static boolean isPrimaryOn(List<Lamp> lamps) {
+        for (Lamp lamp : lamps) {
+            if (PRIMARY_LAMP.equals(lamp.getName())) {
+                return lamp.isOn();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PiStatus)) {
+            return false;
+        }
+        PiStatus other = (PiStatus) o;
+        return mIsOn == other.mIsOn
+                && Double.compare(mInsideTemp, other.mInsideTemp) == 0
+                && Double.compare(mOutsideTemp, other.mOutsideTemp) == 0
+                && mLamps.equals(other.mLamps);
+    }
+
+    @Override
+    public int hashCode() {
+        long inside = Double.doubleToLongBits(mInsideTemp);
+        long outside = Double.doubleToLongBits(mOutsideTemp);
+        int result = mIsOn ? 1 : 0;
+        result = 31 * result + (int) (inside ^ (inside >>> 32));
+        result = 31 * result + (int) (outside ^ (outside >>> 32));
+        result = 31 * result + mLamps.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PiStatus{on=" + mIsOn + ", inside=" + mInsideTemp + ", outside=" + mOutsideTemp
+                + ", lamps=" + mLamps + "}";
+    }
+}
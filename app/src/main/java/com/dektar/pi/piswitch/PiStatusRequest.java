@@ -0,0 +1,42 @@
+package com.dektar.pi.piswitch;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Volley request for status.php that parses the body straight into a {@link PiStatus} on the
+ * network thread.
+ *
+ * Requests are conditional and gzipped through a {@link StatusResponseCache}; a 304 is
+ * answered with the last status without parsing anything.
+ */
+public class PiStatusRequest extends MeteredRequest<PiStatus> {
+    private static final StatusResponseCache sResponseCache = new StatusResponseCache();
+
+    public PiStatusRequest(String url, Response.Listener<PiStatus> listener,
+                           Response.ErrorListener errorListener) {
+        super(Method.GET, url, listener, errorListener);
+        // Volley's cache would add its own validators and hand back its copy of the body on a
+        // 304 to be parsed again, and would hold a hedged attempt back behind the first.
+        setShouldCache(false);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return sResponseCache.getRequestHeaders(getUrl());
+    }
+
+    @Override
+    protected Response<PiStatus> parseNetworkResponse(NetworkResponse response) {
+        try {
+            return Response.success(sResponseCache.onResponse(getUrl(), response.statusCode,
+                    response.headers, response.data), null);
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+}
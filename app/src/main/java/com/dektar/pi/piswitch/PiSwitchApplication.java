@@ -0,0 +1,14 @@
+package com.dektar.pi.piswitch;
+
+import android.app.Application;
+
+/**
+ * Sets up the shared network stack as soon as the process starts.
+ */
+public class PiSwitchApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        PiController.warmUp(this);
+    }
+}
@@ -1,14 +1,12 @@
 package com.dektar.pi.piswitch;
 
-import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.text.TextUtils;
 import android.util.Log;
-import android.widget.RemoteViews;
 
 /**
  * AppWidgetProvider for PiSwitch
@@ -17,10 +15,15 @@ public class PiSwitchWidgetProvider extends AppWidgetProvider {
 
     private static final String ACTION_REFRESH = "action_refresh";
 
+    // Temperatures older than this are greyed out.
+    private static final long STALE_AFTER_MS = 15 * 60 * 1000;
+
     private static final String HAS_NO_DATA_KEY = "no_data";
     private static final String IS_ON_KEY = "is_on";
     private static final String INTERNAL_TEMP_KEY = "internal_temp";
     private static final String EXTERNAL_TEMP_KEY = "external_temp";
+    private static final String LAMPS_ON_KEY = "lamps_on";
+    private static final String LAMP_COUNT_KEY = "lamp_count";
 
     // Possible intents: auto update, response from Pi, light button pushed, or refresh pushed.
     private static final String BUTTON_PUSHED_KEY = "button_pushed_intent";
@@ -30,133 +33,139 @@ public class PiSwitchWidgetProvider extends AppWidgetProvider {
     private boolean mIsOn;
     private double mInternalTemp;
     private double mExternalTemp;
+    private int mLampsOn;
+    private int mLampCount;
     private boolean mHasNoData;
     private boolean mLightButtonClickedIntent;
     private boolean mRefreshButtonClickedIntent;
     private boolean mPiControllerIntent;
-    private PiController mPiController;
 
     @Override
     public void onUpdate(final Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        final int size = appWidgetIds.length;
-        RemoteViews remoteViews = new RemoteViews(context.getPackageName(),
-                R.layout.app_widget);
-        initializePiController(context, appWidgetIds);
+        WidgetRenderer renderer = WidgetRenderer.getInstance(context);
+        StatusStreamService.update(context);
+        WidgetState state;
+        boolean isFull = false;
         if (mLightButtonClickedIntent) {
             // The button was just clicked. Start the request for toggle & status.
-            mPiController.toggle(!mIsOn);
-            setRemoteViewsPending(context, remoteViews);
-            clearLightPendingIntent(remoteViews);
+            WidgetUpdateService.toggle(context, !mIsOn);
+            state = renderer.pending(getShownState(context, renderer), true);
         } else if (mRefreshButtonClickedIntent) {
-            mPiController.refreshAll(context);
-            setRemoteViewsPending(context, remoteViews);
-        } else if (mPiControllerIntent || mHasNoData) {
-            setRemoteViewsUi(mIsOn, mInternalTemp, mExternalTemp, context, remoteViews);
+            WidgetUpdateService.refreshNow(context);
+            state = renderer.pending(getShownState(context, renderer), false);
+        } else if (mPiControllerIntent && !mHasNoData) {
+            state = renderer.forStatus(mIsOn, mInternalTemp, mExternalTemp, mLampsOn, mLampCount,
+                    false);
         } else {
-            // If the intent wasn't the button click or the response from PiController,
-            // then it is time to refresh the data.
-            mPiController.refreshAll(context);
-        }
-
-        for (int i = 0; i < size; i++) {
-            int widgetId = appWidgetIds[i];
-            createRefreshIntent(context, appWidgetIds, remoteViews);
-            if (!mLightButtonClickedIntent) {
-                resetLightPendingIntent(context, appWidgetIds, remoteViews);
+            // An auto update, a reboot or an error from the Pi: paint the last known state
+            // right away rather than waiting for the Pi.
+            state = getStoredState(context, renderer, mPiControllerIntent);
+            if (mPiControllerIntent) {
+                state = renderer.error(state);
+            } else {
+                // Then have it refreshed in the background when due.
+                WidgetRefreshScheduler.getInstance(context).schedule();
+                // The system asks for this when a widget may show nothing yet.
+                isFull = true;
             }
-            appWidgetManager.updateAppWidget(widgetId, remoteViews);
         }
+        renderer.render(appWidgetManager, appWidgetIds, state, isFull);
+    }
+
+    @Override
+    public void onDisabled(Context context) {
+        // The last widget is gone; nothing needs live updates any more.
+        StatusStreamService.update(context);
+        WidgetRefreshScheduler.getInstance(context).cancel();
+        super.onDisabled(context);
+    }
+
+    /**
+     * Shows status on every widget.
+     */
+    public static void sendStatus(Context context, PiStatus status) {
+        int[] appWidgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(
+                new ComponentName(context, PiSwitchWidgetProvider.class));
+        Intent updateIntent = createStatusIntent(context, appWidgetIds);
+        putStatus(updateIntent, status);
+        context.sendBroadcast(updateIntent);
     }
 
-    private void initializePiController(final Context context, int[] appWidgetIds) {
-        final Intent updateIntent = new Intent(context, PiSwitchWidgetProvider.class);
+    /**
+     * Shows on every widget that the Pi couldn't be reached.
+     */
+    public static void sendError(Context context) {
+        int[] appWidgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(
+                new ComponentName(context, PiSwitchWidgetProvider.class));
+        Intent updateIntent = createStatusIntent(context, appWidgetIds);
+        updateIntent.putExtra(HAS_NO_DATA_KEY, true);
+        context.sendBroadcast(updateIntent);
+    }
+
+    private static Intent createStatusIntent(Context context, int[] appWidgetIds) {
+        Intent updateIntent = new Intent(context, PiSwitchWidgetProvider.class);
         updateIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
         updateIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, appWidgetIds);
         updateIntent.putExtra(PI_CONTROLLER_STATUS_KEY, true);
         updateIntent.putExtra(BUTTON_PUSHED_KEY, false);
         updateIntent.putExtra(REFRESH_PUSHED_KEY, false);
-        if (mPiController == null) {
-            mPiController =
-                    new PiController(context, new PiController.OnPiStatusResponseListener() {
-                        @Override
-                        public void onStatus(boolean isOn, double insideTemp, double outsideTemp) {
-                            updateIntent.putExtra(IS_ON_KEY, isOn);
-                            updateIntent.putExtra(HAS_NO_DATA_KEY, false);
-                            updateIntent.putExtra(INTERNAL_TEMP_KEY, insideTemp);
-                            updateIntent.putExtra(EXTERNAL_TEMP_KEY, outsideTemp);
-                            context.sendBroadcast(updateIntent);
-                        }
-
-                        @Override
-                        public void onError() {
-                            updateIntent.putExtra(HAS_NO_DATA_KEY, true);
-                            context.sendBroadcast(updateIntent);
-                        }
-                    });
-        } else {
-            mPiController.refreshOptions(context);
-        }
+        return updateIntent;
     }
 
-    private void setRemoteViewsPending(Context context, RemoteViews remoteViews) {
-        Resources res = context.getResources();
-        remoteViews.setInt(R.id.widget_indicator, "setBackgroundColor",
-                res.getColor(R.color.widget_indicator_loading));
+    private static void putStatus(Intent updateIntent, PiStatus status) {
+        updateIntent.putExtra(IS_ON_KEY, status.isOn());
+        updateIntent.putExtra(HAS_NO_DATA_KEY, false);
+        updateIntent.putExtra(INTERNAL_TEMP_KEY, status.getInsideTemp());
+        updateIntent.putExtra(EXTERNAL_TEMP_KEY, status.getOutsideTemp());
+        updateIntent.putExtra(LAMPS_ON_KEY, status.getLampsOnCount());
+        updateIntent.putExtra(LAMP_COUNT_KEY, status.getLamps().size());
     }
 
-    private void setRemoteViewsError(Context context, RemoteViews remoteViews) {
-        Resources res = context.getResources();
-        remoteViews.setInt(R.id.widget_indicator, "setBackgroundColor",
-                res.getColor(R.color.widget_indicator_error));
+    /**
+     * Returns what the widgets show, or the last stored status if nothing has been shown yet.
+     */
+    private static WidgetState getShownState(Context context, WidgetRenderer renderer) {
+        WidgetState shown = renderer.getShown();
+        return shown != null ? shown : getStoredState(context, renderer, false);
     }
 
-    private void setRemoteViewsUi(boolean isOn, double internalTemp, double externalTemp,
-                                  Context context, RemoteViews remoteViews) {
-        Resources res = context.getResources();
-        if (isOn) {
-            remoteViews.setInt(R.id.widget_toggle_button, "setAlpha", 255);
-            remoteViews.setInt(R.id.widget_indicator, "setBackgroundColor",
-                    res.getColor(R.color.widget_indicator_on));
-        } else {
-            remoteViews.setInt(R.id.widget_toggle_button, "setAlpha", 100);
-            remoteViews.setInt(R.id.widget_indicator, "setBackgroundColor",
-                    res.getColor(R.color.widget_indicator_off));
+    private static WidgetState getStoredState(Context context, WidgetRenderer renderer,
+                                              boolean isStale) {
+        StatusStore.Snapshot snapshot = StatusStore.getInstance(context).get();
+        if (snapshot == null) {
+            return renderer.forNoData();
         }
-        remoteViews.setTextViewText(R.id.widget_internal_temp,
-                String.format(res.getString(R.string.temp_string), internalTemp));
-        remoteViews.setTextViewText(R.id.widget_external_temp,
-                String.format(res.getString(R.string.temp_string), externalTemp));
-    }
-
-    private void clearLightPendingIntent(RemoteViews remoteViews) {
-        remoteViews.setOnClickPendingIntent(R.id.widget_toggle_button, null);
+        PiStatus status = snapshot.getStatus();
+        return renderer.forStatus(status.isOn(), status.getInsideTemp(), status.getOutsideTemp(),
+                status.getLampsOnCount(), status.getLamps().size(),
+                isStale || snapshot.getAgeMillis() > STALE_AFTER_MS);
     }
 
-    private void resetLightPendingIntent(Context context, int[] appWidgetIds,
-                                         RemoteViews remoteViews) {
+    /**
+     * Returns the broadcast for a click on the toggle button while the lamp is isOn.
+     */
+    static Intent createToggleIntent(Context context, int[] appWidgetIds, boolean isOn) {
         Intent lightClickIntent = new Intent(context, PiSwitchWidgetProvider.class);
         lightClickIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
         lightClickIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, appWidgetIds);
         lightClickIntent.putExtra(BUTTON_PUSHED_KEY, true); // button push intent
         lightClickIntent.putExtra(PI_CONTROLLER_STATUS_KEY, false);
         lightClickIntent.putExtra(REFRESH_PUSHED_KEY, false);
-        lightClickIntent.putExtra(IS_ON_KEY, mIsOn);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
-                0, lightClickIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-        remoteViews.setOnClickPendingIntent(R.id.widget_toggle_button, pendingIntent);
+        lightClickIntent.putExtra(IS_ON_KEY, isOn);
+        return lightClickIntent;
     }
 
-    private void createRefreshIntent(Context context, int[] appWidgetIds,
-                                     RemoteViews remoteViews) {
+    /**
+     * Returns the broadcast for a click on the refresh button.
+     */
+    static Intent createRefreshIntent(Context context, int[] appWidgetIds) {
         Intent refreshIntent = new Intent(context, PiSwitchWidgetProvider.class);
         refreshIntent.setAction(ACTION_REFRESH);
         refreshIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, appWidgetIds);
         refreshIntent.putExtra(REFRESH_PUSHED_KEY, true);
         refreshIntent.putExtra(PI_CONTROLLER_STATUS_KEY, false);
         refreshIntent.putExtra(BUTTON_PUSHED_KEY, false);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
-                0, refreshIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-        remoteViews.setOnClickPendingIntent(R.id.widget_refresh_button, pendingIntent);
+        return refreshIntent;
     }
 
     @Override
@@ -173,8 +182,10 @@ public class PiSwitchWidgetProvider extends AppWidgetProvider {
         mPiControllerIntent = intent.getBooleanExtra(PI_CONTROLLER_STATUS_KEY, false);
         mHasNoData = intent.getBooleanExtra(HAS_NO_DATA_KEY, true);
         mIsOn = intent.getBooleanExtra(IS_ON_KEY, false);
-        mInternalTemp = intent.getDoubleExtra(INTERNAL_TEMP_KEY, 0.0);
-        mExternalTemp = intent.getDoubleExtra(EXTERNAL_TEMP_KEY, 0.0);
+        mInternalTemp = intent.getDoubleExtra(INTERNAL_TEMP_KEY, Double.NaN);
+        mExternalTemp = intent.getDoubleExtra(EXTERNAL_TEMP_KEY, Double.NaN);
+        mLampsOn = intent.getIntExtra(LAMPS_ON_KEY, 0);
+        mLampCount = intent.getIntExtra(LAMP_COUNT_KEY, 0);
         super.onReceive(context, intent);
     }
 }
@@ -0,0 +1,12 @@
+package com.dektar.pi.piswitch;
+
+import com.android.volley.VolleyError;
+
+/**
+ * Delivered without sending anything while the Pi's {@link CircuitBreaker} is open.
+ */
+public class PiUnreachableError extends VolleyError {
+    public PiUnreachableError(String message) {
+        super(message);
+    }
+}
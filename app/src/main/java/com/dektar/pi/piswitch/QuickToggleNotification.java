@@ -0,0 +1,85 @@
+package com.dektar.pi.piswitch;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.preference.PreferenceManager;
+
+/**
+ * The optional ongoing notification with a button for the primary lamp. The button goes
+ * straight to {@link WidgetUpdateService}, so switching from it needs no screen at all.
+ */
+public class QuickToggleNotification {
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Shows the notification with the last saved status if the user wants it, or removes it.
+     */
+    public static void update(Context context) {
+        if (!isEnabled(context)) {
+            getManager(context).cancel(NOTIFICATION_ID);
+            return;
+        }
+        StatusStore.Snapshot snapshot = StatusStore.getInstance(context).get();
+        show(context, snapshot == null ? null : snapshot.getStatus());
+    }
+
+    /**
+     * Shows status on the notification if the user wants it.
+     */
+    public static void update(Context context, PiStatus status) {
+        if (isEnabled(context)) {
+            show(context, status);
+        }
+    }
+
+    private static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                context.getString(R.string.pref_quick_toggle_id), false);
+    }
+
+    private static void show(Context context, PiStatus status) {
+        Resources resources = context.getResources();
+        String title;
+        String text;
+        String action;
+        if (status == null) {
+            title = resources.getString(R.string.app_name);
+            text = resources.getString(R.string.notification_unknown);
+            action = resources.getString(R.string.notification_toggle);
+        } else {
+            title = resources.getString(status.isOn() ? R.string.lamp_text_on
+                    : R.string.lamp_text_off, PiStatus.PRIMARY_LAMP);
+            boolean hasTemps = !Double.isNaN(status.getInsideTemp())
+                    && !Double.isNaN(status.getOutsideTemp());
+            text = hasTemps ? resources.getString(R.string.notification_temps,
+                    resources.getString(R.string.temp_string, status.getInsideTemp()),
+                    resources.getString(R.string.temp_string, status.getOutsideTemp())) : null;
+            action = resources.getString(status.isOn() ? R.string.button_text_turn_off
+                    : R.string.button_text_turn_on);
+        }
+        // The button decides on or off when it is pressed, from whatever is known by then.
+        PendingIntent toggle = PendingIntent.getService(context, 0,
+                WidgetUpdateService.createQuickToggleIntent(context),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        PendingIntent open = PendingIntent.getActivity(context, 0,
+                new Intent(context, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        Notification notification = new Notification.Builder(context)
+                .setSmallIcon(R.drawable.ic_lightbulb_outline_white_24dp)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setContentIntent(open)
+                .addAction(R.drawable.ic_lightbulb_outline_white_24dp, action, toggle)
+                .setOngoing(true)
+                .setPriority(Notification.PRIORITY_LOW)
+                .build();
+        getManager(context).notify(NOTIFICATION_ID, notification);
+    }
+
+    private static NotificationManager getManager(Context context) {
+        return (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+}
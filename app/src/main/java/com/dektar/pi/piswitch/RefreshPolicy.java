@@ -0,0 +1,108 @@
+package com.dektar.pi.piswitch;
+
+/**
+ * Decides when the widgets should next ask the Pi for its status.
+ *
+ * Right after a command or a change of the lamps, more changes are likely (the Pi confirming,
+ * someone toggling back), so the status is polled every {@link #FAST_INTERVAL_MS} for
+ * {@link #FAST_WINDOW_MS}. After that each wait is half as long as the lamps have been left
+ * alone, so polls thin out exponentially, from {@link #MIN_STABLE_INTERVAL_MS} up to
+ * {@link #MAX_INTERVAL_MS}. Temperatures alone don't count as a change; they drift all day.
+ *
+ * Times are wall clock milliseconds, so the state can be kept across processes. Not thread
+ * safe.
+ */
+public class RefreshPolicy {
+    static final long FAST_INTERVAL_MS = 15 * 1000;
+    static final long FAST_WINDOW_MS = 2 * 60 * 1000;
+    static final long MIN_STABLE_INTERVAL_MS = 60 * 1000;
+    static final long MAX_INTERVAL_MS = 60 * 60 * 1000;
+
+    private long mLastChangeMillis;
+    private long mLastRefreshMillis;
+    private String mLamps;
+
+    /**
+     * Restores a policy from {@link #getLastChangeMillis()}, {@link #getLastRefreshMillis()}
+     * and {@link #getLamps()}; a new one starts from 0, 0 and null.
+     */
+    public RefreshPolicy(long lastChangeMillis, long lastRefreshMillis, String lamps) {
+        mLastChangeMillis = lastChangeMillis;
+        mLastRefreshMillis = lastRefreshMillis;
+        mLamps = lamps;
+    }
+
+    /**
+     * The user asked for lamps to be switched.
+     */
+    public void onCommand(long nowMillis) {
+        mLastChangeMillis = nowMillis;
+    }
+
+    /**
+     * The Pi reported status, or it was learned some other way. Returns whether any lamp
+     * changed since the last one.
+     */
+    public boolean onStatus(long nowMillis, PiStatus status) {
+        String lamps = describeLamps(status);
+        boolean isChange = mLamps != null && !lamps.equals(mLamps);
+        if (isChange) {
+            mLastChangeMillis = nowMillis;
+        }
+        mLamps = lamps;
+        mLastRefreshMillis = nowMillis;
+        return isChange;
+    }
+
+    /**
+     * A refresh is starting. Counts as one whether or not a status comes of it, so a Pi that
+     * doesn't answer isn't asked any more often.
+     */
+    public void onRefreshStarted(long nowMillis) {
+        mLastRefreshMillis = nowMillis;
+    }
+
+    /**
+     * Returns how long to wait between refreshes at nowMillis.
+     */
+    public long getIntervalMs(long nowMillis) {
+        long stableMs = nowMillis - mLastChangeMillis;
+        if (stableMs < FAST_WINDOW_MS) {
+            return FAST_INTERVAL_MS;
+        }
+        return Math.max(MIN_STABLE_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, stableMs / 2));
+    }
+
+    /**
+     * Returns when the next refresh is due, nowMillis at the earliest.
+     */
+    public long getNextRefreshMillis(long nowMillis) {
+        return Math.max(nowMillis, mLastRefreshMillis + getIntervalMs(nowMillis));
+    }
+
+    public long getLastChangeMillis() {
+        return mLastChangeMillis;
+    }
+
+    public long getLastRefreshMillis() {
+        return mLastRefreshMillis;
+    }
+
+    public String getLamps() {
+        return mLamps;
+    }
+
+    /**
+     * Returns the state of every lamp in status as a string, equal for equal states.
+     */
+    static String describeLamps(PiStatus status) {
+        if (status.getLamps().isEmpty()) {
+            return status.isOn() ? "1" : "0";
+        }
+        StringBuilder lamps = new StringBuilder();
+        for (Lamp lamp : status.getLamps()) {
+            lamps.append(lamp.getName()).append('=').append(lamp.isOn() ? '1' : '0').append(';');
+        }
+        return lamps.toString();
+    }
+}
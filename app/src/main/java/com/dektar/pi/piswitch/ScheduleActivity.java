@@ -0,0 +1,208 @@
+package com.dektar.pi.piswitch;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v7.app.ActionBarActivity;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.Spinner;
+import android.widget.TimePicker;
+import android.widget.ToggleButton;
+
+import java.text.DateFormat;
+import java.text.DateFormatSymbols;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Lists the schedule and lets the user add rules or delete them.
+ */
+public class ScheduleActivity extends ActionBarActivity {
+    // Positions in R.array.schedule_types.
+    private static final int[] TYPES = {ScheduleRule.TYPE_DAILY, ScheduleRule.TYPE_SUNRISE,
+            ScheduleRule.TYPE_SUNSET, ScheduleRule.TYPE_ONCE};
+
+    private ListView mList;
+    private List<ScheduleRule> mRules;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_schedule);
+
+        mList = (ListView) findViewById(R.id.schedule_list);
+        mList.setEmptyView(findViewById(R.id.schedule_empty));
+        mList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                confirmDelete(mRules.get(position));
+            }
+        });
+        findViewById(R.id.schedule_add).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showAddDialog();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showRules();
+    }
+
+    /**
+     * Returns a one-line description of rule, e.g. "Turn living room on at 7:30, every day".
+     */
+    public static String describe(Context context, ScheduleRule rule) {
+        String action = context.getString(rule.isTurnOn() ? R.string.schedule_turn_on
+                : R.string.schedule_turn_off, rule.getLamp());
+        String when;
+        switch (rule.getType()) {
+            case ScheduleRule.TYPE_ONCE:
+                when = context.getString(R.string.schedule_once,
+                        DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)
+                                .format(rule.getTime()));
+                break;
+            case ScheduleRule.TYPE_DAILY:
+                Calendar at = Calendar.getInstance();
+                at.set(Calendar.HOUR_OF_DAY, (int) rule.getTime() / 60);
+                at.set(Calendar.MINUTE, (int) rule.getTime() % 60);
+                when = context.getString(R.string.schedule_daily,
+                        android.text.format.DateFormat.getTimeFormat(context)
+                                .format(at.getTime()),
+                        describeDays(context, rule.getDays()));
+                break;
+            default:
+                when = context.getString(rule.getType() == ScheduleRule.TYPE_SUNRISE
+                                ? R.string.schedule_sunrise : R.string.schedule_sunset,
+                        (int) rule.getTime(), describeDays(context, rule.getDays()));
+                break;
+        }
+        return context.getString(R.string.schedule_rule, action, when);
+    }
+
+    private static String describeDays(Context context, int days) {
+        if (days == ScheduleRule.EVERY_DAY) {
+            return context.getString(R.string.schedule_every_day);
+        }
+        String[] names = new DateFormatSymbols().getShortWeekdays();
+        List<String> chosen = new ArrayList<String>();
+        for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+            if ((days & (1 << (day - Calendar.SUNDAY))) != 0) {
+                chosen.add(names[day]);
+            }
+        }
+        return TextUtils.join(", ", chosen);
+    }
+
+    private void showRules() {
+        mRules = ScheduleManager.getInstance(this).getRules();
+        List<String> descriptions = new ArrayList<String>(mRules.size());
+        for (ScheduleRule rule : mRules) {
+            descriptions.add(describe(this, rule));
+        }
+        mList.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1,
+                descriptions));
+    }
+
+    private void confirmDelete(final ScheduleRule rule) {
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.schedule_delete, describe(this, rule)))
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        ScheduleManager.getInstance(ScheduleActivity.this)
+                                .removeRule(rule.getId());
+                        showRules();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void showAddDialog() {
+        final View view = LayoutInflater.from(this).inflate(R.layout.dialog_schedule_rule, null);
+        final EditText lamp = (EditText) view.findViewById(R.id.schedule_lamp);
+        final ToggleButton turnOn = (ToggleButton) view.findViewById(R.id.schedule_turn_on);
+        final Spinner type = (Spinner) view.findViewById(R.id.schedule_type);
+        final TimePicker time = (TimePicker) view.findViewById(R.id.schedule_time);
+        final EditText offset = (EditText) view.findViewById(R.id.schedule_offset);
+        lamp.setText(PiStatus.PRIMARY_LAMP);
+        time.setIs24HourView(android.text.format.DateFormat.is24HourFormat(this));
+        type.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View selected, int position,
+                                       long id) {
+                boolean isSun = TYPES[position] == ScheduleRule.TYPE_SUNRISE
+                        || TYPES[position] == ScheduleRule.TYPE_SUNSET;
+                time.setVisibility(isSun ? View.GONE : View.VISIBLE);
+                offset.setVisibility(isSun ? View.VISIBLE : View.GONE);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        new AlertDialog.Builder(this)
+                .setView(view)
+                .setPositiveButton(R.string.schedule_add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String lampName = lamp.getText().toString().trim();
+                        if (lampName.isEmpty()) {
+                            return;
+                        }
+                        int minuteOfDay = time.getCurrentHour() * 60 + time.getCurrentMinute();
+                        addRule(lampName, turnOn.isChecked(),
+                                TYPES[type.getSelectedItemPosition()], minuteOfDay,
+                                parseMinutes(offset.getText().toString()));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void addRule(String lamp, boolean turnOn, int type, int minuteOfDay,
+                         int offsetMinutes) {
+        ScheduleManager scheduleManager = ScheduleManager.getInstance(this);
+        long id = scheduleManager.newRuleId();
+        ScheduleRule rule;
+        if (type == ScheduleRule.TYPE_ONCE) {
+            Calendar at = Calendar.getInstance();
+            at.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+            at.set(Calendar.MINUTE, minuteOfDay % 60);
+            at.set(Calendar.SECOND, 0);
+            at.set(Calendar.MILLISECOND, 0);
+            if (at.getTimeInMillis() <= System.currentTimeMillis()) {
+                at.add(Calendar.DAY_OF_MONTH, 1);
+            }
+            rule = ScheduleRule.once(id, lamp, turnOn, at.getTimeInMillis());
+        } else if (type == ScheduleRule.TYPE_DAILY) {
+            rule = ScheduleRule.daily(id, lamp, turnOn, minuteOfDay, ScheduleRule.EVERY_DAY);
+        } else {
+            rule = new ScheduleRule(id, lamp, turnOn, type, offsetMinutes,
+                    ScheduleRule.EVERY_DAY);
+        }
+        scheduleManager.addRule(rule);
+        showRules();
+    }
+
+    private static int parseMinutes(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.dektar.pi.piswitch;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.os.Build;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Runs the user's schedule: keeps the rules in a {@link ScheduleStore}, their next firings in
+ * a {@link Scheduler}, and exactly one AlarmManager alarm set for the earliest of them. The
+ * alarm goes to {@link ScheduleReceiver}, which switches the lamps without opening any UI.
+ *
+ * Must only be used from the main thread.
+ */
+public class ScheduleManager {
+    static final String ACTION_FIRE = "com.dektar.pi.piswitch.ACTION_SCHEDULE_FIRE";
+
+    private static final String PREFS_NAME = "schedule";
+    // When the alarm is set for, so a new process can pick up a firing that hasn't been taken.
+    private static final String KEY_ARMED = "armed";
+
+    private static ScheduleManager sInstance;
+
+    private final Context mContext;
+    private final ScheduleStore mStore;
+    private final SharedPreferences mPrefs;
+    private Scheduler mScheduler;
+
+    public static synchronized ScheduleManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScheduleManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ScheduleManager(Context context) {
+        mContext = context;
+        mStore = ScheduleStore.getInstance(context);
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mScheduler = createScheduler();
+    }
+
+    public List<ScheduleRule> getRules() {
+        return mStore.getRules();
+    }
+
+    /**
+     * Returns an id no existing rule has, for a rule about to be added.
+     */
+    public long newRuleId() {
+        long id = 0;
+        for (ScheduleRule rule : mStore.getRules()) {
+            id = Math.max(id, rule.getId());
+        }
+        return id + 1;
+    }
+
+    public void addRule(ScheduleRule rule) {
+        List<ScheduleRule> rules = new ArrayList<ScheduleRule>(mStore.getRules());
+        rules.add(rule);
+        mStore.setRules(rules);
+        mScheduler.add(rule, System.currentTimeMillis());
+        arm();
+    }
+
+    public void removeRule(long id) {
+        List<ScheduleRule> rules = new ArrayList<ScheduleRule>(mStore.getRules());
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            if (rules.get(i).getId() == id) {
+                rules.remove(i);
+            }
+        }
+        mStore.setRules(rules);
+        mScheduler.remove(id);
+        arm();
+    }
+
+    /**
+     * Schedules every rule afresh, for after a reboot, a change of clock or time zone, or a new
+     * location.
+     */
+    public void reload() {
+        mScheduler = createScheduler();
+        arm();
+    }
+
+    /**
+     * Takes what is due now, forgets one-shot rules that have fired and sets the alarm for the
+     * next firing. Returns the state each lamp should be switched to.
+     */
+    Map<String, Boolean> takeDue() {
+        long now = System.currentTimeMillis();
+        Map<String, Boolean> due = mScheduler.takeDue(now);
+        List<ScheduleRule> rules = new ArrayList<ScheduleRule>(mStore.getRules());
+        boolean isChanged = false;
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            ScheduleRule rule = rules.get(i);
+            if (rule.getType() == ScheduleRule.TYPE_ONCE
+                    && rule.getTime() <= now + Scheduler.BATCH_WINDOW_MS) {
+                rules.remove(i);
+                isChanged = true;
+            }
+        }
+        if (isChanged) {
+            mStore.setRules(rules);
+        }
+        arm();
+        return due;
+    }
+
+    private Scheduler createScheduler() {
+        Scheduler scheduler = new Scheduler(TimeZone.getDefault(), loadSunCalculator());
+        scheduler.setRules(mStore.getRules(), Scheduler.resumeFrom(mPrefs.getLong(KEY_ARMED, -1),
+                System.currentTimeMillis()));
+        return scheduler;
+    }
+
+    /**
+     * Returns a calculator for the location in the settings, or null if none is set.
+     */
+    private SunCalculator loadSunCalculator() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(mContext);
+        Resources resources = mContext.getResources();
+        try {
+            double latitude = Double.parseDouble(sharedPref.getString(
+                    resources.getString(R.string.pref_latitude_id), ""));
+            double longitude = Double.parseDouble(sharedPref.getString(
+                    resources.getString(R.string.pref_longitude_id), ""));
+            return new SunCalculator(latitude, longitude);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void arm() {
+        AlarmManager alarmManager =
+                (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(mContext, ScheduleReceiver.class);
+        intent.setAction(ACTION_FIRE);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        long next = mScheduler.getNextFiringMillis();
+        mPrefs.edit().putLong(KEY_ARMED, next).apply();
+        if (next < 0) {
+            alarmManager.cancel(pendingIntent);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Plain set() may be deferred to batch with other apps' alarms; lamps should
+            // switch on time.
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, next, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, next, pendingIntent);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.dektar.pi.piswitch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Map;
+
+/**
+ * Switches the lamps when a scheduled alarm goes off, without any UI, and re-arms the schedule
+ * after a reboot or a change of clock or time zone.
+ */
+public class ScheduleReceiver extends BroadcastReceiver {
+    // A receiver gets ten seconds; a command the Pi hasn't confirmed by then stays in the
+    // CommandJournal and is sent later.
+    private static final long GIVE_UP_MS = 9 * 1000;
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        ScheduleManager scheduleManager = ScheduleManager.getInstance(context);
+        if (!ScheduleManager.ACTION_FIRE.equals(intent.getAction())) {
+            // Boot, time or time zone change: every firing has to be worked out again.
+            scheduleManager.reload();
+            // Notifications don't survive a reboot.
+            QuickToggleNotification.update(context);
+            return;
+        }
+        Map<String, Boolean> states = scheduleManager.takeDue();
+        if (states.isEmpty()) {
+            return;
+        }
+        Log.d("schedule", "switching " + states);
+
+        final PendingResult result = goAsync();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final PiController[] controller = new PiController[1];
+        final Runnable finish = new Runnable() {
+            private boolean mIsFinished;
+
+            @Override
+            public void run() {
+                if (mIsFinished) {
+                    return;
+                }
+                mIsFinished = true;
+                handler.removeCallbacks(this);
+                controller[0].onDestroy();
+                result.finish();
+            }
+        };
+        controller[0] = new PiController(context, new PiController.OnPiStatusResponseListener() {
+            @Override
+            public void onStatus(PiStatus status) {
+                // The first status may only be the expected one; wait for the Pi's.
+                if (CommandQueue.getInstance(context).isIdle()) {
+                    PiSwitchWidgetProvider.sendStatus(context, status);
+                    finish.run();
+                }
+            }
+
+            @Override
+            public void onError() {
+                finish.run();
+            }
+        });
+        handler.postDelayed(finish, GIVE_UP_MS);
+        controller[0].setLamps(states);
+    }
+}
@@ -0,0 +1,125 @@
+package com.dektar.pi.piswitch;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * When to switch a lamp on or off: once at a given time, or on chosen days of the week at a
+ * time of day or a number of minutes from sunrise or sunset. Immutable.
+ */
+public final class ScheduleRule {
+    public static final int TYPE_ONCE = 0;
+    public static final int TYPE_DAILY = 1;
+    public static final int TYPE_SUNRISE = 2;
+    public static final int TYPE_SUNSET = 3;
+
+    /** Days bit mask with every day set; bit 0 is Sunday, as in {@link Calendar}. */
+    public static final int EVERY_DAY = 0x7f;
+
+    // With days chosen, a firing is at most a week away unless the sun gets in the way.
+    private static final int MAX_DAYS_AHEAD = 366;
+
+    private final long mId;
+    private final String mLamp;
+    private final boolean mTurnOn;
+    private final int mType;
+    // Wall clock time for TYPE_ONCE; minute of the day or offset in minutes otherwise.
+    private final long mTime;
+    private final int mDays;
+
+    public ScheduleRule(long id, String lamp, boolean turnOn, int type, long time, int days) {
+        mId = id;
+        mLamp = lamp;
+        mTurnOn = turnOn;
+        mType = type;
+        mTime = time;
+        mDays = days;
+    }
+
+    public static ScheduleRule once(long id, String lamp, boolean turnOn, long atMillis) {
+        return new ScheduleRule(id, lamp, turnOn, TYPE_ONCE, atMillis, 0);
+    }
+
+    public static ScheduleRule daily(long id, String lamp, boolean turnOn, int minuteOfDay,
+                                     int days) {
+        return new ScheduleRule(id, lamp, turnOn, TYPE_DAILY, minuteOfDay, days);
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getLamp() {
+        return mLamp;
+    }
+
+    public boolean isTurnOn() {
+        return mTurnOn;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the wall clock time for {@link #TYPE_ONCE}, the minute of the day for
+     * {@link #TYPE_DAILY} and the offset in minutes for sunrise and sunset.
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    public int getDays() {
+        return mDays;
+    }
+
+    /**
+     * Returns the first time after afterMillis this rule fires, in wall clock milliseconds, or
+     * -1 if it never does again. Sunrise and sunset rules need sun; without one they never
+     * fire.
+     */
+    public long nextFiringAfter(long afterMillis, TimeZone zone, SunCalculator sun) {
+        if (mType == TYPE_ONCE) {
+            return mTime > afterMillis ? mTime : -1;
+        }
+        if (mDays == 0 || (sun == null && mType != TYPE_DAILY)) {
+            return -1;
+        }
+        Calendar day = Calendar.getInstance(zone);
+        day.setTimeInMillis(afterMillis);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        // Start the day before: an offset can move a firing past midnight.
+        day.add(Calendar.DAY_OF_MONTH, -1);
+        for (int i = 0; i <= MAX_DAYS_AHEAD; i++) {
+            if ((mDays & (1 << (day.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY))) != 0) {
+                long firing = firingOn(day, sun);
+                if (firing > afterMillis) {
+                    return firing;
+                }
+            }
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return -1;
+    }
+
+    private long firingOn(Calendar day, SunCalculator sun) {
+        if (mType == TYPE_DAILY) {
+            Calendar at = (Calendar) day.clone();
+            // Set rather than added, so the time of day holds across daylight saving changes.
+            at.set(Calendar.HOUR_OF_DAY, (int) mTime / 60);
+            at.set(Calendar.MINUTE, (int) mTime % 60);
+            return at.getTimeInMillis();
+        }
+        long base = mType == TYPE_SUNRISE ? sun.sunrise(day) : sun.sunset(day);
+        return base < 0 ? -1 : base + mTime * 60 * 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduleRule{id=" + mId + ", lamp=" + mLamp + ", on=" + mTurnOn + ", type="
+                + mType + ", time=" + mTime + ", days=" + mDays + "}";
+    }
+}
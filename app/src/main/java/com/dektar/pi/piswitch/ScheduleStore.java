@@ -0,0 +1,148 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The user's {@link ScheduleRule}s, kept on disk.
+ *
+ * Works like {@link StatusStore}: reads come from memory once loaded, and writes replace the
+ * file atomically on a background thread, newest wins.
+ */
+public class ScheduleStore {
+    private static final String FILE_NAME = "schedule.bin";
+    private static final int VERSION = 1;
+
+    private static ScheduleStore sInstance;
+
+    private final File mFile;
+    private final Executor mWriter;
+    private final AtomicReference<List<ScheduleRule>> mPendingWrite =
+            new AtomicReference<List<ScheduleRule>>();
+    private List<ScheduleRule> mRules;
+
+    public static synchronized ScheduleStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScheduleStore(new File(context.getFilesDir(), FILE_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    ScheduleStore(File file, Executor writer) {
+        mFile = file;
+        mWriter = writer;
+    }
+
+    /**
+     * Returns every rule, oldest first. Only the first call may touch the disk.
+     */
+    public synchronized List<ScheduleRule> getRules() {
+        if (mRules == null) {
+            mRules = read();
+        }
+        return mRules;
+    }
+
+    /**
+     * Replaces every rule, effective immediately for {@link #getRules()} and written to disk in
+     * the background.
+     */
+    public synchronized void setRules(List<ScheduleRule> rules) {
+        mRules = Collections.unmodifiableList(new ArrayList<ScheduleRule>(rules));
+        if (mPendingWrite.getAndSet(mRules) == null) {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<ScheduleRule> latest = mPendingWrite.getAndSet(null);
+                    if (latest != null) {
+                        write(latest);
+                    }
+                }
+            });
+        }
+    }
+
+    private List<ScheduleRule> read() {
+        List<ScheduleRule> rules = new ArrayList<ScheduleRule>();
+        if (!mFile.exists()) {
+            return Collections.unmodifiableList(rules);
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() == VERSION) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long id = in.readLong();
+                    String lamp = in.readUTF();
+                    boolean turnOn = in.readBoolean();
+                    int type = in.readInt();
+                    long time = in.readLong();
+                    rules.add(new ScheduleRule(id, lamp, turnOn, type, time, in.readInt()));
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable; start over.
+            rules.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    private void write(List<ScheduleRule> rules) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(VERSION);
+            out.writeInt(rules.size());
+            for (ScheduleRule rule : rules) {
+                out.writeLong(rule.getId());
+                out.writeUTF(rule.getLamp());
+                out.writeBoolean(rule.isTurnOn());
+                out.writeInt(rule.getType());
+                out.writeLong(rule.getTime());
+                out.writeInt(rule.getDays());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            fileOut = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Couldn't replace " + mFile);
+            }
+        } catch (IOException e) {
+            closeQuietly(fileOut);
+            tmp.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+}
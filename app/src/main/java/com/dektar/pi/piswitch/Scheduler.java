@@ -0,0 +1,119 @@
+package com.dektar.pi.piswitch;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Keeps the next firing of every {@link ScheduleRule} in a priority queue, so finding what is
+ * due costs O(log n) per firing however many rules there are.
+ *
+ * Firings within {@link #BATCH_WINDOW_MS} of each other are taken together, so a cluster of
+ * rules costs one wakeup, and the lamp commands they add up to are merged so each lamp is
+ * switched once. Thread safe.
+ */
+public class Scheduler {
+    /** Firings up to this long after the one that is due are run with it. */
+    static final long BATCH_WINDOW_MS = 30 * 1000;
+
+    private static final class Firing implements Comparable<Firing> {
+        final long mTime;
+        final ScheduleRule mRule;
+
+        Firing(long time, ScheduleRule rule) {
+            mTime = time;
+            mRule = rule;
+        }
+
+        @Override
+        public int compareTo(Firing other) {
+            if (mTime != other.mTime) {
+                return mTime < other.mTime ? -1 : 1;
+            }
+            long id = mRule.getId();
+            long otherId = other.mRule.getId();
+            return id < otherId ? -1 : id == otherId ? 0 : 1;
+        }
+    }
+
+    private final TimeZone mZone;
+    private final SunCalculator mSun;
+    private final PriorityQueue<Firing> mQueue = new PriorityQueue<Firing>();
+
+    /**
+     * sun may be null if the location isn't known; sunrise and sunset rules then never fire.
+     */
+    public Scheduler(TimeZone zone, SunCalculator sun) {
+        mZone = zone;
+        mSun = sun;
+    }
+
+    /**
+     * Replaces every rule, scheduling each for its first firing after nowMillis.
+     */
+    public synchronized void setRules(Collection<ScheduleRule> rules, long nowMillis) {
+        mQueue.clear();
+        for (ScheduleRule rule : rules) {
+            schedule(rule, nowMillis);
+        }
+    }
+
+    /**
+     * Returns what to pass to {@link #setRules} as nowMillis when building a scheduler in a new
+     * process, given armedMillis, when the earliest firing not yet taken was due, or -1 if
+     * none was. If that has passed it is queued again: the alarm for it may be what started
+     * the process, and a one-shot rule would otherwise never fire.
+     */
+    static long resumeFrom(long armedMillis, long nowMillis) {
+        return armedMillis < 0 ? nowMillis : Math.min(armedMillis - 1, nowMillis);
+    }
+
+    public synchronized void add(ScheduleRule rule, long nowMillis) {
+        schedule(rule, nowMillis);
+    }
+
+    public synchronized void remove(long id) {
+        Iterator<Firing> firings = mQueue.iterator();
+        while (firings.hasNext()) {
+            if (firings.next().mRule.getId() == id) {
+                firings.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns when the next rule fires, in wall clock milliseconds, or -1 if none will.
+     */
+    public synchronized long getNextFiringMillis() {
+        Firing next = mQueue.peek();
+        return next == null ? -1 : next.mTime;
+    }
+
+    /**
+     * Takes every firing due by nowMillis plus those in the batch window after it, schedules
+     * their rules' next firings and returns the resulting state per lamp, in firing order.
+     * When rules disagree about a lamp the last to fire wins.
+     */
+    public synchronized Map<String, Boolean> takeDue(long nowMillis) {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        while (!mQueue.isEmpty() && mQueue.peek().mTime <= nowMillis + BATCH_WINDOW_MS) {
+            Firing firing = mQueue.poll();
+            ScheduleRule rule = firing.mRule;
+            states.remove(rule.getLamp());
+            states.put(rule.getLamp(), rule.isTurnOn());
+            // After now as well, so a late wakeup doesn't replay every missed repeat.
+            schedule(rule, Math.max(firing.mTime, nowMillis));
+        }
+        return states;
+    }
+
+    private void schedule(ScheduleRule rule, long afterMillis) {
+        long next = rule.nextFiringAfter(afterMillis, mZone, mSun);
+        if (next >= 0) {
+            mQueue.add(new Firing(next, rule));
+        }
+    }
+}
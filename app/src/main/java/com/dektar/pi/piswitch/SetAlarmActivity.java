@@ -0,0 +1,86 @@
+package com.dektar.pi.piswitch;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.provider.AlarmClock;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Turns an AlarmClock.ACTION_SET_ALARM, e.g. from a voice assistant, into a schedule rule for
+ * the primary lamp, then goes away without showing anything.
+ *
+ * The alarm's message says whether to turn the lamp on or off; without one an even hour means
+ * on, an odd one off. With days the rule repeats; otherwise it fires once, at the next
+ * occurrence of the time.
+ *
+ * An alarm with nothing but an hour switches the lamp right away instead, as setups from
+ * before schedules expect: for them the hour was only ever an on/off signal.
+ */
+public class SetAlarmActivity extends Activity {
+    // Whole words only, so "Monday" or "coffee" don't decide it.
+    private static final Pattern ON = Pattern.compile("\\bon\\b");
+    private static final Pattern OFF = Pattern.compile("\\boff\\b");
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Intent intent = getIntent();
+        if (isHourOnly(intent)) {
+            WidgetUpdateService.toggle(this, intent.getIntExtra(AlarmClock.EXTRA_HOUR, 0) % 2 == 0);
+        } else if (intent.hasExtra(AlarmClock.EXTRA_HOUR)) {
+            ScheduleManager scheduleManager = ScheduleManager.getInstance(this);
+            ScheduleRule rule = createRule(intent, scheduleManager.newRuleId());
+            scheduleManager.addRule(rule);
+            Toast.makeText(this, ScheduleActivity.describe(this, rule), Toast.LENGTH_LONG)
+                    .show();
+        }
+        finish();
+    }
+
+    private static boolean isHourOnly(Intent intent) {
+        return intent.hasExtra(AlarmClock.EXTRA_HOUR)
+                && !intent.hasExtra(AlarmClock.EXTRA_MINUTES)
+                && !intent.hasExtra(AlarmClock.EXTRA_MESSAGE)
+                && !intent.hasExtra(AlarmClock.EXTRA_DAYS);
+    }
+
+    private static ScheduleRule createRule(Intent intent, long id) {
+        int hour = intent.getIntExtra(AlarmClock.EXTRA_HOUR, 0);
+        int minutes = intent.getIntExtra(AlarmClock.EXTRA_MINUTES, 0);
+        String message = intent.getStringExtra(AlarmClock.EXTRA_MESSAGE);
+        boolean turnOn = hour % 2 == 0;
+        if (message != null) {
+            message = message.toLowerCase(Locale.US);
+            if (OFF.matcher(message).find()) {
+                turnOn = false;
+            } else if (ON.matcher(message).find()) {
+                turnOn = true;
+            }
+        }
+
+        ArrayList<Integer> days = intent.getIntegerArrayListExtra(AlarmClock.EXTRA_DAYS);
+        if (days != null && !days.isEmpty()) {
+            int mask = 0;
+            for (int day : days) {
+                mask |= 1 << (day - Calendar.SUNDAY);
+            }
+            return ScheduleRule.daily(id, PiStatus.PRIMARY_LAMP, turnOn, hour * 60 + minutes,
+                    mask);
+        }
+        Calendar at = Calendar.getInstance();
+        at.set(Calendar.HOUR_OF_DAY, hour);
+        at.set(Calendar.MINUTE, minutes);
+        at.set(Calendar.SECOND, 0);
+        at.set(Calendar.MILLISECOND, 0);
+        if (at.getTimeInMillis() <= System.currentTimeMillis()) {
+            at.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return ScheduleRule.once(id, PiStatus.PRIMARY_LAMP, turnOn, at.getTimeInMillis());
+    }
+}
@@ -17,4 +17,13 @@ public class SettingsActivity extends PreferenceActivity {
                 .replace(android.R.id.content, new SettingsFragment())
                 .commit();
     }
+
+    @Override
+    protected void onPause() {
+        // Pick up a change to the live widget or notification setting, or the location.
+        StatusStreamService.update(this);
+        QuickToggleNotification.update(this);
+        ScheduleManager.getInstance(this).reload();
+        super.onPause();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,420 @@
+package com.dektar.pi.piswitch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass pull parser for the status.php response.
+ *
+ * Reads only as much of the document as it needs: once the lamps and both temperatures have
+ * been seen the rest of the stream is left unread. Anything else in the document is skipped
+ * without being materialized.
+ */
+public class StatusParser {
+    private static final String KEY_LAMPS = "lamps";
+    private static final String KEY_HEATING = "heating";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_ID = "id";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_INSIDE_TEMP = "current_temp";
+    private static final String KEY_OUTSIDE_TEMP = "ext_temp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 512;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private final StringBuilder mScratch = new StringBuilder();
+    private int mPos;
+    private int mLimit;
+
+    private boolean mSeenLamps;
+    private boolean mSeenHeating;
+    private boolean mLampsKnown;
+    private boolean mHeatingKnown;
+    private final List<Lamp> mLamps = new ArrayList<Lamp>();
+    // NaN until read, so a missing temperature can't pass for a real one.
+    private double mInsideTemp = Double.NaN;
+    private double mOutsideTemp = Double.NaN;
+
+    private StatusParser(Reader reader) {
+        mReader = reader;
+    }
+
+    public static PiStatus parse(byte[] data) throws IOException {
+        return parse(new InputStreamReader(new ByteArrayInputStream(data), UTF_8));
+    }
+
+    public static PiStatus parse(Reader reader) throws IOException {
+        return new StatusParser(reader).parseDocument();
+    }
+
+    private PiStatus parseDocument() throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            throw syntaxError("missing lamps and heating");
+        }
+        while (true) {
+            String key = nextString();
+            expect(':');
+            if (KEY_LAMPS.equals(key)) {
+                parseLamps();
+            } else if (KEY_HEATING.equals(key)) {
+                parseHeating();
+            } else {
+                skipValue();
+            }
+            if (isComplete()) {
+                // Everything we care about is known; don't read the rest.
+                return toStatus();
+            }
+            if (nextSeparator('}')) {
+                break;
+            }
+        }
+        if (!mSeenLamps || !mSeenHeating) {
+            throw syntaxError("missing " + (mSeenLamps ? KEY_HEATING : KEY_LAMPS));
+        }
+        return toStatus();
+    }
+
+    private void parseLamps() throws IOException {
+        mSeenLamps = true;
+        expect('[');
+        if (peek() == ']') {
+            read();
+            mLampsKnown = true;
+            return;
+        }
+        do {
+            if (peek() == '{') {
+                Lamp lamp = parseLamp();
+                if (lamp != null) {
+                    mLamps.add(lamp);
+                }
+            } else {
+                skipValue();
+            }
+        } while (!nextSeparator(']'));
+        mLampsKnown = true;
+    }
+
+    /**
+     * Parses one lamp object, returning null if it has no name.
+     */
+    private Lamp parseLamp() throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            read();
+            return null;
+        }
+        String name = null;
+        String id = null;
+        String state = null;
+        while (true) {
+            String key = nextString();
+            expect(':');
+            if (KEY_NAME.equals(key)) {
+                name = nextScalar();
+            } else if (KEY_ID.equals(key)) {
+                id = nextScalar();
+            } else if (KEY_STATE.equals(key)) {
+                state = nextScalar();
+            } else {
+                skipValue();
+            }
+            if (nextSeparator('}')) {
+                break;
+            }
+        }
+        if (name == null) {
+            return null;
+        }
+        return new Lamp(name, id, state != null && parseNumber(state) == 1);
+    }
+
+    private void parseHeating() throws IOException {
+        mSeenHeating = true;
+        expect('[');
+        if (peek() == ']') {
+            read();
+            mHeatingKnown = true;
+            return;
+        }
+        // Only the first entry carries the temperatures.
+        if (peek() == '{') {
+            parseHeatingEntry();
+        } else {
+            skipValue();
+        }
+        mHeatingKnown = true;
+        if (isComplete()) {
+            return;
+        }
+        while (!nextSeparator(']')) {
+            skipValue();
+        }
+    }
+
+    private void parseHeatingEntry() throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            read();
+            return;
+        }
+        while (true) {
+            String key = nextString();
+            expect(':');
+            if (KEY_INSIDE_TEMP.equals(key)) {
+                mInsideTemp = parseNumber(nextScalar());
+            } else if (KEY_OUTSIDE_TEMP.equals(key)) {
+                mOutsideTemp = parseNumber(nextScalar());
+            } else {
+                skipValue();
+            }
+            if (nextSeparator('}')) {
+                return;
+            }
+        }
+    }
+
+    private boolean isComplete() {
+        return mLampsKnown && mHeatingKnown;
+    }
+
+    private PiStatus toStatus() {
+        return new PiStatus(mLamps, mInsideTemp, mOutsideTemp);
+    }
+
+    private double parseNumber(String value) throws IOException {
+        if (value == null) {
+            throw syntaxError("expected a number");
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("expected a number but was " + value);
+        }
+    }
+
+    /**
+     * Consumes a ',' or the given closing character. Returns true if it was the closer.
+     */
+    private boolean nextSeparator(char close) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == close) {
+            return true;
+        }
+        if (c != ',') {
+            throw syntaxError("expected ',' or '" + close + "'");
+        }
+        return false;
+    }
+
+    /**
+     * Reads a string, number or literal as text. Objects and arrays are skipped and reported
+     * as null, as is the literal null.
+     */
+    private String nextScalar() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            return nextString();
+        }
+        if (c == '{' || c == '[') {
+            skipValue();
+            return null;
+        }
+        String literal = nextLiteral();
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String nextString() throws IOException {
+        expect('"');
+        StringBuilder builder = mScratch;
+        builder.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c == '\\') {
+                builder.append(readEscape());
+            } else if (c == -1) {
+                throw syntaxError("unterminated string");
+            } else {
+                builder.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("bad unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("bad escape");
+        }
+    }
+
+    private String nextLiteral() throws IOException {
+        peek();
+        StringBuilder builder = mScratch;
+        builder.setLength(0);
+        while (true) {
+            int c = peekRaw();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || c == ':' || isWhitespace(c)) {
+                break;
+            }
+            builder.append((char) c);
+            mPos++;
+        }
+        if (builder.length() == 0) {
+            throw syntaxError("expected a value");
+        }
+        return builder.toString();
+    }
+
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = peek();
+            switch (c) {
+                case '{':
+                case '[':
+                    read();
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    read();
+                    depth--;
+                    break;
+                case ',':
+                case ':':
+                    read();
+                    break;
+                case '"':
+                    skipString();
+                    break;
+                case -1:
+                    throw syntaxError("unexpected end of document");
+                default:
+                    skipLiteral();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws IOException {
+        read();
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                read();
+            } else if (c == -1) {
+                throw syntaxError("unterminated string");
+            }
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        while (true) {
+            int c = peekRaw();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextNonWhitespace() != expected) {
+            throw syntaxError("expected '" + expected + "'");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = peek();
+        if (c != -1) {
+            mPos++;
+        }
+        return c;
+    }
+
+    /**
+     * Returns the next non-whitespace character without consuming it.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            int c = peekRaw();
+            if (c == -1 || !isWhitespace(c)) {
+                return c;
+            }
+            mPos++;
+        }
+    }
+
+    private int peekRaw() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPos];
+    }
+
+    private int read() throws IOException {
+        int c = peekRaw();
+        if (c != -1) {
+            mPos++;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mPos = 0;
+        mLimit = count;
+        return true;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed status: " + message);
+    }
+}
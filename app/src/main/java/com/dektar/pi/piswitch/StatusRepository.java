@@ -0,0 +1,323 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide source of the Pi's status, shared by every {@link PiController}.
+ *
+ * Keeps the last status the Pi reported. Callers asking within {@link #FRESH_MS} of it get
+ * it straight back; later callers get it immediately as a stale value and again once a fresh
+ * one arrives. Only one status.php request is ever in flight: callers arriving while one is
+ * outstanding wait for it instead of sending their own, and all of them get the same result.
+ * If that request takes longer than nearly all earlier ones did, a second one is sent
+ * alongside it and the first answer wins.
+ *
+ * Subscribers additionally hear about every change as it happens. While there are any, the
+ * Pi pushes its status over a {@link StatusStream} instead of being polled.
+ *
+ * Must only be used from the main thread.
+ */
+public class StatusRepository {
+    /** How long a status is served without asking the Pi again. */
+    static final long FRESH_MS = 5 * 1000;
+    /** How long a status may still be shown while a fresh one is fetched. */
+    static final long MAX_STALE_MS = 60 * 60 * 1000;
+
+    private static final String HTTP_STATUS = "status.php";
+    private static final String TAG = "status_repository_tag";
+
+    // Hedging: a status request slower than this share of earlier ones gets a second
+    // request sent alongside it.
+    private static final double HEDGE_PERCENTILE = 0.9;
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    private static final long HEDGE_MIN_DELAY_MS = 100;
+
+    private static StatusRepository sInstance;
+
+    private final PiNetwork mNetwork;
+    private final StatusStore mStatusStore;
+    private final WidgetRefreshScheduler mRefreshScheduler;
+    private final TemperatureHistory mTemperatureHistory;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<PiController.OnPiStatusResponseListener> mWaiting =
+            new ArrayList<PiController.OnPiStatusResponseListener>();
+    private final List<PiController.OnPiStatusResponseListener> mSubscribers =
+            new ArrayList<PiController.OnPiStatusResponseListener>();
+
+    private String mInFlightUrlBase;
+    private int mInFlightGeneration;
+    // Numbers fetches so that answers to an abandoned one are ignored.
+    private int mFetchId;
+    // Requests of the current fetch that haven't failed yet.
+    private int mAttempts;
+    private int mGeneration;
+    private String mLastUrlBase;
+    private PiStatus mLastStatus;
+    private long mLastStatusTime;
+    private StatusStream mStream;
+    private String mStreamUrlBase;
+
+    public static synchronized StatusRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StatusRepository(PiNetwork.getInstance(context),
+                    StatusStore.getInstance(context), TemperatureHistory.getInstance(context),
+                    WidgetRefreshScheduler.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private StatusRepository(PiNetwork network, StatusStore statusStore,
+                             TemperatureHistory temperatureHistory,
+                             WidgetRefreshScheduler refreshScheduler) {
+        mNetwork = network;
+        mStatusStore = statusStore;
+        mTemperatureHistory = temperatureHistory;
+        mRefreshScheduler = refreshScheduler;
+        // Pick up where the last process left off.
+        StatusStore.Snapshot snapshot = statusStore.get();
+        if (snapshot != null && snapshot.getAgeMillis() <= MAX_STALE_MS) {
+            mLastUrlBase = snapshot.getUrlBase();
+            mLastStatus = snapshot.getStatus();
+            mLastStatusTime = SystemClock.elapsedRealtime() - snapshot.getAgeMillis();
+        }
+    }
+
+    /**
+     * Delivers the Pi's status at urlBase to listener, from the cache when it is fresh enough
+     * and otherwise from the (possibly already running) request to the Pi.
+     */
+    public void requestStatus(String urlBase, PiController.OnPiStatusResponseListener listener) {
+        PiStatus cached = getCachedStatus(urlBase, MAX_STALE_MS);
+        if (cached != null) {
+            listener.onStatus(cached);
+            if (getCachedStatus(urlBase, FRESH_MS) != null) {
+                return;
+            }
+        }
+        if (!mWaiting.contains(listener)) {
+            mWaiting.add(listener);
+        }
+        if (mInFlightUrlBase == null) {
+            fetch(urlBase);
+        } else if (!mInFlightUrlBase.equals(urlBase) || mInFlightGeneration != mGeneration) {
+            // The address changed or the state was invalidated after the request went out,
+            // so its answer is no use to anyone waiting.
+            mNetwork.cancelAll(TAG);
+            fetch(urlBase);
+        }
+    }
+
+    /**
+     * Returns the last status from urlBase if it is no older than maxAgeMs, or null.
+     */
+    public PiStatus getCachedStatus(String urlBase, long maxAgeMs) {
+        if (mLastStatus == null || !urlBase.equals(mLastUrlBase)) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - mLastStatusTime > maxAgeMs) {
+            return null;
+        }
+        return mLastStatus;
+    }
+
+    /**
+     * Records a status learned some other way, e.g. from the response to a command.
+     */
+    public void setStatus(String urlBase, PiStatus status) {
+        mGeneration++;
+        remember(urlBase, status);
+    }
+
+    /**
+     * Forgets the cached status, e.g. because a command just changed it.
+     */
+    public void invalidate() {
+        mLastStatus = null;
+        mGeneration++;
+    }
+
+    /**
+     * Stops delivering results to listener.
+     */
+    public void cancel(PiController.OnPiStatusResponseListener listener) {
+        mWaiting.remove(listener);
+    }
+
+    /**
+     * Tells listener about every change to the status at urlBase until it unsubscribes.
+     * Subscribing again with another URL moves the subscription there.
+     */
+    public void subscribe(String urlBase, PiController.OnPiStatusResponseListener listener) {
+        if (!mSubscribers.contains(listener)) {
+            mSubscribers.add(listener);
+        }
+        if (!urlBase.equals(mStreamUrlBase)) {
+            stopStream();
+            startStream(urlBase);
+        }
+    }
+
+    public void unsubscribe(PiController.OnPiStatusResponseListener listener) {
+        mSubscribers.remove(listener);
+        if (mSubscribers.isEmpty()) {
+            stopStream();
+        }
+    }
+
+    private void startStream(final String urlBase) {
+        mStreamUrlBase = urlBase;
+        mStream = new StatusStream(urlBase, new StatusStream.Listener() {
+            @Override
+            public void onStatus(final PiStatus status) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (urlBase.equals(mStreamUrlBase)) {
+                            // Pushed by the Pi, so newer than anything in flight.
+                            setStatus(urlBase, status);
+                            recordTemperatures(status);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onConnectionChanged(boolean isConnected) {
+                if (!isConnected) {
+                    Log.d("Error", "status stream to " + urlBase + " dropped");
+                }
+            }
+        });
+        mStream.start();
+    }
+
+    private void stopStream() {
+        if (mStream != null) {
+            mStream.stop();
+            mStream = null;
+        }
+        mStreamUrlBase = null;
+    }
+
+    private void fetch(final String urlBase) {
+        mInFlightUrlBase = urlBase;
+        mInFlightGeneration = mGeneration;
+        final int fetchId = ++mFetchId;
+        mAttempts = 0;
+        sendAttempt(urlBase, fetchId);
+        long hedgeAfterMs = getHedgeDelayMs();
+        if (hedgeAfterMs > 0) {
+            mMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (fetchId == mFetchId && mInFlightUrlBase != null) {
+                        // Slower than nearly every answer so far; most likely stuck
+                        // rather than busy, so ask again alongside it.
+                        sendAttempt(urlBase, fetchId);
+                    }
+                }
+            }, hedgeAfterMs);
+        }
+    }
+
+    /**
+     * Sends one status.php request for the fetch numbered fetchId. Whichever attempt answers
+     * first is used and the others are cancelled.
+     */
+    private void sendAttempt(final String urlBase, final int fetchId) {
+        mAttempts++;
+        final int generation = mGeneration;
+        PiStatusRequest statusRequest = new PiStatusRequest(
+                urlBase + "/" + HTTP_STATUS + "?" + StatusResponseCache.FIELDS_QUERY,
+                new Response.Listener<PiStatus>() {
+                    @Override
+                    public void onResponse(PiStatus status) {
+                        if (fetchId != mFetchId || mInFlightUrlBase == null) {
+                            return;
+                        }
+                        mNetwork.cancelAll(TAG);
+                        if (generation == mGeneration) {
+                            // Otherwise the state changed after this request went out.
+                            remember(urlBase, status);
+                        }
+                        recordTemperatures(status);
+                        for (PiController.OnPiStatusResponseListener listener : finishFetch()) {
+                            listener.onStatus(status);
+                        }
+                    }
+                }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                Log.d("Error", "status: " + error.getMessage());
+                if (fetchId != mFetchId || mInFlightUrlBase == null || --mAttempts > 0) {
+                    // Another attempt may still answer.
+                    return;
+                }
+                for (PiController.OnPiStatusResponseListener listener : finishFetch()) {
+                    listener.onError();
+                }
+            }
+        });
+        statusRequest.setTag(TAG);
+        mNetwork.add(statusRequest);
+    }
+
+    /**
+     * Returns how long to wait for status.php before sending a second request, or 0 not to.
+     */
+    private long getHedgeDelayMs() {
+        PiMetrics.Endpoint metrics = PiMetrics.getInstance().getEndpoint("/" + HTTP_STATUS);
+        if (metrics.getSuccesses() < HEDGE_MIN_SAMPLES) {
+            // Too little history to tell slow from normal.
+            return 0;
+        }
+        long delayMs = metrics.getPercentileMs(PiMetrics.PHASE_TOTAL, HEDGE_PERCENTILE);
+        return Math.max(HEDGE_MIN_DELAY_MS, delayMs);
+    }
+
+    private void remember(String urlBase, PiStatus status) {
+        boolean isChange = !urlBase.equals(mLastUrlBase) || !status.equals(mLastStatus);
+        mLastUrlBase = urlBase;
+        mLastStatus = status;
+        mLastStatusTime = SystemClock.elapsedRealtime();
+        mStatusStore.save(urlBase, status);
+        mRefreshScheduler.onStatus(status);
+        if (isChange && urlBase.equals(mStreamUrlBase)) {
+            for (PiController.OnPiStatusResponseListener listener
+                    : new ArrayList<PiController.OnPiStatusResponseListener>(mSubscribers)) {
+                listener.onStatus(status);
+            }
+        }
+    }
+
+    /**
+     * Adds the temperatures to the history. Only for statuses straight from the Pi; others
+     * may carry temperatures from an older one.
+     */
+    private void recordTemperatures(PiStatus status) {
+        if (Double.isNaN(status.getInsideTemp()) || Double.isNaN(status.getOutsideTemp())) {
+            // Not reported; a made-up sample would show up in the chart as a real one.
+            return;
+        }
+        mTemperatureHistory.record(System.currentTimeMillis(), status.getInsideTemp(),
+                status.getOutsideTemp());
+    }
+
+    private List<PiController.OnPiStatusResponseListener> finishFetch() {
+        mInFlightUrlBase = null;
+        List<PiController.OnPiStatusResponseListener> waiting =
+                new ArrayList<PiController.OnPiStatusResponseListener>(mWaiting);
+        mWaiting.clear();
+        return waiting;
+    }
+}
@@ -0,0 +1,97 @@
+package com.dektar.pi.piswitch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes repeated status.php fetches cheap.
+ *
+ * Requests ask for gzip and carry the validators of the last response, so a Pi whose status
+ * hasn't changed answers 304 with no body, and the status parsed from that last response is
+ * returned without parsing anything. The last status is kept in memory only; the first fetch
+ * in a process is always a full one. Thread safe.
+ */
+public class StatusResponseCache {
+    /**
+     * Query asking the Pi for only the fields {@link StatusParser} reads. A Pi that doesn't
+     * know it sends the whole document, which parses just the same.
+     */
+    public static final String FIELDS_QUERY =
+            "fields=lamps.name,lamps.id,lamps.state,heating.current_temp,heating.ext_temp";
+
+    static final int SC_NOT_MODIFIED = 304;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private String mUrl;
+    private String mETag;
+    private String mLastModified;
+    private PiStatus mStatus;
+
+    /**
+     * Returns the headers to send with a request for url.
+     */
+    public synchronized Map<String, String> getRequestHeaders(String url) {
+        Map<String, String> headers = new HashMap<String, String>();
+        // Set explicitly, so HttpURLConnection hands over the body as sent and we decode it.
+        headers.put("Accept-Encoding", "gzip");
+        if (mStatus != null && url.equals(mUrl)) {
+            if (mETag != null) {
+                headers.put("If-None-Match", mETag);
+            }
+            if (mLastModified != null) {
+                headers.put("If-Modified-Since", mLastModified);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the status in a response to a request for url: the last one again for a 304,
+     * otherwise parsed from body, which is decompressed first if the headers say so.
+     */
+    public PiStatus onResponse(String url, int statusCode, Map<String, String> headers,
+                               byte[] body) throws IOException {
+        if (statusCode == SC_NOT_MODIFIED) {
+            synchronized (this) {
+                if (mStatus != null && url.equals(mUrl)) {
+                    return mStatus;
+                }
+            }
+            throw new IOException("Not modified, but nothing to reuse for " + url);
+        }
+        InputStream in = new ByteArrayInputStream(body);
+        if ("gzip".equalsIgnoreCase(getHeader(headers, "Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        PiStatus status = StatusParser.parse(new InputStreamReader(in, UTF_8));
+        synchronized (this) {
+            mUrl = url;
+            mETag = getHeader(headers, "ETag");
+            mLastModified = getHeader(headers, "Last-Modified");
+            mStatus = status;
+        }
+        return status;
+    }
+
+    /**
+     * Looks a header up by name, ignoring case as HTTP does.
+     */
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+}
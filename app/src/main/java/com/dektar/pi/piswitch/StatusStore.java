@@ -0,0 +1,208 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Last known status of the Pi, kept on disk so it survives process death and reboots.
+ *
+ * Reads come from an in-memory copy and never block on a lock or on disk once it has been
+ * loaded. Writes replace the file atomically on a background thread; when several pile up
+ * only the newest is written.
+ */
+public class StatusStore {
+    /**
+     * A status together with where and when it came from.
+     */
+    public static final class Snapshot {
+        private final String mUrlBase;
+        private final PiStatus mStatus;
+        private final long mTimeMillis;
+
+        public Snapshot(String urlBase, PiStatus status, long timeMillis) {
+            mUrlBase = urlBase;
+            mStatus = status;
+            mTimeMillis = timeMillis;
+        }
+
+        public String getUrlBase() {
+            return mUrlBase;
+        }
+
+        public PiStatus getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * Returns when the Pi reported this status, in wall clock milliseconds.
+         */
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public long getAgeMillis() {
+            return Math.max(0, System.currentTimeMillis() - mTimeMillis);
+        }
+    }
+
+    private static final String FILE_NAME = "status.bin";
+    private static final int VERSION = 1;
+
+    private static StatusStore sInstance;
+
+    private final File mFile;
+    private final Executor mWriter;
+    private final AtomicReference<Snapshot> mCurrent = new AtomicReference<Snapshot>();
+    private final AtomicReference<Snapshot> mPendingWrite = new AtomicReference<Snapshot>();
+    private volatile boolean mIsLoaded;
+
+    public static synchronized StatusStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StatusStore(new File(context.getFilesDir(), FILE_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    StatusStore(File file, Executor writer) {
+        mFile = file;
+        mWriter = writer;
+    }
+
+    /**
+     * Returns the last saved snapshot, or null if there is none. Only the first call may
+     * touch the disk.
+     */
+    public Snapshot get() {
+        if (!mIsLoaded) {
+            load();
+        }
+        return mCurrent.get();
+    }
+
+    /**
+     * Records status as the latest reported by the Pi at urlBase, effective immediately for
+     * {@link #get()} and written to disk in the background.
+     */
+    public void save(String urlBase, PiStatus status) {
+        Snapshot snapshot = new Snapshot(urlBase, status, System.currentTimeMillis());
+        mCurrent.set(snapshot);
+        mIsLoaded = true;
+        if (mPendingWrite.getAndSet(snapshot) == null) {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Snapshot latest = mPendingWrite.getAndSet(null);
+                    if (latest != null) {
+                        write(latest);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void load() {
+        if (mIsLoaded) {
+            return;
+        }
+        Snapshot snapshot = read();
+        // A save() racing with us has newer data; don't clobber it.
+        mCurrent.compareAndSet(null, snapshot);
+        mIsLoaded = true;
+    }
+
+    private Snapshot read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            String urlBase = in.readUTF();
+            long timeMillis = in.readLong();
+            boolean isOn = in.readBoolean();
+            double insideTemp = in.readDouble();
+            double outsideTemp = in.readDouble();
+            int lampCount = in.readInt();
+            List<Lamp> lamps = new ArrayList<Lamp>(lampCount);
+            for (int i = 0; i < lampCount; i++) {
+                String name = in.readUTF();
+                String id = in.readBoolean() ? in.readUTF() : null;
+                lamps.add(new Lamp(name, id, in.readBoolean()));
+            }
+            PiStatus status = lamps.isEmpty() ? new PiStatus(isOn, insideTemp, outsideTemp)
+                    : new PiStatus(lamps, insideTemp, outsideTemp);
+            return new Snapshot(urlBase, status, timeMillis);
+        } catch (IOException e) {
+            // Unreadable or from an older version; start over.
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void write(Snapshot snapshot) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            PiStatus status = snapshot.getStatus();
+            out.writeInt(VERSION);
+            out.writeUTF(snapshot.getUrlBase());
+            out.writeLong(snapshot.getTimeMillis());
+            out.writeBoolean(status.isOn());
+            out.writeDouble(status.getInsideTemp());
+            out.writeDouble(status.getOutsideTemp());
+            List<Lamp> lamps = status.getLamps();
+            out.writeInt(lamps.size());
+            for (Lamp lamp : lamps) {
+                out.writeUTF(lamp.getName());
+                out.writeBoolean(lamp.getId() != null);
+                if (lamp.getId() != null) {
+                    out.writeUTF(lamp.getId());
+                }
+                out.writeBoolean(lamp.isOn());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            fileOut = null;
+            // Readers see either the old file or the new one, never a partial write.
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Couldn't replace " + mFile);
+            }
+        } catch (IOException e) {
+            closeQuietly(fileOut);
+            tmp.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.dektar.pi.piswitch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Keeps a Server-Sent Events connection open to the Pi's status stream and reports every
+ * status it pushes. Each event's data is a status.php document.
+ *
+ * Runs on its own thread and reconnects with exponential backoff whenever the connection
+ * drops, until {@link #stop()} is called. Listeners are called on that thread.
+ */
+public class StatusStream {
+    public interface Listener {
+        void onStatus(PiStatus status);
+        void onConnectionChanged(boolean isConnected);
+    }
+
+    static final String HTTP_STATUS_STREAM = "status_stream.php";
+
+    private static final long INITIAL_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 5 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    // The Pi sends a comment line at least every 30 seconds; silence for longer is a dead
+    // connection.
+    private static final int READ_TIMEOUT_MS = 75 * 1000;
+
+    private final String mUrl;
+    private final Listener mListener;
+    private final ExponentialBackoff mBackoff;
+
+    private volatile boolean mIsRunning;
+    private volatile HttpURLConnection mConnection;
+    private Thread mThread;
+
+    public StatusStream(String urlBase, Listener listener) {
+        this(urlBase, listener, new ExponentialBackoff(INITIAL_RETRY_MS, MAX_RETRY_MS));
+    }
+
+    StatusStream(String urlBase, Listener listener, ExponentialBackoff backoff) {
+        mUrl = urlBase + "/" + HTTP_STATUS_STREAM;
+        mListener = listener;
+        mBackoff = backoff;
+    }
+
+    public synchronized void start() {
+        if (mIsRunning) {
+            return;
+        }
+        mIsRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "StatusStream");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        mIsRunning = false;
+        final HttpURLConnection connection = mConnection;
+        if (connection != null) {
+            // Some implementations wait for the pending read to finish; don't make the caller.
+            Thread closer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    connection.disconnect();
+                }
+            }, "StatusStream-close");
+            closer.setDaemon(true);
+            closer.start();
+        }
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    private void runLoop() {
+        while (mIsRunning) {
+            boolean wasConnected = false;
+            try {
+                wasConnected = readStream();
+            } catch (IOException e) {
+                // Fall through and reconnect.
+            }
+            if (wasConnected) {
+                mListener.onConnectionChanged(false);
+            }
+            if (!mIsRunning) {
+                return;
+            }
+            try {
+                Thread.sleep(mBackoff.nextDelayMs());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads events until the connection ends. Returns whether it got as far as connecting.
+     */
+    private boolean readStream() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        mConnection = connection;
+        boolean isConnected = false;
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Accept", "text/event-stream");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Status stream answered " + connection.getResponseCode());
+            }
+            isConnected = true;
+            mBackoff.reset();
+            mListener.onConnectionChanged(true);
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            StringBuilder data = new StringBuilder();
+            String line;
+            while (mIsRunning && (line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    dispatch(data);
+                    data.setLength(0);
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) {
+                        data.append('\n');
+                    }
+                    data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+                }
+                // Comments (heartbeats) and other fields are of no interest.
+            }
+            return true;
+        } catch (IOException e) {
+            if (isConnected) {
+                return true;
+            }
+            throw e;
+        } finally {
+            mConnection = null;
+            connection.disconnect();
+        }
+    }
+
+    private void dispatch(StringBuilder data) {
+        if (data.length() == 0 || !mIsRunning) {
+            return;
+        }
+        try {
+            mListener.onStatus(StatusParser.parse(new StringReader(data.toString())));
+        } catch (IOException e) {
+            // A malformed event; wait for the next one.
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.dektar.pi.piswitch;
+
+import android.app.Service;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.preference.PreferenceManager;
+
+/**
+ * Keeps a status subscription open while there are widgets on the home screen, so they change
+ * as soon as the lamps do instead of on the next scheduled refresh. Only runs if the user opted
+ * in, since the open connection costs battery.
+ */
+public class StatusStreamService extends Service {
+    private PiController mPiController;
+
+    /**
+     * Starts or stops the service to match the preference and whether any widgets exist.
+     */
+    public static void update(Context context) {
+        Intent intent = new Intent(context, StatusStreamService.class);
+        if (isWanted(context)) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+        // Polling isn't needed while the stream runs, and is again once it stops.
+        WidgetRefreshScheduler.getInstance(context).schedule();
+    }
+
+    /**
+     * Returns whether the service should run: the user opted in and there are widgets.
+     */
+    static boolean isWanted(Context context) {
+        boolean isLive = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                context.getString(R.string.pref_live_widget_id), false);
+        if (!isLive) {
+            return false;
+        }
+        int[] widgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(
+                new ComponentName(context, PiSwitchWidgetProvider.class));
+        return widgetIds != null && widgetIds.length > 0;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mPiController = new PiController(this, new PiController.OnPiStatusResponseListener() {
+            @Override
+            public void onStatus(PiStatus status) {
+                PiSwitchWidgetProvider.sendStatus(StatusStreamService.this, status);
+                QuickToggleNotification.update(StatusStreamService.this, status);
+            }
+
+            @Override
+            public void onError() {
+                // The stream retries by itself.
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mPiController.refreshOptions(this);
+        mPiController.subscribe();
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mPiController.onDestroy();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
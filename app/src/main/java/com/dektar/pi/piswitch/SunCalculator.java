@@ -0,0 +1,90 @@
+package com.dektar.pi.piswitch;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Sunrise and sunset times for a place, from the sunrise equation in the Almanac for
+ * Computers. Good to a minute or two, which is plenty for switching lamps.
+ */
+public class SunCalculator {
+    // The sun's centre 50' below the horizon: its radius plus refraction.
+    private static final double ZENITH = 90.833;
+
+    private final double mLatitude;
+    private final double mLongitude;
+
+    public SunCalculator(double latitude, double longitude) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * Returns when the sun rises on the local day that day falls on, in wall clock
+     * milliseconds, or -1 if it doesn't rise that day.
+     */
+    public long sunrise(Calendar day) {
+        return compute(day, true);
+    }
+
+    /**
+     * Returns when the sun sets on the local day that day falls on, in wall clock
+     * milliseconds, or -1 if it doesn't set that day.
+     */
+    public long sunset(Calendar day) {
+        return compute(day, false);
+    }
+
+    private long compute(Calendar day, boolean isRising) {
+        double lngHour = mLongitude / 15;
+        double t = day.get(Calendar.DAY_OF_YEAR) + ((isRising ? 6 : 18) - lngHour) / 24;
+        double meanAnomaly = 0.9856 * t - 3.289;
+        double trueLongitude = normalize(meanAnomaly + 1.916 * sinDeg(meanAnomaly)
+                + 0.020 * sinDeg(2 * meanAnomaly) + 282.634, 360);
+        double rightAscension = normalize(
+                Math.toDegrees(Math.atan(0.91764 * Math.tan(Math.toRadians(trueLongitude)))),
+                360);
+        // In the same quadrant as the true longitude, in hours.
+        rightAscension += Math.floor(trueLongitude / 90) * 90
+                - Math.floor(rightAscension / 90) * 90;
+        rightAscension /= 15;
+
+        double sinDeclination = 0.39782 * sinDeg(trueLongitude);
+        double cosDeclination = Math.cos(Math.asin(sinDeclination));
+        double cosHourAngle = (Math.cos(Math.toRadians(ZENITH))
+                - sinDeclination * sinDeg(mLatitude)) / (cosDeclination * cosDeg(mLatitude));
+        if (cosHourAngle > 1 || cosHourAngle < -1) {
+            // Polar night or midnight sun.
+            return -1;
+        }
+        double hourAngle = Math.toDegrees(Math.acos(cosHourAngle));
+        if (isRising) {
+            hourAngle = 360 - hourAngle;
+        }
+        double localMeanTime = hourAngle / 15 + rightAscension - 0.06571 * t - 6.622;
+        double universalTime = localMeanTime - lngHour;
+
+        Calendar midnight = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        midnight.clear();
+        midnight.set(day.get(Calendar.YEAR), day.get(Calendar.MONTH),
+                day.get(Calendar.DAY_OF_MONTH));
+        TimeZone zone = day.getTimeZone();
+        double offsetHours = zone.getOffset(day.getTimeInMillis()) / 3600000.0;
+        // Keep it on the local day asked for even where that straddles two UTC days.
+        double localHours = normalize(universalTime + offsetHours, 24);
+        return midnight.getTimeInMillis() + Math.round((localHours - offsetHours) * 3600000);
+    }
+
+    private static double normalize(double value, double range) {
+        double result = value % range;
+        return result < 0 ? result + range : result;
+    }
+
+    private static double sinDeg(double degrees) {
+        return Math.sin(Math.toRadians(degrees));
+    }
+
+    private static double cosDeg(double degrees) {
+        return Math.cos(Math.toRadians(degrees));
+    }
+}
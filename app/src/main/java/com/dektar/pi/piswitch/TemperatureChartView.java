@@ -0,0 +1,181 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Line chart of the inside and outside temperature from {@link TemperatureHistory}. Tapping
+ * it cycles between the last day, week and month.
+ *
+ * Only ever reads as many points as it can draw, into arrays allocated once. Reading happens
+ * on the history's writer thread, into a second set of arrays that is swapped in when done,
+ * so the UI thread never maps the file or waits on a write.
+ */
+public class TemperatureChartView extends View {
+    private static final long[] RANGES_MS = {
+            TemperatureHistory.HOUR_MS * 24,
+            TemperatureHistory.HOUR_MS * 24 * 7,
+            TemperatureHistory.HOUR_MS * 24 * 30,
+    };
+    private static final int MAX_POINTS = 512;
+
+    private final TemperatureHistory mHistory;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Drawn from on the UI thread.
+    private long[] mTimes = new long[MAX_POINTS];
+    private double[] mInside = new double[MAX_POINTS];
+    private double[] mOutside = new double[MAX_POINTS];
+    // Filled on the writer thread while a load is in progress.
+    private long[] mLoadTimes = new long[MAX_POINTS];
+    private double[] mLoadInside = new double[MAX_POINTS];
+    private double[] mLoadOutside = new double[MAX_POINTS];
+    private final Paint mInsidePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mOutsidePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path mPath = new Path();
+    private final String mTempFormat;
+    private final String[] mRangeLabels;
+
+    private int mRangeIndex;
+    private boolean mIsLoading;
+    private boolean mIsReloadWanted;
+    private int mCount;
+    private long mFrom;
+    private long mTo;
+
+    public TemperatureChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mHistory = TemperatureHistory.getInstance(context);
+        Resources res = context.getResources();
+        float lineWidth = res.getDimension(R.dimen.chart_line_width);
+        mInsidePaint.setStyle(Paint.Style.STROKE);
+        mInsidePaint.setStrokeWidth(lineWidth);
+        mInsidePaint.setColor(res.getColor(R.color.chart_inside_color));
+        mOutsidePaint.setStyle(Paint.Style.STROKE);
+        mOutsidePaint.setStrokeWidth(lineWidth);
+        mOutsidePaint.setColor(res.getColor(R.color.chart_outside_color));
+        mLabelPaint.setColor(res.getColor(R.color.chart_label_color));
+        mLabelPaint.setTextSize(res.getDimension(R.dimen.chart_label_text_size));
+        mTempFormat = res.getString(R.string.temp_string);
+        mRangeLabels = res.getStringArray(R.array.chart_ranges);
+        setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mRangeIndex = (mRangeIndex + 1) % RANGES_MS.length;
+                reload();
+            }
+        });
+        reload();
+    }
+
+    /**
+     * Reads the history again in the background, e.g. because a new sample was just recorded;
+     * the read comes after any sample recorded before this call.
+     */
+    public void reload() {
+        if (mIsLoading) {
+            mIsReloadWanted = true;
+            return;
+        }
+        mIsLoading = true;
+        final long to = System.currentTimeMillis();
+        final long from = to - RANGES_MS[mRangeIndex];
+        // About one point every other pixel is as much detail as a line can show.
+        final int points = getWidth() > 0 ? Math.min(MAX_POINTS, getWidth() / 2) : MAX_POINTS;
+        final long[] times = mLoadTimes;
+        final double[] inside = mLoadInside;
+        final double[] outside = mLoadOutside;
+        mHistory.runAfterRecorded(new Runnable() {
+            @Override
+            public void run() {
+                final int count = mHistory.query(from, to, points, times, inside, outside);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(from, to, count);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoaded(long from, long to, int count) {
+        long[] times = mTimes;
+        mTimes = mLoadTimes;
+        mLoadTimes = times;
+        double[] inside = mInside;
+        mInside = mLoadInside;
+        mLoadInside = inside;
+        double[] outside = mOutside;
+        mOutside = mLoadOutside;
+        mLoadOutside = outside;
+        mFrom = from;
+        mTo = to;
+        mCount = count;
+        mIsLoading = false;
+        invalidate();
+        if (mIsReloadWanted) {
+            mIsReloadWanted = false;
+            reload();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        reload();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float textSize = mLabelPaint.getTextSize();
+        canvas.drawText(mRangeLabels[mRangeIndex], 0, textSize, mLabelPaint);
+        if (mCount == 0) {
+            return;
+        }
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            min = Math.min(min, Math.min(mInside[i], mOutside[i]));
+            max = Math.max(max, Math.max(mInside[i], mOutside[i]));
+        }
+        if (max - min < 1) {
+            // Keep a flat line from filling the whole height.
+            min -= 0.5;
+            max += 0.5;
+        }
+        float top = textSize * 1.5f;
+        float height = getHeight() - top;
+        drawSeries(canvas, mInside, min, max, top, height, mInsidePaint);
+        drawSeries(canvas, mOutside, min, max, top, height, mOutsidePaint);
+        canvas.drawText(String.format(mTempFormat, max), getWidth() / 2, textSize,
+                mLabelPaint);
+        canvas.drawText(String.format(mTempFormat, min), getWidth() / 2, getHeight(),
+                mLabelPaint);
+    }
+
+    private void drawSeries(Canvas canvas, double[] values, double min, double max, float top,
+                            float height, Paint paint) {
+        float width = getWidth();
+        float range = mTo - mFrom;
+        mPath.reset();
+        for (int i = 0; i < mCount; i++) {
+            float x = width * (mTimes[i] - mFrom) / range;
+            float y = top + height * (float) ((max - values[i]) / (max - min));
+            if (i == 0) {
+                mPath.moveTo(x, y);
+            } else {
+                mPath.lineTo(x, y);
+            }
+        }
+        canvas.drawPath(mPath, paint);
+    }
+}
@@ -0,0 +1,349 @@
+package com.dektar.pi.piswitch;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Inside and outside temperatures over time, kept in a memory-mapped file so history survives
+ * restarts without ever being read in whole.
+ *
+ * Samples go into three fixed-size rings: raw (at most one a minute, about a day), five
+ * minute averages (a week) and hourly averages (a year). Each finished bucket is rolled up
+ * into the next coarser ring, so the file never grows and a query over any range touches at
+ * most a few thousand slots.
+ */
+public class TemperatureHistory {
+    static final long MIN_SAMPLE_INTERVAL_MS = 60 * 1000;
+    static final long FIVE_MINUTES_MS = 5 * 60 * 1000;
+    static final long HOUR_MS = 60 * 60 * 1000;
+
+    static final int RAW_CAPACITY = 24 * 60;
+    static final int FIVE_MINUTE_CAPACITY = 7 * 24 * 12;
+    static final int HOURLY_CAPACITY = 365 * 24;
+
+    private static final String FILE_NAME = "temperature_history.bin";
+    private static final int MAGIC = 0x54484953;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    // Per ring: next slot to write and number of slots in use.
+    private static final int RING_HEADER_SIZE = 8;
+    // Time, inside and outside temperature.
+    private static final int SLOT_SIZE = 24;
+
+    private static TemperatureHistory sInstance;
+
+    private final File mFile;
+    private final Executor mWriter;
+
+    private MappedByteBuffer mBuffer;
+    private Ring mRaw;
+    private Ring mFiveMinute;
+    private Ring mHourly;
+    private final Bucket mFiveMinuteBucket = new Bucket();
+    private final Bucket mHourBucket = new Bucket();
+
+    public static synchronized TemperatureHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TemperatureHistory(new File(context.getFilesDir(), FILE_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    TemperatureHistory(File file, Executor writer) {
+        mFile = file;
+        mWriter = writer;
+    }
+
+    /**
+     * Adds a sample in the background. Samples less than a minute after the last one, or
+     * older than it, are dropped.
+     */
+    public void record(final long timeMillis, final double insideTemp,
+                       final double outsideTemp) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(timeMillis, insideTemp, outsideTemp);
+            }
+        });
+    }
+
+    /**
+     * Runs task on the thread that writes samples, after every sample recorded so far. Lets
+     * callers query without mapping the file or waiting on a write themselves.
+     */
+    public void runAfterRecorded(Runnable task) {
+        mWriter.execute(task);
+    }
+
+    /**
+     * Fills times, inside and outside with at most maxPoints points covering
+     * [fromMillis, toMillis], oldest first, and returns how many it wrote. Uses the finest
+     * ring that still holds everything since fromMillis and averages neighbouring points if there
+     * are more than fit. Allocates nothing.
+     */
+    public synchronized int query(long fromMillis, long toMillis, int maxPoints, long[] times,
+                                  double[] inside, double[] outside) {
+        if (!open() || maxPoints <= 0) {
+            return 0;
+        }
+        Ring ring = mHourly;
+        if (mRaw.covers(fromMillis)) {
+            ring = mRaw;
+        } else if (mFiveMinute.covers(fromMillis)) {
+            ring = mFiveMinute;
+        }
+        int first = ring.firstAtOrAfter(fromMillis);
+        int last = ring.firstAtOrAfter(toMillis + 1);
+        int available = last - first;
+        if (available <= 0) {
+            return 0;
+        }
+        int points = Math.min(available, maxPoints);
+        for (int p = 0; p < points; p++) {
+            // Spread the available slots evenly over the points.
+            int from = first + (int) ((long) p * available / points);
+            int to = first + (int) ((long) (p + 1) * available / points);
+            long timeSum = 0;
+            double insideSum = 0;
+            double outsideSum = 0;
+            for (int i = from; i < to; i++) {
+                timeSum += ring.getTime(i) - fromMillis;
+                insideSum += ring.getInside(i);
+                outsideSum += ring.getOutside(i);
+            }
+            int count = to - from;
+            times[p] = fromMillis + timeSum / count;
+            inside[p] = insideSum / count;
+            outside[p] = outsideSum / count;
+        }
+        return points;
+    }
+
+    synchronized void append(long timeMillis, double insideTemp, double outsideTemp) {
+        if (!open()) {
+            return;
+        }
+        int newest = mRaw.size() - 1;
+        if (newest >= 0 && timeMillis - mRaw.getTime(newest) < MIN_SAMPLE_INTERVAL_MS) {
+            return;
+        }
+        mRaw.add(timeMillis, insideTemp, outsideTemp);
+        long bucketStart = timeMillis - timeMillis % FIVE_MINUTES_MS;
+        if (mFiveMinuteBucket.mCount > 0 && mFiveMinuteBucket.mStart != bucketStart) {
+            rollUpFiveMinutes();
+        }
+        mFiveMinuteBucket.add(bucketStart, timeMillis, insideTemp, outsideTemp);
+    }
+
+    private void rollUpFiveMinutes() {
+        Bucket bucket = mFiveMinuteBucket;
+        long time = bucket.averageTime();
+        mFiveMinute.add(time, bucket.averageInside(), bucket.averageOutside());
+        long hourStart = time - time % HOUR_MS;
+        if (mHourBucket.mCount > 0 && mHourBucket.mStart != hourStart) {
+            mHourly.add(mHourBucket.averageTime(), mHourBucket.averageInside(),
+                    mHourBucket.averageOutside());
+            mHourBucket.clear();
+        }
+        mHourBucket.add(hourStart, time, bucket.averageInside(), bucket.averageOutside());
+        bucket.clear();
+    }
+
+    /**
+     * Maps the file on first use. Returns false if it can't be.
+     */
+    private boolean open() {
+        if (mBuffer != null) {
+            return true;
+        }
+        int size = FILE_HEADER_SIZE + 3 * RING_HEADER_SIZE
+                + SLOT_SIZE * (RAW_CAPACITY + FIVE_MINUTE_CAPACITY + HOURLY_CAPACITY);
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            boolean isNew = file.length() != size;
+            FileChannel channel = file.getChannel();
+            // The mapping stays valid after the file is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int offset = FILE_HEADER_SIZE;
+            mRaw = new Ring(buffer, offset, RAW_CAPACITY);
+            offset += RING_HEADER_SIZE + SLOT_SIZE * RAW_CAPACITY;
+            mFiveMinute = new Ring(buffer, offset, FIVE_MINUTE_CAPACITY);
+            offset += RING_HEADER_SIZE + SLOT_SIZE * FIVE_MINUTE_CAPACITY;
+            mHourly = new Ring(buffer, offset, HOURLY_CAPACITY);
+            if (isNew || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                // New, or from an incompatible version; start over.
+                mRaw.clear();
+                mFiveMinute.clear();
+                mHourly.clear();
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            }
+            mBuffer = buffer;
+            restoreBuckets();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // The mapping is what matters.
+                }
+            }
+        }
+    }
+
+    /**
+     * Refills the unfinished buckets from the rings they roll up from, so a restart in the
+     * middle of a bucket loses nothing.
+     */
+    private void restoreBuckets() {
+        mFiveMinuteBucket.clear();
+        mHourBucket.clear();
+        int newest = mRaw.size() - 1;
+        if (newest < 0) {
+            return;
+        }
+        long time = mRaw.getTime(newest);
+        long bucketStart = time - time % FIVE_MINUTES_MS;
+        for (int i = mRaw.firstAtOrAfter(bucketStart); i <= newest; i++) {
+            mFiveMinuteBucket.add(bucketStart, mRaw.getTime(i), mRaw.getInside(i),
+                    mRaw.getOutside(i));
+        }
+        long hourStart = bucketStart - bucketStart % HOUR_MS;
+        for (int i = mFiveMinute.firstAtOrAfter(hourStart); i < mFiveMinute.size(); i++) {
+            mHourBucket.add(hourStart, mFiveMinute.getTime(i), mFiveMinute.getInside(i),
+                    mFiveMinute.getOutside(i));
+        }
+    }
+
+    /**
+     * Fixed number of slots in the mapped file, overwriting the oldest once full. Slots are
+     * addressed oldest first.
+     */
+    private static final class Ring {
+        private final MappedByteBuffer mBuffer;
+        private final int mHeader;
+        private final int mSlots;
+        private final int mCapacity;
+
+        Ring(MappedByteBuffer buffer, int offset, int capacity) {
+            mBuffer = buffer;
+            mHeader = offset;
+            mSlots = offset + RING_HEADER_SIZE;
+            mCapacity = capacity;
+        }
+
+        int size() {
+            return mBuffer.getInt(mHeader + 4);
+        }
+
+        void clear() {
+            mBuffer.putInt(mHeader, 0);
+            mBuffer.putInt(mHeader + 4, 0);
+        }
+
+        void add(long time, double inside, double outside) {
+            int next = mBuffer.getInt(mHeader);
+            int slot = mSlots + next * SLOT_SIZE;
+            mBuffer.putLong(slot, time);
+            mBuffer.putDouble(slot + 8, inside);
+            mBuffer.putDouble(slot + 16, outside);
+            // Header last, so a crash mid-write never exposes a half-written slot.
+            mBuffer.putInt(mHeader, (next + 1) % mCapacity);
+            mBuffer.putInt(mHeader + 4, Math.min(size() + 1, mCapacity));
+        }
+
+        long getTime(int index) {
+            return mBuffer.getLong(offsetOf(index));
+        }
+
+        double getInside(int index) {
+            return mBuffer.getDouble(offsetOf(index) + 8);
+        }
+
+        double getOutside(int index) {
+            return mBuffer.getDouble(offsetOf(index) + 16);
+        }
+
+        /**
+         * Returns whether this ring holds everything recorded since timeMillis: either it
+         * reaches back that far or it has never dropped anything.
+         */
+        boolean covers(long timeMillis) {
+            return size() < mCapacity || getTime(0) <= timeMillis;
+        }
+
+        /**
+         * Returns the index of the first slot at or after timeMillis, or size() if none.
+         */
+        int firstAtOrAfter(long timeMillis) {
+            int low = 0;
+            int high = size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getTime(mid) < timeMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int offsetOf(int index) {
+            int size = size();
+            int oldest = size < mCapacity ? 0 : mBuffer.getInt(mHeader);
+            return mSlots + ((oldest + index) % mCapacity) * SLOT_SIZE;
+        }
+    }
+
+    /**
+     * Running averages for a bucket that isn't finished yet.
+     */
+    private static final class Bucket {
+        long mStart;
+        int mCount;
+        long mTimeSum;
+        double mInsideSum;
+        double mOutsideSum;
+
+        void add(long start, long time, double inside, double outside) {
+            mStart = start;
+            mCount++;
+            mTimeSum += time - start;
+            mInsideSum += inside;
+            mOutsideSum += outside;
+        }
+
+        long averageTime() {
+            return mStart + mTimeSum / mCount;
+        }
+
+        double averageInside() {
+            return mInsideSum / mCount;
+        }
+
+        double averageOutside() {
+            return mOutsideSum / mCount;
+        }
+
+        void clear() {
+            mCount = 0;
+            mTimeSum = 0;
+            mInsideSum = 0;
+            mOutsideSum = 0;
+        }
+    }
+}
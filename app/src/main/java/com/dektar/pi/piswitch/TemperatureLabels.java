@@ -0,0 +1,67 @@
+package com.dektar.pi.piswitch;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Temperature strings for display, formatted once per value and locale.
+ *
+ * Temperatures are keyed by tenths of a degree, the precision they are shown with, so the few
+ * values a house and its garden go through are formatted once and then reused.
+ */
+public class TemperatureLabels {
+    /** Tenths for a temperature that can't be shown, e.g. a missing sensor. */
+    public static final int NO_TEMP = Integer.MIN_VALUE;
+
+    // Cached range, in tenths; anything outside is formatted every time.
+    private static final int MIN_CACHED = -500;
+    private static final int MAX_CACHED = 600;
+
+    private final String mFormat;
+    private final String[] mLabels = new String[MAX_CACHED - MIN_CACHED + 1];
+    private Locale mLocale;
+
+    /**
+     * format takes the temperature in degrees as a double, like R.string.temp_string.
+     */
+    public TemperatureLabels(String format) {
+        mFormat = format;
+    }
+
+    /**
+     * Returns temp in tenths of a degree, or {@link #NO_TEMP} if it isn't a number.
+     */
+    public static int toTenths(double temp) {
+        if (Double.isNaN(temp) || Double.isInfinite(temp)) {
+            return NO_TEMP;
+        }
+        return (int) Math.round(temp * 10);
+    }
+
+    /**
+     * Returns the label for tenths, empty for {@link #NO_TEMP}.
+     */
+    public synchronized String get(int tenths) {
+        if (tenths == NO_TEMP) {
+            return "";
+        }
+        if (tenths < MIN_CACHED || tenths > MAX_CACHED) {
+            return format(tenths);
+        }
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            // Decimal separators differ; everything cached is wrong now.
+            Arrays.fill(mLabels, null);
+            mLocale = locale;
+        }
+        int index = tenths - MIN_CACHED;
+        if (mLabels[index] == null) {
+            mLabels[index] = format(tenths);
+        }
+        return mLabels[index];
+    }
+
+    private String format(int tenths) {
+        return String.format(mFormat, tenths / 10.0);
+    }
+}
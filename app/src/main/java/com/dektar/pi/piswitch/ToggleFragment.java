@@ -1,61 +1,101 @@
 package com.dektar.pi.piswitch;
 
-import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.LinearLayout;
 import android.widget.ToggleButton;
 
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Toggle fragment.
+ *
+ * The first frame shows the status saved by the last process, if it is recent enough, so the
+ * screen is usable at once. Everything that talks to the Pi is only set up once that frame has
+ * been drawn; the status it confirms then replaces the saved one.
  */
 public class ToggleFragment extends android.support.v4.app.Fragment {
+    private static final String TAG = "toggle_fragment";
+    private static final String ARG_LAUNCHED_AT = "launched_at";
+
+    private final Handler mHandler = new Handler();
     private ToggleButton toggleButton;
+    private LinearLayout mLampList;
+    private TemperatureChartView mTemperatureChart;
+    private final LampRegistry mLamps = new LampRegistry();
+    private final Map<String, ToggleButton> mLampButtons = new HashMap<String, ToggleButton>();
     private PiController mPiController;
     private PiController.OnPiStatusResponseListener statusListener;
 
     private boolean mIsCurrentlyOn;
+    // The status shown before the Pi has been asked, or null.
+    private PiStatus mSavedStatus;
+    // When the activity was created, on the elapsed realtime clock, or 0 once there is
+    // nothing left to time.
+    private long mLaunchedAt;
+    private boolean mIsFirstFrameDrawn;
 
-    private boolean mTryTurningOn = false;
-    private boolean mTryTurningOff = false;
-
-    public void tryTurningOn() {
-        mTryTurningOn = true;
+    /**
+     * Returns a fragment that times its start from launchedAt, when the activity showing it
+     * was created, in {@link SystemClock#elapsedRealtime()}.
+     */
+    public static ToggleFragment newInstance(long launchedAt) {
+        ToggleFragment fragment = new ToggleFragment();
+        Bundle args = new Bundle();
+        args.putLong(ARG_LAUNCHED_AT, launchedAt);
+        fragment.setArguments(args);
+        return fragment;
     }
 
-    public void tryTurningOff() {
-        mTryTurningOff = true;
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Bundle args = getArguments();
+        if (savedInstanceState == null && args != null) {
+            mLaunchedAt = args.getLong(ARG_LAUNCHED_AT);
+        }
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
+        beginTrace("ToggleFragment.onCreateView");
         // Inflate the layout for this fragment
-        View rootView = inflater.inflate(R.layout.toggle_fragment, container, false);
+        final View rootView = inflater.inflate(R.layout.toggle_fragment, container, false);
 
         toggleButton = (ToggleButton) rootView.findViewById(R.id.toggle_button);
+        mLampList = (LinearLayout) rootView.findViewById(R.id.lamp_list);
+        mTemperatureChart =
+                (TemperatureChartView) rootView.findViewById(R.id.temperature_chart);
         toggleButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 resetButtonUi();
-                mPiController.toggle(!mIsCurrentlyOn);
+                getPiControllerForCommand().toggle(!mIsCurrentlyOn);
             }
         });
 
         statusListener = new PiController.OnPiStatusResponseListener() {
             @Override
-            public void onStatus(boolean isOn, double insideTemp, double outsideTemp) {
-                mIsCurrentlyOn = isOn;
-                updateButtonState();
+            public void onStatus(PiStatus status) {
+                if (status != mSavedStatus) {
+                    // Anything but the saved status comes from this process asking the Pi.
+                    traceConfirmed();
+                    QuickToggleNotification.update(getActivity(), status);
+                }
+                showStatus(status);
+                mTemperatureChart.reload();
             }
 
             @Override
@@ -63,40 +103,128 @@ public class ToggleFragment extends android.support.v4.app.Fragment {
                 resetButtonUi();
             }
         };
-        resetButtonUi();
-
-        mPiController = new PiController(getActivity(), statusListener);
 
-        if (mTryTurningOn) {
-            mPiController.toggle(true);
-            mTryTurningOn = false;
-        } else if (mTryTurningOff) {
-            mPiController.toggle(false);
-            mTryTurningOff = false;
+        StatusStore.Snapshot snapshot = StatusStore.getInstance(getActivity()).get();
+        if (snapshot != null && snapshot.getAgeMillis() <= StatusRepository.MAX_STALE_MS) {
+            // The same one StatusRepository starts from, so it needn't be built yet. The chart
+            // loads its history by itself.
+            mSavedStatus = snapshot.getStatus();
+            showStatus(mSavedStatus);
         } else {
-            mPiController.updateStatus();
+            resetButtonUi();
         }
 
+        rootView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        rootView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Runs once this frame has been drawn.
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onFirstFrameDrawn();
+                            }
+                        });
+                        return true;
+                    }
+                });
+        endTrace();
         return rootView;
     }
 
     @Override
     public void onResume() {
-        mPiController.refreshAll(getActivity());
         super.onResume();
+        // Before the first frame this waits for onFirstFrameDrawn(), which refreshes once.
+        if (mIsFirstFrameDrawn) {
+            refresh();
+        }
     }
 
     @Override
     public void onPause() {
+        if (mPiController != null) {
+            mPiController.unsubscribe();
+        }
         super.onPause();
     }
 
     @Override
     public void onDestroy() {
-        mPiController.onDestroy();
+        mHandler.removeCallbacksAndMessages(null);
+        if (mPiController != null) {
+            mPiController.onDestroy();
+        }
         super.onDestroy();
     }
 
+    private void onFirstFrameDrawn() {
+        mIsFirstFrameDrawn = true;
+        if (mLaunchedAt > 0) {
+            long durationMs = SystemClock.elapsedRealtime() - mLaunchedAt;
+            PiMetrics.getInstance().recordLaunchToFirstFrame(durationMs);
+            Log.i(TAG, "first frame " + durationMs + " ms after launch");
+        }
+        if (isResumed()) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        PiController controller = getPiController();
+        controller.refreshAll(getActivity());
+        controller.subscribe();
+    }
+
+    /**
+     * Returns the controller, setting up the network stack on first use.
+     */
+    private PiController getPiController() {
+        if (mPiController == null) {
+            beginTrace("ToggleFragment.createPiController");
+            mPiController = new PiController(getActivity(), statusListener);
+            endTrace();
+        }
+        return mPiController;
+    }
+
+    /**
+     * Returns the controller for a command from the user. Launch timing stops here: the
+     * status expected from a command is shown before the Pi confirms anything.
+     */
+    private PiController getPiControllerForCommand() {
+        mLaunchedAt = 0;
+        return getPiController();
+    }
+
+    private void traceConfirmed() {
+        if (mLaunchedAt > 0) {
+            long durationMs = SystemClock.elapsedRealtime() - mLaunchedAt;
+            PiMetrics.getInstance().recordLaunchToConfirmed(durationMs);
+            Log.i(TAG, "confirmed status " + durationMs + " ms after launch");
+            mLaunchedAt = 0;
+        }
+    }
+
+    private void showStatus(PiStatus status) {
+        mIsCurrentlyOn = status.isOn();
+        updateButtonState();
+        updateLampList(status);
+    }
+
+    private static void beginTrace(String section) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(section);
+        }
+    }
+
+    private static void endTrace() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
     private void resetButtonUi() {
         toggleButton.setEnabled(false);
         toggleButton.setBackgroundColor(getResources().getColor(R.color.button_color_loading));
@@ -113,4 +241,60 @@ public class ToggleFragment extends android.support.v4.app.Fragment {
             toggleButton.setBackgroundColor(getResources().getColor(R.color.button_color_turn_on));
         }
     }
+
+    private void updateLampList(PiStatus status) {
+        List<String> changed = mLamps.update(status.getLamps());
+        for (String name : changed) {
+            if (PiStatus.PRIMARY_LAMP.equals(name)) {
+                // Shown by the main button.
+                continue;
+            }
+            Lamp lamp = mLamps.get(name);
+            ToggleButton button = mLampButtons.get(name);
+            if (lamp == null || button == null) {
+                // A lamp was added or removed; lay the list out again.
+                rebuildLampList();
+                return;
+            }
+            bindLampButton(button, lamp);
+        }
+    }
+
+    private void rebuildLampList() {
+        mLampList.removeAllViews();
+        mLampButtons.clear();
+        for (Lamp lamp : mLamps.getLamps()) {
+            if (PiStatus.PRIMARY_LAMP.equals(lamp.getName())) {
+                continue;
+            }
+            final String name = lamp.getName();
+            ToggleButton button = new ToggleButton(getActivity());
+            button.setTextSize(TypedValue.COMPLEX_UNIT_PX,
+                    getResources().getDimension(R.dimen.lamp_button_text_size));
+            button.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    Lamp current = mLamps.get(name);
+                    if (current != null) {
+                        getPiControllerForCommand().setLamp(name, !current.isOn());
+                    }
+                }
+            });
+            mLampList.addView(button, new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT,
+                    getResources().getDimensionPixelSize(R.dimen.lamp_button_height)));
+            mLampButtons.put(name, button);
+            bindLampButton(button, lamp);
+        }
+    }
+
+    private void bindLampButton(ToggleButton button, Lamp lamp) {
+        if (lamp.isOn()) {
+            button.setText(getResources().getString(R.string.lamp_text_on, lamp.getName()));
+            button.setBackgroundColor(getResources().getColor(R.color.button_color_turn_off));
+        } else {
+            button.setText(getResources().getString(R.string.lamp_text_off, lamp.getName()));
+            button.setBackgroundColor(getResources().getColor(R.color.button_color_turn_on));
+        }
+    }
 }
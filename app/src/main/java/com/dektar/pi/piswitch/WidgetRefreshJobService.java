@@ -0,0 +1,25 @@
+package com.dektar.pi.piswitch;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+/**
+ * The job {@link WidgetRefreshScheduler} schedules from Lollipop on; hands the refresh to
+ * {@link WidgetUpdateService}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class WidgetRefreshJobService extends JobService {
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        WidgetUpdateService.refresh(this);
+        // The service takes it from here and schedules the next job.
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,16 @@
+package com.dektar.pi.piswitch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Resumes widget refreshes once the user is back or a network is: refreshing stops while the
+ * screen is off and, before Lollipop, while offline.
+ */
+public class WidgetRefreshReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        WidgetRefreshScheduler.getInstance(context).schedule();
+    }
+}
@@ -0,0 +1,190 @@
+package com.dektar.pi.piswitch;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * Keeps the widgets' status up to date with a single background job, timed by a
+ * {@link RefreshPolicy}.
+ *
+ * The job only runs with a network; from Lollipop on JobScheduler waits for one, before that
+ * a non-waking alarm is used and cancelled while offline. Nothing is scheduled while the
+ * screen is off, when there are no widgets, or while {@link StatusStreamService} pushes
+ * changes anyway. {@link WidgetRefreshReceiver} picks refreshing up again when the user
+ * unlocks the phone or a network comes up.
+ */
+public class WidgetRefreshScheduler {
+    private static final String PREFS_NAME = "widget_refresh";
+    private static final String KEY_LAST_CHANGE = "last_change";
+    private static final String KEY_LAST_REFRESH = "last_refresh";
+    private static final String KEY_LAMPS = "lamps";
+    private static final int JOB_ID = 1;
+    // Rescheduling for about the same time again is not worth the IPC.
+    private static final long RESCHEDULE_SLACK_MS = 1000;
+
+    private static WidgetRefreshScheduler sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private final RefreshPolicy mPolicy;
+    // Wall clock time the job is scheduled for, or 0 if none.
+    private long mScheduledMillis;
+
+    public static synchronized WidgetRefreshScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetRefreshScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WidgetRefreshScheduler(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPolicy = new RefreshPolicy(mPrefs.getLong(KEY_LAST_CHANGE, 0),
+                mPrefs.getLong(KEY_LAST_REFRESH, 0), mPrefs.getString(KEY_LAMPS, null));
+    }
+
+    /**
+     * Lamps were just asked to switch; refresh often for a while.
+     */
+    public synchronized void onCommand() {
+        mPolicy.onCommand(System.currentTimeMillis());
+        save();
+        schedule();
+    }
+
+    /**
+     * A status was learned, from a refresh or otherwise.
+     */
+    public synchronized void onStatus(PiStatus status) {
+        mPolicy.onStatus(System.currentTimeMillis(), status);
+        save();
+        schedule();
+    }
+
+    /**
+     * A refresh is starting; the next one is scheduled from now.
+     */
+    public synchronized void onRefreshStarted() {
+        mPolicy.onRefreshStarted(System.currentTimeMillis());
+        save();
+        schedule();
+    }
+
+    /**
+     * Returns whether a refresh now would be seen by anyone.
+     */
+    public boolean isRefreshWanted() {
+        return hasWidgets() && isScreenOn() && !StatusStreamService.isWanted(mContext);
+    }
+
+    /**
+     * Schedules the next refresh as the policy says, or stops refreshing while it isn't
+     * wanted.
+     */
+    public synchronized void schedule() {
+        if (!isRefreshWanted() || (!isLollipop() && !hasNetwork())) {
+            cancel();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long at = mPolicy.getNextRefreshMillis(now);
+        if (mScheduledMillis != 0 && Math.abs(at - mScheduledMillis) < RESCHEDULE_SLACK_MS) {
+            return;
+        }
+        mScheduledMillis = at;
+        if (isLollipop()) {
+            scheduleJob(at - now);
+        } else {
+            getAlarmManager().set(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + at - now, getAlarmIntent());
+        }
+    }
+
+    public synchronized void cancel() {
+        mScheduledMillis = 0;
+        if (isLollipop()) {
+            cancelJob();
+        } else {
+            getAlarmManager().cancel(getAlarmIntent());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void scheduleJob(long delayMs) {
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(mContext, WidgetRefreshJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delayMs)
+                .build();
+        // Replaces the job scheduled before, if any.
+        getJobScheduler().schedule(job);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void cancelJob() {
+        getJobScheduler().cancel(JOB_ID);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private JobScheduler getJobScheduler() {
+        return (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private AlarmManager getAlarmManager() {
+        return (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    private PendingIntent getAlarmIntent() {
+        return PendingIntent.getService(mContext, 0,
+                WidgetUpdateService.createRefreshIntent(mContext),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private boolean hasWidgets() {
+        int[] widgetIds = AppWidgetManager.getInstance(mContext).getAppWidgetIds(
+                new ComponentName(mContext, PiSwitchWidgetProvider.class));
+        return widgetIds != null && widgetIds.length > 0;
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isScreenOn() {
+        PowerManager powerManager =
+                (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return powerManager.isInteractive();
+        }
+        return powerManager.isScreenOn();
+    }
+
+    private boolean hasNetwork() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+        return network != null && network.isConnected();
+    }
+
+    private static boolean isLollipop() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putLong(KEY_LAST_CHANGE, mPolicy.getLastChangeMillis())
+                .putLong(KEY_LAST_REFRESH, mPolicy.getLastRefreshMillis())
+                .putString(KEY_LAMPS, mPolicy.getLamps())
+                .apply();
+    }
+}
@@ -0,0 +1,181 @@
+package com.dektar.pi.piswitch;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import java.util.Arrays;
+
+/**
+ * Pushes {@link WidgetState}s to the widgets, doing as little as possible per render.
+ *
+ * Colors and format strings are resolved once, temperature strings are formatted once per
+ * value, and the click PendingIntents are built once per set of widget ids. Only views that
+ * differ from the last state pushed are sent, with a partial update; a full update is only
+ * sent the first time in a process, when the set of widgets changes or when asked for, e.g.
+ * because the system wants the widgets redrawn.
+ *
+ * Must only be used from the main thread.
+ */
+public class WidgetRenderer {
+    private static WidgetRenderer sInstance;
+
+    private final Context mContext;
+    private final int mOnColor;
+    private final int mOffColor;
+    private final int mLoadingColor;
+    private final int mErrorColor;
+    private final int mTextColor;
+    private final int mStaleTextColor;
+    private final String mLampsOnFormat;
+    private final TemperatureLabels mTemperatureLabels;
+
+    private int[] mWidgetIds;
+    private PendingIntent mRefreshIntent;
+    // Toggle clicks for when the lamp is off and on, carrying that state.
+    private PendingIntent mTurnOnIntent;
+    private PendingIntent mTurnOffIntent;
+    private WidgetState mShown;
+
+    public static synchronized WidgetRenderer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetRenderer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WidgetRenderer(Context context) {
+        mContext = context;
+        Resources res = context.getResources();
+        mOnColor = res.getColor(R.color.widget_indicator_on);
+        mOffColor = res.getColor(R.color.widget_indicator_off);
+        mLoadingColor = res.getColor(R.color.widget_indicator_loading);
+        mErrorColor = res.getColor(R.color.widget_indicator_error);
+        mTextColor = res.getColor(android.R.color.white);
+        mStaleTextColor = res.getColor(R.color.widget_stale_text_color);
+        mLampsOnFormat = res.getString(R.string.lamps_on_string);
+        mTemperatureLabels = new TemperatureLabels(res.getString(R.string.temp_string));
+    }
+
+    /**
+     * Returns the state for a status, with stale temperatures greyed out.
+     */
+    public WidgetState forStatus(boolean isOn, double insideTemp, double outsideTemp,
+                                 int lampsOn, int lampCount, boolean isStale) {
+        return new WidgetState(isOn, isOn ? mOnColor : mOffColor,
+                TemperatureLabels.toTenths(insideTemp), TemperatureLabels.toTenths(outsideTemp),
+                isStale ? mStaleTextColor : mTextColor, lampsOn, lampCount);
+    }
+
+    /**
+     * Returns the state for when nothing is known about the Pi.
+     */
+    public WidgetState forNoData() {
+        return new WidgetState(false, mOffColor, TemperatureLabels.NO_TEMP,
+                TemperatureLabels.NO_TEMP, mStaleTextColor, 0, 0);
+    }
+
+    /**
+     * Returns base while waiting for the Pi; the toggle ignores clicks if isToggling.
+     */
+    public WidgetState pending(WidgetState base, boolean isToggling) {
+        return base.withIndicatorColor(mLoadingColor).withToggleClickable(!isToggling);
+    }
+
+    /**
+     * Returns base after the Pi couldn't be reached.
+     */
+    public WidgetState error(WidgetState base) {
+        return base.withIndicatorColor(mErrorColor);
+    }
+
+    /**
+     * Returns the state last pushed, or null if none has been in this process.
+     */
+    public WidgetState getShown() {
+        return mShown;
+    }
+
+    /**
+     * Shows state on the widgets with the given ids, sending everything if isFull and only
+     * what changed otherwise.
+     */
+    public void render(AppWidgetManager manager, int[] widgetIds, WidgetState state,
+                       boolean isFull) {
+        boolean isNewSet = !Arrays.equals(widgetIds, mWidgetIds);
+        if (isNewSet) {
+            createIntents(widgetIds);
+        }
+        int changed = isFull || isNewSet ? WidgetState.ALL : state.diff(mShown);
+        mShown = state;
+        if (changed == 0) {
+            return;
+        }
+        RemoteViews views = new RemoteViews(mContext.getPackageName(), R.layout.app_widget);
+        apply(views, state, changed);
+        if (changed == WidgetState.ALL) {
+            manager.updateAppWidget(widgetIds, views);
+        } else {
+            // Merged by the system into what the widgets already show.
+            manager.partiallyUpdateAppWidget(widgetIds, views);
+        }
+    }
+
+    private void apply(RemoteViews views, WidgetState state, int changed) {
+        if ((changed & WidgetState.INDICATOR) != 0) {
+            views.setInt(R.id.widget_indicator, "setBackgroundColor", state.getIndicatorColor());
+        }
+        if ((changed & WidgetState.TOGGLE) != 0) {
+            views.setInt(R.id.widget_toggle_button, "setAlpha", state.isOn() ? 255 : 100);
+        }
+        if ((changed & WidgetState.TOGGLE_CLICK) != 0) {
+            PendingIntent click = null;
+            if (state.isToggleClickable()) {
+                click = state.isOn() ? mTurnOffIntent : mTurnOnIntent;
+            }
+            views.setOnClickPendingIntent(R.id.widget_toggle_button, click);
+        }
+        if ((changed & WidgetState.REFRESH_CLICK) != 0) {
+            views.setOnClickPendingIntent(R.id.widget_refresh_button, mRefreshIntent);
+        }
+        if ((changed & WidgetState.INSIDE_TEMP) != 0) {
+            views.setTextViewText(R.id.widget_internal_temp,
+                    mTemperatureLabels.get(state.getInsideTenths()));
+        }
+        if ((changed & WidgetState.OUTSIDE_TEMP) != 0) {
+            views.setTextViewText(R.id.widget_external_temp,
+                    mTemperatureLabels.get(state.getOutsideTenths()));
+        }
+        if ((changed & WidgetState.TEMP_COLOR) != 0) {
+            views.setTextColor(R.id.widget_internal_temp, state.getTempColor());
+            views.setTextColor(R.id.widget_external_temp, state.getTempColor());
+        }
+        if ((changed & WidgetState.LAMPS_ON) != 0) {
+            if (state.getLampCount() > 1) {
+                views.setViewVisibility(R.id.widget_lamps_on, View.VISIBLE);
+                views.setTextViewText(R.id.widget_lamps_on, String.format(mLampsOnFormat,
+                        state.getLampsOn(), state.getLampCount()));
+            } else {
+                views.setViewVisibility(R.id.widget_lamps_on, View.GONE);
+            }
+        }
+    }
+
+    private void createIntents(int[] widgetIds) {
+        mWidgetIds = widgetIds.clone();
+        mRefreshIntent = PendingIntent.getBroadcast(mContext, 0,
+                PiSwitchWidgetProvider.createRefreshIntent(mContext, widgetIds),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        // Distinct request codes, or the second would overwrite the first's extras.
+        mTurnOnIntent = PendingIntent.getBroadcast(mContext, 0,
+                PiSwitchWidgetProvider.createToggleIntent(mContext, widgetIds, false),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        mTurnOffIntent = PendingIntent.getBroadcast(mContext, 1,
+                PiSwitchWidgetProvider.createToggleIntent(mContext, widgetIds, true),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -0,0 +1,132 @@
+package com.dektar.pi.piswitch;
+
+/**
+ * Immutable description of what the widget shows, so that a render can push only the views
+ * that differ from the last one.
+ *
+ * Colors are resolved ARGB values and temperatures are in tenths of a degree, as displayed;
+ * see {@link TemperatureLabels}.
+ */
+public final class WidgetState {
+    static final int INDICATOR = 1;
+    static final int TOGGLE = 1 << 1;
+    static final int TOGGLE_CLICK = 1 << 2;
+    static final int INSIDE_TEMP = 1 << 3;
+    static final int OUTSIDE_TEMP = 1 << 4;
+    static final int TEMP_COLOR = 1 << 5;
+    static final int LAMPS_ON = 1 << 6;
+    static final int REFRESH_CLICK = 1 << 7;
+    /** Every view, for a full update. */
+    static final int ALL = (1 << 8) - 1;
+
+    private final boolean mIsOn;
+    private final int mIndicatorColor;
+    private final boolean mIsToggleClickable;
+    private final int mInsideTenths;
+    private final int mOutsideTenths;
+    private final int mTempColor;
+    private final int mLampsOn;
+    private final int mLampCount;
+
+    public WidgetState(boolean isOn, int indicatorColor, int insideTenths, int outsideTenths,
+                       int tempColor, int lampsOn, int lampCount) {
+        this(isOn, indicatorColor, true, insideTenths, outsideTenths, tempColor, lampsOn,
+                lampCount);
+    }
+
+    private WidgetState(boolean isOn, int indicatorColor, boolean isToggleClickable,
+                        int insideTenths, int outsideTenths, int tempColor, int lampsOn,
+                        int lampCount) {
+        mIsOn = isOn;
+        mIndicatorColor = indicatorColor;
+        mIsToggleClickable = isToggleClickable;
+        mInsideTenths = insideTenths;
+        mOutsideTenths = outsideTenths;
+        mTempColor = tempColor;
+        mLampsOn = lampsOn;
+        mLampCount = lampCount;
+    }
+
+    /**
+     * Returns this state with the indicator in another color, e.g. while loading.
+     */
+    public WidgetState withIndicatorColor(int color) {
+        return new WidgetState(mIsOn, color, mIsToggleClickable, mInsideTenths, mOutsideTenths,
+                mTempColor, mLampsOn, mLampCount);
+    }
+
+    /**
+     * Returns this state with the toggle button taking clicks or not, e.g. while toggling.
+     */
+    public WidgetState withToggleClickable(boolean isClickable) {
+        return new WidgetState(mIsOn, mIndicatorColor, isClickable, mInsideTenths,
+                mOutsideTenths, mTempColor, mLampsOn, mLampCount);
+    }
+
+    /**
+     * Returns the views, as a mask of the constants above, that must be set to go from
+     * previous to this state; {@link #ALL} if previous is null.
+     */
+    public int diff(WidgetState previous) {
+        if (previous == null) {
+            return ALL;
+        }
+        int changed = 0;
+        if (mIndicatorColor != previous.mIndicatorColor) {
+            changed |= INDICATOR;
+        }
+        if (mIsOn != previous.mIsOn) {
+            changed |= TOGGLE;
+        }
+        // Clicks on the toggle carry the state it turns the lamp away from.
+        if (mIsToggleClickable != previous.mIsToggleClickable
+                || (mIsToggleClickable && mIsOn != previous.mIsOn)) {
+            changed |= TOGGLE_CLICK;
+        }
+        if (mInsideTenths != previous.mInsideTenths) {
+            changed |= INSIDE_TEMP;
+        }
+        if (mOutsideTenths != previous.mOutsideTenths) {
+            changed |= OUTSIDE_TEMP;
+        }
+        if (mTempColor != previous.mTempColor) {
+            changed |= TEMP_COLOR;
+        }
+        if (mLampsOn != previous.mLampsOn || mLampCount != previous.mLampCount) {
+            changed |= LAMPS_ON;
+        }
+        return changed;
+    }
+
+    public boolean isOn() {
+        return mIsOn;
+    }
+
+    public int getIndicatorColor() {
+        return mIndicatorColor;
+    }
+
+    public boolean isToggleClickable() {
+        return mIsToggleClickable;
+    }
+
+    public int getInsideTenths() {
+        return mInsideTenths;
+    }
+
+    public int getOutsideTenths() {
+        return mOutsideTenths;
+    }
+
+    public int getTempColor() {
+        return mTempColor;
+    }
+
+    public int getLampsOn() {
+        return mLampsOn;
+    }
+
+    public int getLampCount() {
+        return mLampCount;
+    }
+}
@@ -0,0 +1,163 @@
+package com.dektar.pi.piswitch;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
+
+/**
+ * Talks to the Pi on behalf of every widget and {@link QuickToggleNotification}: toggles from
+ * their buttons, and refreshes from the widgets' refresh button or from
+ * {@link WidgetRefreshScheduler}. One {@link PiController} serves them all for as long as the
+ * service runs, rather than one per broadcast. Results reach the widgets as broadcasts to
+ * {@link PiSwitchWidgetProvider}.
+ *
+ * Stops itself once nothing has happened for {@link #IDLE_STOP_MS}.
+ */
+public class WidgetUpdateService extends Service {
+    static final long IDLE_STOP_MS = 10 * 1000;
+
+    private static final String ACTION_REFRESH = "com.dektar.pi.piswitch.action.REFRESH_WIDGETS";
+    private static final String ACTION_REFRESH_NOW =
+            "com.dektar.pi.piswitch.action.REFRESH_WIDGETS_NOW";
+    private static final String ACTION_TOGGLE = "com.dektar.pi.piswitch.action.TOGGLE_FROM_WIDGET";
+    private static final String ACTION_QUICK_TOGGLE = "com.dektar.pi.piswitch.action.QUICK_TOGGLE";
+    private static final String EXTRA_TURN_ON = "turn_on";
+
+    private final Handler mHandler = new Handler();
+    private final Runnable mStopWhenIdle = new Runnable() {
+        @Override
+        public void run() {
+            stopSelf(mLastStartId);
+        }
+    };
+    private PiController mPiController;
+    private int mLastStartId;
+    // When the last quick toggle arrived, until the Pi confirms it; 0 if none is waiting.
+    private long mQuickToggleAt;
+
+    /**
+     * Refreshes every widget, unless nobody would see it.
+     */
+    public static void refresh(Context context) {
+        context.startService(createRefreshIntent(context));
+    }
+
+    /**
+     * Refreshes every widget because the user asked to, even while scheduled refreshes
+     * wouldn't, e.g. because the live status stream is on.
+     */
+    public static void refreshNow(Context context) {
+        Intent intent = new Intent(context, WidgetUpdateService.class);
+        intent.setAction(ACTION_REFRESH_NOW);
+        context.startService(intent);
+    }
+
+    /**
+     * Turns the primary lamp on or off and shows the result on every widget.
+     */
+    public static void toggle(Context context, boolean turnOn) {
+        Intent intent = new Intent(context, WidgetUpdateService.class);
+        intent.setAction(ACTION_TOGGLE);
+        intent.putExtra(EXTRA_TURN_ON, turnOn);
+        context.startService(intent);
+    }
+
+    /**
+     * Flips the primary lamp from whatever state is known or expected for it, without any
+     * screen being opened.
+     */
+    public static void quickToggle(Context context) {
+        context.startService(createQuickToggleIntent(context));
+    }
+
+    static Intent createQuickToggleIntent(Context context) {
+        Intent intent = new Intent(context, WidgetUpdateService.class);
+        intent.setAction(ACTION_QUICK_TOGGLE);
+        return intent;
+    }
+
+    static Intent createRefreshIntent(Context context) {
+        Intent intent = new Intent(context, WidgetUpdateService.class);
+        intent.setAction(ACTION_REFRESH);
+        return intent;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mPiController = new PiController(this, new PiController.OnPiStatusResponseListener() {
+            @Override
+            public void onStatus(PiStatus status) {
+                // StatusRepository has already told the scheduler.
+                PiSwitchWidgetProvider.sendStatus(WidgetUpdateService.this, status);
+                QuickToggleNotification.update(WidgetUpdateService.this, status);
+                // The first status may only be the expected one; time to the Pi's.
+                if (mQuickToggleAt != 0
+                        && CommandQueue.getInstance(WidgetUpdateService.this).isIdle()) {
+                    PiMetrics.getInstance().recordQuickToggleToConfirmed(
+                            SystemClock.elapsedRealtime() - mQuickToggleAt);
+                    mQuickToggleAt = 0;
+                }
+                stopWhenIdle();
+            }
+
+            @Override
+            public void onError() {
+                PiSwitchWidgetProvider.sendError(WidgetUpdateService.this);
+                mQuickToggleAt = 0;
+                stopWhenIdle();
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+        stopWhenIdle();
+        if (intent == null) {
+            return START_NOT_STICKY;
+        }
+        mPiController.refreshOptions(this);
+        WidgetRefreshScheduler scheduler = WidgetRefreshScheduler.getInstance(this);
+        if (ACTION_TOGGLE.equals(intent.getAction())) {
+            // CommandQueue tells the scheduler to refresh often for a while.
+            mPiController.toggle(intent.getBooleanExtra(EXTRA_TURN_ON, false));
+        } else if (ACTION_QUICK_TOGGLE.equals(intent.getAction())) {
+            mQuickToggleAt = SystemClock.elapsedRealtime();
+            mPiController.quickToggle();
+        } else if (ACTION_REFRESH_NOW.equals(intent.getAction())) {
+            // The widget shows it is loading until this answers.
+            scheduler.onRefreshStarted();
+            mPiController.updateStatus();
+        } else if (ACTION_REFRESH.equals(intent.getAction())) {
+            if (scheduler.isRefreshWanted()) {
+                scheduler.onRefreshStarted();
+                mPiController.updateStatus();
+            } else {
+                // The screen went off since this was scheduled; wait for the user.
+                scheduler.schedule();
+            }
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mHandler.removeCallbacks(mStopWhenIdle);
+        mPiController.onDestroy();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void stopWhenIdle() {
+        mHandler.removeCallbacks(mStopWhenIdle);
+        mHandler.postDelayed(mStopWhenIdle, IDLE_STOP_MS);
+    }
+}
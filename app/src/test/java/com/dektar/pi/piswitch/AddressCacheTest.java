@@ -0,0 +1,159 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class AddressCacheTest {
+    private static final String WIFI = "1:\"home\"";
+    private static final String HOST = "pi.example.com";
+
+    // Addresses the fake DNS hands out in turn; null for a failed lookup.
+    private final List<InetAddress> mAnswers = new ArrayList<InetAddress>();
+    private final List<Runnable> mLookups = new ArrayList<Runnable>();
+    private int mLookupCount;
+    private AddressCache mCache;
+    private InetAddress mFirst;
+    private InetAddress mSecond;
+
+    @Before
+    public void setUp() throws Exception {
+        mFirst = InetAddress.getByAddress(HOST, new byte[] {10, 1, 10, 12});
+        mSecond = InetAddress.getByAddress(HOST, new byte[] {10, 1, 10, 40});
+        mCache = new AddressCache(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mLookups.add(command);
+            }
+        }, new AddressCache.Resolver() {
+            @Override
+            public InetAddress resolve(String host) throws UnknownHostException {
+                InetAddress answer = mAnswers.get(mLookupCount++);
+                if (answer == null) {
+                    throw new UnknownHostException(host);
+                }
+                return answer;
+            }
+        });
+    }
+
+    @Test
+    public void get_neverWaitsForALookup() {
+        mAnswers.add(mFirst);
+
+        assertNull(mCache.get(WIFI, HOST, 0));
+        assertEquals(1, mLookups.size());
+        // Asked again before the lookup finished: no second lookup.
+        assertNull(mCache.get(WIFI, HOST, 10));
+        assertEquals(1, mLookups.size());
+
+        runLookups();
+        assertEquals(mFirst, mCache.get(WIFI, HOST, 20));
+        assertTrue(mLookups.isEmpty());
+    }
+
+    @Test
+    public void get_keepsAddressesPerNetwork() {
+        mAnswers.add(mFirst);
+        mCache.get(WIFI, HOST, 0);
+        runLookups();
+
+        assertNull(mCache.get("0:\"mobile\"", HOST, 10));
+        assertEquals(mFirst, mCache.get(WIFI, HOST, 10));
+    }
+
+    @Test
+    public void get_servesTheOldAddressWhileLookingUpAgain() {
+        mAnswers.add(mFirst);
+        mAnswers.add(mSecond);
+        mCache.get(WIFI, HOST, 0);
+        runLookups();
+
+        long expired = AddressCache.TTL_MS + 1;
+        assertEquals(mFirst, mCache.get(WIFI, HOST, expired));
+        assertEquals(1, mLookups.size());
+
+        runLookups();
+        assertEquals(mSecond, mCache.get(WIFI, HOST, expired + 1));
+    }
+
+    @Test
+    public void get_keepsTheOldAddressWhenALookupFails() {
+        mAnswers.add(mFirst);
+        mAnswers.add(null);
+        mCache.get(WIFI, HOST, 0);
+        runLookups();
+
+        mCache.get(WIFI, HOST, AddressCache.TTL_MS + 1);
+        runLookups();
+
+        assertEquals(mFirst, mCache.get(WIFI, HOST, AddressCache.TTL_MS + 2));
+    }
+
+    @Test
+    public void get_dropsAddressesTooOldToTrust() {
+        mAnswers.add(mFirst);
+        mCache.get(WIFI, HOST, 0);
+        runLookups();
+
+        assertNull(mCache.get(WIFI, HOST, AddressCache.MAX_STALE_MS + 1));
+    }
+
+    @Test
+    public void invalidate_forgetsEveryAddress() {
+        mAnswers.add(mFirst);
+        mCache.get(WIFI, HOST, 0);
+        runLookups();
+
+        mCache.invalidate();
+
+        assertNull(mCache.get(WIFI, HOST, 10));
+    }
+
+    @Test
+    public void rewrite_replacesTheHostOnly() {
+        mAnswers.add(mFirst);
+        String url = "http://" + HOST + ":8080/status.php?fields=on";
+        assertEquals(url, mCache.rewrite(url, WIFI, 0));
+        runLookups();
+
+        assertEquals("http://10.1.10.12:8080/status.php?fields=on",
+                mCache.rewrite(url, WIFI, 10));
+        assertEquals("http://10.1.10.12/cgi-bin/on.py",
+                mCache.rewrite("http://" + HOST + "/cgi-bin/on.py", WIFI, 10));
+    }
+
+    @Test
+    public void rewrite_leavesAddressesAndHttpsAlone() {
+        assertEquals("http://10.1.10.12/status.php",
+                mCache.rewrite("http://10.1.10.12/status.php", WIFI, 0));
+        assertEquals("http://[fe80::1]/status.php",
+                mCache.rewrite("http://[fe80::1]/status.php", WIFI, 0));
+        assertEquals("https://" + HOST + "/status.php",
+                mCache.rewrite("https://" + HOST + "/status.php", WIFI, 0));
+        assertTrue(mLookups.isEmpty());
+    }
+
+    @Test
+    public void getHostHeader_keepsTheNameAndAnyOtherPort() {
+        assertEquals(HOST, AddressCache.getHostHeader("http://" + HOST + "/status.php"));
+        assertEquals(HOST, AddressCache.getHostHeader("http://" + HOST + ":80/status.php"));
+        assertEquals(HOST + ":8080", AddressCache.getHostHeader("http://" + HOST + ":8080/"));
+        assertNull(AddressCache.getHostHeader("not a url"));
+    }
+
+    private void runLookups() {
+        List<Runnable> lookups = new ArrayList<Runnable>(mLookups);
+        mLookups.clear();
+        for (Runnable lookup : lookups) {
+            lookup.run();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private static final int TIMEOUT_MS = 500;
+
+    private StubPiServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    @Test
+    public void allowRequest_staysClosedBelowThreshold() {
+        CircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.onFailure(0);
+        }
+        assertTrue(breaker.allowRequest(0));
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void allowRequest_opensAfterThresholdThenLetsOneProbeThrough() {
+        CircuitBreaker breaker = newBreaker();
+        failUntilOpen(breaker, 0);
+        assertFalse(breaker.allowRequest(0));
+        long retryIn = breaker.getRetryInMs(0);
+        assertTrue(retryIn > 0 && retryIn <= 1000);
+
+        assertTrue(breaker.allowRequest(retryIn));
+        assertTrue(breaker.isProbing());
+        assertFalse(breaker.allowRequest(retryIn));
+
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest(retryIn));
+    }
+
+    @Test
+    public void onFailure_whileProbingBacksOffFurther() {
+        CircuitBreaker breaker = newBreaker();
+        failUntilOpen(breaker, 0);
+        long now = 0;
+        long[] caps = {1000, 2000, 4000, 8000, 8000};
+        for (long cap : caps) {
+            long retryIn = breaker.getRetryInMs(now);
+            assertTrue(retryIn + " outside [" + cap / 2 + ", " + cap + "]",
+                    retryIn >= cap / 2 && retryIn <= cap);
+            now += retryIn;
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now);
+        }
+    }
+
+    @Test
+    public void onProbeCancelled_letsTheNextRequestProbe() {
+        CircuitBreaker breaker = newBreaker();
+        failUntilOpen(breaker, 0);
+        long now = breaker.getRetryInMs(0);
+        assertTrue(breaker.allowRequest(now));
+        breaker.onProbeCancelled(now);
+        assertTrue(breaker.allowRequest(now));
+    }
+
+    @Test
+    public void forUrl_sharesOneBreakerPerPi() {
+        assertSame(CircuitBreaker.forUrl("http://10.0.0.2:8080/status.php"),
+                CircuitBreaker.forUrl("http://10.0.0.2:8080/cgi-bin/on.py"));
+        assertNotSame(CircuitBreaker.forUrl("http://10.0.0.2:8080/status.php"),
+                CircuitBreaker.forUrl("http://10.0.0.3:8080/status.php"));
+    }
+
+    @Test
+    public void piGoingAwayAndComingBack_failsFastThenRecovers() throws Exception {
+        mServer = new StubPiServer();
+        int port = mServer.getPort();
+        String urlBase = mServer.getUrlBase();
+        CircuitBreaker breaker = newBreaker();
+        long now = 0;
+        assertEquals(Boolean.TRUE, guardedProbe(breaker, urlBase, now));
+
+        mServer.stop();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertEquals(Boolean.FALSE, guardedProbe(breaker, urlBase, now));
+        }
+        // Open: refused without touching the network, even once the Pi is back.
+        mServer = new StubPiServer(port);
+        assertNull(guardedProbe(breaker, urlBase, now));
+        assertEquals(0, mServer.getRequestCount());
+
+        now += breaker.getRetryInMs(now);
+        assertEquals(Boolean.TRUE, guardedProbe(breaker, urlBase, now));
+        assertEquals(1, mServer.getRequestCount());
+        assertFalse(breaker.isOpen());
+    }
+
+    private static CircuitBreaker newBreaker() {
+        return new CircuitBreaker(new ExponentialBackoff(1000, 8000, new Random(3)));
+    }
+
+    private static void failUntilOpen(CircuitBreaker breaker, long now) {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now);
+        }
+        assertTrue(breaker.isOpen());
+    }
+
+    /**
+     * Probes urlBase through the breaker the way PiNetwork sends requests. Returns whether
+     * the Pi answered, or null if the breaker refused.
+     */
+    private static Boolean guardedProbe(CircuitBreaker breaker, String urlBase, long now) {
+        if (!breaker.allowRequest(now)) {
+            return null;
+        }
+        boolean answered = EndpointRacer.probe(urlBase, TIMEOUT_MS);
+        if (answered) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure(now);
+        }
+        return answered;
+    }
+}
@@ -0,0 +1,129 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class CommandJournalTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static final long NOW = 1000000000000L;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("commands", ".journal");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void getPending_coalescesToTheNewestStatePerLamp() {
+        CommandJournal journal = new CommandJournal(mFile, DIRECT);
+        journal.record(states("porch", true), NOW);
+        journal.record(states(PiStatus.PRIMARY_LAMP, true), NOW);
+        journal.record(states("porch", false), NOW + 1);
+        journal.record(states("porch", true), NOW + 2);
+        journal.record(states(PiStatus.PRIMARY_LAMP, false), NOW + 3);
+
+        Map<String, Boolean> expected = new LinkedHashMap<String, Boolean>();
+        expected.put("porch", true);
+        expected.put(PiStatus.PRIMARY_LAMP, false);
+        assertEquals(expected, journal.getPending(NOW + 3));
+    }
+
+    @Test
+    public void record_survivesANewInstance() {
+        new CommandJournal(mFile, DIRECT).record(states("porch", true), NOW);
+
+        CommandJournal reopened = new CommandJournal(mFile, DIRECT);
+        assertEquals(states("porch", true), reopened.getPending(NOW));
+        reopened.record(states("porch", false), NOW);
+        assertEquals(states("porch", false), new CommandJournal(mFile, DIRECT).getPending(NOW));
+    }
+
+    @Test
+    public void markApplied_keepsCommandsRecordedAfterTheSentOnes() {
+        CommandJournal journal = new CommandJournal(mFile, DIRECT);
+        long sent = journal.record(states("porch", true), NOW);
+        journal.record(states(PiStatus.PRIMARY_LAMP, true), NOW);
+        journal.markApplied(sent);
+
+        assertEquals(states(PiStatus.PRIMARY_LAMP, true), journal.getPending(NOW));
+        assertEquals(states(PiStatus.PRIMARY_LAMP, true),
+                new CommandJournal(mFile, DIRECT).getPending(NOW));
+    }
+
+    @Test
+    public void markApplied_ofEverythingEmptiesTheFile() {
+        CommandJournal journal = new CommandJournal(mFile, DIRECT);
+        journal.record(states("porch", true), NOW);
+        journal.markApplied(journal.getLastSeq());
+
+        assertFalse(mFile.exists());
+        assertTrue(new CommandJournal(mFile, DIRECT).getPending(NOW).isEmpty());
+    }
+
+    @Test
+    public void markApplied_compactsALongJournal() {
+        CommandJournal journal = new CommandJournal(mFile, DIRECT);
+        for (int i = 0; i < 2000; i++) {
+            journal.record(states("porch", i % 2 == 0), NOW);
+        }
+        long sent = journal.getLastSeq();
+        journal.record(states(PiStatus.PRIMARY_LAMP, true), NOW);
+        journal.markApplied(sent);
+
+        assertTrue(mFile.length() < 100);
+        assertEquals(states(PiStatus.PRIMARY_LAMP, true),
+                new CommandJournal(mFile, DIRECT).getPending(NOW));
+    }
+
+    @Test
+    public void getPending_dropsCommandsTooOldToReplay() {
+        CommandJournal journal = new CommandJournal(mFile, DIRECT);
+        journal.record(states("porch", true), NOW);
+        assertTrue(journal.getPending(NOW + CommandJournal.MAX_AGE_MS + 1).isEmpty());
+    }
+
+    @Test
+    public void load_dropsARecordTornByACrash() throws Exception {
+        new CommandJournal(mFile, DIRECT).record(states("porch", true), NOW);
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        // The start of a second command record.
+        out.write(new byte[] {1, 0, 0, 0});
+        out.close();
+
+        CommandJournal reopened = new CommandJournal(mFile, DIRECT);
+        assertEquals(states("porch", true), reopened.getPending(NOW));
+        reopened.record(states(PiStatus.PRIMARY_LAMP, true), NOW);
+
+        Map<String, Boolean> expected = new HashMap<String, Boolean>();
+        expected.put("porch", true);
+        expected.put(PiStatus.PRIMARY_LAMP, true);
+        assertEquals(expected, new CommandJournal(mFile, DIRECT).getPending(NOW));
+    }
+
+    private static Map<String, Boolean> states(String lamp, boolean isOn) {
+        return Collections.singletonMap(lamp, isOn);
+    }
+}
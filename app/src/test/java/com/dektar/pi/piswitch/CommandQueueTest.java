@@ -0,0 +1,41 @@
+package com.dektar.pi.piswitch;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+    @Test
+    public void isRejected_onlyForClientErrors() {
+        assertTrue(CommandQueue.isRejected(answered(404)));
+        assertTrue(CommandQueue.isRejected(answered(400)));
+
+        assertFalse(CommandQueue.isRejected(answered(500)));
+        assertFalse(CommandQueue.isRejected(answered(503)));
+        assertFalse(CommandQueue.isRejected(new TimeoutError()));
+        assertFalse(CommandQueue.isRejected(new PiUnreachableError("open")));
+    }
+
+    @Test
+    public void getFastChannel_onlyForTheInternalUrl() {
+        String internal = "http://10.1.10.12";
+
+        assertSame(FastChannel.forUrlBase(internal, 5007),
+                CommandQueue.getFastChannel(internal, internal, 5007));
+        assertNull(CommandQueue.getFastChannel("http://pi.dektar.com", internal, 5007));
+        assertNull(CommandQueue.getFastChannel(internal, internal, 0));
+        assertNull(CommandQueue.getFastChannel(internal, null, 5007));
+    }
+
+    private static VolleyError answered(int statusCode) {
+        return new ServerError(new NetworkResponse(statusCode, new byte[0],
+                Collections.<String, String>emptyMap(), false));
+    }
+}
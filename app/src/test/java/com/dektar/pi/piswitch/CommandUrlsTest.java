@@ -0,0 +1,31 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CommandUrlsTest {
+    @Test
+    public void build_usesTheOldScriptsForThePrimaryLampAlone() {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        states.put(PiStatus.PRIMARY_LAMP, true);
+        assertEquals("http://pi/cgi-bin/on.py", CommandUrls.build("http://pi", states));
+
+        states.put(PiStatus.PRIMARY_LAMP, false);
+        assertEquals("http://pi/cgi-bin/off.py", CommandUrls.build("http://pi", states));
+    }
+
+    @Test
+    public void build_batchesEverythingElseIntoSet() {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        states.put(PiStatus.PRIMARY_LAMP, true);
+        states.put("kitchen", false);
+        states.put("desk & shelf", true);
+
+        assertEquals("http://pi/cgi-bin/set.py?on=living%20room%2Cdesk%20%26%20shelf"
+                + "&off=kitchen", CommandUrls.build("http://pi", states));
+    }
+}
@@ -0,0 +1,63 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class EndpointRacerTest {
+    // Nothing listens on the discard port locally, so connections are refused at once.
+    private static final String UNREACHABLE = "http://127.0.0.1:9";
+
+    private StubPiServer mFast;
+    private StubPiServer mSlow;
+    private ExecutorService mExecutor;
+    private EndpointRacer mRacer;
+
+    @Before
+    public void setUp() throws Exception {
+        mFast = new StubPiServer();
+        mSlow = new StubPiServer();
+        mSlow.setLatencyMs(400);
+        mExecutor = Executors.newCachedThreadPool();
+        mRacer = new EndpointRacer(mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mFast.stop();
+        mSlow.stop();
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void race_picksFasterEndpointWhicheverOrder() throws Exception {
+        String fast = mFast.getUrlBase();
+        String slow = mSlow.getUrlBase();
+        assertEquals(fast, mRacer.race(new String[] {slow, fast}, 2000));
+        assertEquals(fast, mRacer.race(new String[] {fast, slow}, 2000));
+    }
+
+    @Test
+    public void race_fallsBackWhenOneIsUnreachable() throws Exception {
+        String slow = mSlow.getUrlBase();
+        assertEquals(slow, mRacer.race(new String[] {UNREACHABLE, slow}, 2000));
+    }
+
+    @Test
+    public void race_givesUpAtDeadline() throws Exception {
+        mSlow.setLatencyMs(3000);
+        long start = System.currentTimeMillis();
+        assertNull(mRacer.race(new String[] {UNREACHABLE, mSlow.getUrlBase()}, 300));
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void race_returnsNullWhenNothingAnswers() throws Exception {
+        assertNull(mRacer.race(new String[] {UNREACHABLE, UNREACHABLE}, 2000));
+    }
+}
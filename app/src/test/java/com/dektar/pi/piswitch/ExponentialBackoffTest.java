@@ -0,0 +1,30 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ExponentialBackoffTest {
+    @Test
+    public void nextDelayMs_doublesUpToTheCapWithJitter() {
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 800, new Random(7));
+        long[] caps = {100, 200, 400, 800, 800, 800};
+        for (long cap : caps) {
+            long delay = backoff.nextDelayMs();
+            assertTrue(delay + " outside [" + cap / 2 + ", " + cap + "]",
+                    delay >= cap / 2 && delay <= cap);
+        }
+    }
+
+    @Test
+    public void reset_startsOver() {
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 800, new Random(7));
+        for (int i = 0; i < 5; i++) {
+            backoff.nextDelayMs();
+        }
+        backoff.reset();
+        assertTrue(backoff.nextDelayMs() <= 100);
+    }
+}
@@ -0,0 +1,173 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FastChannelTest {
+    private static final int TOGGLES = 200;
+
+    private StubPiServer mServer;
+    private FastChannel mChannel;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubPiServer();
+        mChannel = new FastChannel("127.0.0.1", mServer.getFastPort());
+    }
+
+    @After
+    public void tearDown() {
+        mChannel.close();
+        mServer.stop();
+    }
+
+    @Test
+    public void setLamps_switchesAndReturnsTheStatus() throws Exception {
+        PiStatus status = mChannel.setLamps(states(true));
+
+        assertTrue(status.isOn());
+        assertTrue(mServer.isOn());
+        assertEquals(1, mServer.getFastAppliedCount());
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void requestStatus_switchesNothing() throws Exception {
+        mServer.setOn(true);
+
+        assertTrue(mChannel.requestStatus().isOn());
+        assertEquals(0, mServer.getFastAppliedCount());
+    }
+
+    @Test
+    public void lostRequests_areSentAgain() throws Exception {
+        mServer.dropFastRequests(2);
+
+        assertTrue(mChannel.setLamps(states(true)).isOn());
+        assertEquals(1, mServer.getFastAppliedCount());
+    }
+
+    @Test
+    public void lostAnswers_areNotCarriedOutTwice() throws Exception {
+        mServer.dropFastAnswers(2);
+
+        assertTrue(mChannel.setLamps(states(true)).isOn());
+        assertEquals(1, mServer.getFastAppliedCount());
+    }
+
+    @Test
+    public void noAnswer_failsOnceTheRetriesAreUsedUp() throws Exception {
+        mServer.dropFastRequests(FastChannel.RETRANSMIT_MS.length);
+        long start = System.nanoTime();
+        try {
+            mChannel.setLamps(states(true));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        int budgetMs = 0;
+        for (int wait : FastChannel.RETRANSMIT_MS) {
+            budgetMs += wait;
+        }
+        assertTrue(elapsedMs >= budgetMs);
+        assertTrue(elapsedMs < budgetMs + 1000);
+        assertEquals(0, mServer.getFastAppliedCount());
+
+        // The next request gets through.
+        assertTrue(mChannel.setLamps(states(true)).isOn());
+    }
+
+    @Test
+    public void refusal_isAnError() throws Exception {
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
+        states.put("attic", true);
+        try {
+            mChannel.setLamps(states);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("attic"));
+        }
+        assertFalse(mServer.isOn());
+    }
+
+    @Test
+    public void failingChannel_isSkippedWithoutWaiting() throws Exception {
+        mServer.dropFastRequests(Integer.MAX_VALUE);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mChannel.setLamps(states(true));
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            mChannel.setLamps(states(true));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertTrue((System.nanoTime() - start) / 1000000 < FastChannel.RETRANSMIT_MS[0]);
+    }
+
+    @Test
+    public void forUrlBase_sharesOneChannelPerHostAndPort() {
+        FastChannel channel = FastChannel.forUrlBase("http://10.1.10.12", 5007);
+
+        assertSame(channel, FastChannel.forUrlBase("http://10.1.10.12:8080/pi", 5007));
+        assertNotSame(channel, FastChannel.forUrlBase("http://10.1.10.12", 5008));
+        assertNull(FastChannel.forUrlBase("not a url", 5007));
+    }
+
+    @Test
+    public void toggle_isFasterThanHttp() throws Exception {
+        long[] fastNanos = new long[TOGGLES];
+        long[] httpNanos = new long[TOGGLES];
+        for (int i = 0; i < TOGGLES; i++) {
+            long start = System.nanoTime();
+            mChannel.setLamps(states(i % 2 == 0));
+            fastNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            toggleOverHttp(i % 2 != 0);
+            httpNanos[i] = System.nanoTime() - start;
+        }
+        assertEquals(TOGGLES, mServer.getFastAppliedCount());
+        assertEquals(TOGGLES, mServer.getRequestCount());
+
+        Arrays.sort(fastNanos);
+        Arrays.sort(httpNanos);
+        assertTrue(fastNanos[TOGGLES / 2] < httpNanos[TOGGLES / 2]);
+    }
+
+    private void toggleOverHttp(boolean turnOn) throws IOException {
+        URL url = new URL(mServer.getUrlBase() + (turnOn ? "/cgi-bin/on.py" : "/cgi-bin/off.py"));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        InputStream in = connection.getInputStream();
+        while (in.read() != -1) {
+            // Drain so the connection is kept alive.
+        }
+        in.close();
+    }
+
+    private static Map<String, Boolean> states(boolean isOn) {
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
+        states.put(PiStatus.PRIMARY_LAMP, isOn);
+        return states;
+    }
+}
@@ -0,0 +1,104 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FastProtocolTest {
+    @Test
+    public void encodeSet_decodesToTheSameStates() throws Exception {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        states.put(PiStatus.PRIMARY_LAMP, true);
+        states.put("kitchen", false);
+        byte[] datagram = FastProtocol.encodeSet(42, states);
+
+        FastProtocol.Message message = FastProtocol.decode(datagram, datagram.length);
+        assertEquals(FastProtocol.TYPE_SET, message.mType);
+        assertEquals(42, message.mSeq);
+        assertEquals(states, message.mStates);
+        assertFalse(message.isAnswer());
+    }
+
+    @Test
+    public void encodeAck_carriesTheWholeStatus() throws Exception {
+        List<Lamp> lamps = new ArrayList<Lamp>();
+        lamps.add(new Lamp(PiStatus.PRIMARY_LAMP, "1", true));
+        lamps.add(new Lamp("kitchen", null, false));
+        PiStatus status = new PiStatus(lamps, 21.5, -3.0);
+        byte[] datagram = FastProtocol.encodeAck(FastProtocol.TYPE_SET, -7, status);
+
+        FastProtocol.Message message = FastProtocol.decode(datagram, datagram.length);
+        assertTrue(message.isAnswer());
+        assertEquals(-7, message.mSeq);
+        assertEquals(status, message.mStatus);
+    }
+
+    @Test
+    public void encodeAck_reportsThePrimaryLampOfAStatusWithoutLamps() throws Exception {
+        byte[] datagram = FastProtocol.encodeAck(FastProtocol.TYPE_STATUS, 1,
+                new PiStatus(true, 20.0, 4.0));
+
+        PiStatus status = FastProtocol.decode(datagram, datagram.length).mStatus;
+        assertTrue(status.isOn());
+        assertTrue(status.getLamp(PiStatus.PRIMARY_LAMP).isOn());
+    }
+
+    @Test
+    public void encodeDiscoverAnswer_carriesNameAndPort() throws Exception {
+        byte[] request = FastProtocol.encodeDiscover(9);
+        assertEquals(FastProtocol.TYPE_DISCOVER,
+                FastProtocol.decode(request, request.length).mType);
+
+        byte[] datagram = FastProtocol.encodeDiscoverAnswer(9, "garden pi", 8080);
+
+        FastProtocol.Message message = FastProtocol.decode(datagram, datagram.length);
+        assertTrue(message.isAnswer());
+        assertEquals(9, message.mSeq);
+        assertEquals("garden pi", message.mName);
+        assertEquals(8080, message.mHttpPort);
+    }
+
+    @Test
+    public void encodeError_carriesTheMessage() throws Exception {
+        byte[] datagram = FastProtocol.encodeError(3, "No lamp attic");
+
+        FastProtocol.Message message = FastProtocol.decode(datagram, datagram.length);
+        assertTrue(message.isAnswer());
+        assertEquals(FastProtocol.TYPE_ERROR, message.mType);
+        assertEquals("No lamp attic", message.mError);
+    }
+
+    @Test
+    public void encodeSet_refusesWhatDoesNotFitInOneDatagram() {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        for (int i = 0; i < 200; i++) {
+            states.put("lamp number " + i, true);
+        }
+        try {
+            FastProtocol.encodeSet(1, states);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsOtherDatagrams() throws Exception {
+        byte[] datagram = "GET / HTTP/1.1".getBytes("UTF-8");
+        FastProtocol.decode(datagram, datagram.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTruncatedDatagrams() throws Exception {
+        Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+        states.put("kitchen", true);
+        byte[] datagram = FastProtocol.encodeSet(1, states);
+        FastProtocol.decode(datagram, datagram.length - 1);
+    }
+}
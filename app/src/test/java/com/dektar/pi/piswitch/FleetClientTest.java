@@ -0,0 +1,168 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FleetClientTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final List<StubPiServer> mServers = new ArrayList<StubPiServer>();
+
+    @After
+    public void tearDown() {
+        for (StubPiServer server : mServers) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Records what a fan-out reports, in order.
+     */
+    private static class Recorder implements FleetClient.Listener {
+        final List<String> mAnswered = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> mFailed = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch mDone = new CountDownLatch(1);
+
+        @Override
+        public void onNodeStatus(PiNode node, PiStatus status) {
+            mAnswered.add(node.getName());
+        }
+
+        @Override
+        public void onNodeError(PiNode node) {
+            mFailed.add(node.getName());
+        }
+
+        @Override
+        public void onDone() {
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mDone.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private List<PiNode> startFleet(long... latenciesMs) throws Exception {
+        List<PiNode> nodes = new ArrayList<PiNode>();
+        for (int i = 0; i < latenciesMs.length; i++) {
+            StubPiServer server = new StubPiServer();
+            server.setLatencyMs(latenciesMs[i]);
+            mServers.add(server);
+            nodes.add(new PiNode("pi" + i, server.getUrlBase()));
+        }
+        return nodes;
+    }
+
+    @Test
+    public void fetchStatuses_reportsEachNodeAsItAnswers() throws Exception {
+        List<PiNode> nodes = startFleet(600, 0, 300);
+        Recorder recorder = new Recorder();
+        new FleetClient(4, 3000).fetchStatuses(nodes, DIRECT, recorder);
+        recorder.await();
+        assertEquals(Arrays.asList("pi1", "pi2", "pi0"), recorder.mAnswered);
+        assertTrue(recorder.mFailed.isEmpty());
+    }
+
+    @Test
+    public void fetchStatuses_keepsAtMostMaxParallelInFlight() throws Exception {
+        List<PiNode> nodes = startFleet(200, 200, 200, 200, 200, 200, 200, 200);
+        Recorder recorder = new Recorder();
+        long start = System.nanoTime();
+        new FleetClient(4, 3000).fetchStatuses(nodes, DIRECT, recorder);
+        recorder.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(8, recorder.mAnswered.size());
+        // Two waves of four: parallel, yet not all at once.
+        assertTrue("took " + elapsedMs, elapsedMs >= 400);
+        assertTrue("took " + elapsedMs, elapsedMs < 1200);
+    }
+
+    @Test
+    public void slowNode_missesItsDeadline_withoutHoldingUpTheOthers() throws Exception {
+        List<PiNode> nodes = startFleet(5000, 0, 0);
+        Recorder recorder = new Recorder();
+        long start = System.nanoTime();
+        new FleetClient(4, 300).fetchStatuses(nodes, DIRECT, recorder);
+        recorder.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // The two fast ones may answer in either order.
+        assertEquals(new HashSet<String>(Arrays.asList("pi1", "pi2")),
+                new HashSet<String>(recorder.mAnswered));
+        assertEquals(Collections.singletonList("pi0"), recorder.mFailed);
+        assertTrue("took " + elapsedMs, elapsedMs < 2000);
+    }
+
+    @Test
+    public void stoppedNode_isReportedUnreachable() throws Exception {
+        List<PiNode> nodes = startFleet(0, 0);
+        mServers.get(0).stop();
+        Recorder recorder = new Recorder();
+        new FleetClient(4, 1000).fetchStatuses(nodes, DIRECT, recorder);
+        recorder.await();
+        assertEquals(Collections.singletonList("pi1"), recorder.mAnswered);
+        assertEquals(Collections.singletonList("pi0"), recorder.mFailed);
+    }
+
+    @Test
+    public void setLamps_switchesEveryNodeConcurrently() throws Exception {
+        List<PiNode> nodes = startFleet(300, 300, 300, 300);
+        Map<PiNode, Map<String, Boolean>> states =
+                new LinkedHashMap<PiNode, Map<String, Boolean>>();
+        for (int i = 0; i < nodes.size(); i++) {
+            mServers.get(i).setOn(true);
+            states.put(nodes.get(i), FleetClient.statesForAll(null, false));
+        }
+        Recorder recorder = new Recorder();
+        long start = System.nanoTime();
+        new FleetClient(4, 3000).setLamps(states, DIRECT, recorder);
+        recorder.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(4, recorder.mAnswered.size());
+        for (StubPiServer server : mServers) {
+            assertFalse(server.isOn());
+        }
+        // One after another would take at least 1200ms.
+        assertTrue("took " + elapsedMs, elapsedMs < 900);
+    }
+
+    @Test
+    public void cancel_stopsReporting() throws Exception {
+        List<PiNode> nodes = startFleet(200, 200);
+        Recorder recorder = new Recorder();
+        new FleetClient(4, 3000).fetchStatuses(nodes, DIRECT, recorder).cancel();
+        assertFalse(recorder.mDone.await(600, TimeUnit.MILLISECONDS));
+        assertTrue(recorder.mAnswered.isEmpty());
+    }
+
+    @Test
+    public void statesForAll_coversEveryKnownLamp() {
+        List<Lamp> lamps = new ArrayList<Lamp>();
+        lamps.add(new Lamp("living room", null, true));
+        lamps.add(new Lamp("porch", null, false));
+        Map<String, Boolean> states =
+                FleetClient.statesForAll(new PiStatus(lamps, 20, 5), false);
+        assertEquals(2, states.size());
+        assertFalse(states.get("porch"));
+        assertEquals(Collections.singletonMap(PiStatus.PRIMARY_LAMP, true),
+                FleetClient.statesForAll(null, true));
+    }
+}
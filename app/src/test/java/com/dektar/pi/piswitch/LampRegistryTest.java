@@ -0,0 +1,68 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LampRegistryTest {
+    private static final Lamp PORCH = new Lamp("porch", "1", false);
+    private static final Lamp HALL = new Lamp("hall", null, true);
+
+    @Test
+    public void update_reportsOnlyChangedLamps() {
+        LampRegistry registry = new LampRegistry();
+        assertEquals(Arrays.asList("porch", "hall"), registry.update(Arrays.asList(PORCH, HALL)));
+
+        Lamp porchOn = PORCH.withState(true);
+        assertEquals(Collections.singletonList("porch"),
+                registry.update(Arrays.asList(porchOn, HALL)));
+        assertTrue(registry.update(Arrays.asList(porchOn, HALL)).isEmpty());
+        assertSame(porchOn, registry.get("porch"));
+    }
+
+    @Test
+    public void update_reportsAddedAndRemovedLamps() {
+        LampRegistry registry = new LampRegistry();
+        registry.update(Arrays.asList(PORCH, HALL));
+        Lamp attic = new Lamp("attic", null, false);
+
+        List<String> changed = registry.update(Arrays.asList(HALL, attic));
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains("attic"));
+        assertTrue(changed.contains("porch"));
+        assertNull(registry.get("porch"));
+        assertEquals(Arrays.asList(HALL, attic), registry.getLamps());
+    }
+
+    @Test
+    public void get_findsLampsByNameOrId() {
+        LampRegistry registry = new LampRegistry();
+        registry.update(Arrays.asList(PORCH, HALL));
+        assertSame(PORCH, registry.get("porch"));
+        assertSame(PORCH, registry.get("1"));
+        assertSame(HALL, registry.get("hall"));
+        assertNull(registry.get("2"));
+    }
+
+    @Test
+    public void withLampStates_appliesChangesByName() {
+        PiStatus status = new PiStatus(Arrays.asList(PORCH, HALL,
+                new Lamp(PiStatus.PRIMARY_LAMP, null, false)), 20, 5);
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
+        states.put("porch", true);
+        states.put(PiStatus.PRIMARY_LAMP, true);
+
+        PiStatus changed = status.withLampStates(states);
+        assertTrue(changed.isOn());
+        assertTrue(changed.getLamp("porch").isOn());
+        assertSame(HALL, changed.getLamp("hall"));
+        assertEquals(3, changed.getLampsOnCount());
+        assertEquals(20, changed.getInsideTemp(), 0);
+    }
+}
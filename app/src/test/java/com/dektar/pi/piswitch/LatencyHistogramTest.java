@@ -0,0 +1,58 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void getPercentileMs_isWithinAQuarterOfTheTruth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(ms);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMeanMs());
+        assertEquals(1000, histogram.getMaxMs());
+        assertWithinAQuarter(500, histogram.getPercentileMs(0.5));
+        assertWithinAQuarter(900, histogram.getPercentileMs(0.9));
+        assertWithinAQuarter(990, histogram.getPercentileMs(0.99));
+    }
+
+    @Test
+    public void getPercentileMs_neverExceedsTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(130);
+
+        assertEquals(130, histogram.getPercentileMs(0.5));
+        assertEquals(130, histogram.getPercentileMs(1));
+    }
+
+    @Test
+    public void record_keepsOutliersBeyondTheLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5 * 60 * 1000);
+        histogram.record(-3);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getPercentileMs(0.5));
+        assertEquals(5 * 60 * 1000, histogram.getPercentileMs(1));
+    }
+
+    @Test
+    public void reset_forgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMs(0.5));
+        assertEquals(0, histogram.getMaxMs());
+    }
+
+    private static void assertWithinAQuarter(long expected, long actual) {
+        assertTrue(actual + " not within 25% of " + expected,
+                actual >= expected && actual <= expected * 1.25);
+    }
+}
@@ -0,0 +1,109 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PiDiscoveryTest {
+    private static final long TIMEOUT_MS = 300;
+
+    private StubPiServer mServer;
+    private InetAddress mLoopback;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubPiServer();
+        mServer.setName("living room pi");
+        mLoopback = InetAddress.getByName("127.0.0.1");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void discover_findsThePiAndItsUrl() throws Exception {
+        List<PiDiscovery.Found> found =
+                PiDiscovery.discover(mLoopback, mServer.getFastPort(), TIMEOUT_MS);
+
+        assertEquals(1, found.size());
+        assertEquals("living room pi", found.get(0).getName());
+        assertEquals(mServer.getUrlBase(), found.get(0).getUrlBase());
+    }
+
+    @Test
+    public void discover_sendsAgainWhenRequestsAreLost() throws Exception {
+        mServer.dropFastRequests(PiDiscovery.SENDS - 1);
+
+        assertEquals(1, PiDiscovery.discover(mLoopback, mServer.getFastPort(), TIMEOUT_MS)
+                .size());
+    }
+
+    @Test
+    public void discover_findsNothingWhereNoPiListens() throws Exception {
+        int port = mServer.getFastPort();
+        mServer.stop();
+
+        long start = System.nanoTime();
+        assertTrue(PiDiscovery.discover(mLoopback, port, TIMEOUT_MS).isEmpty());
+        assertTrue((System.nanoTime() - start) / 1000000 < TIMEOUT_MS + 1000);
+    }
+
+    @Test
+    public void discover_switchesNothing() throws Exception {
+        PiDiscovery.discover(mLoopback, mServer.getFastPort(), TIMEOUT_MS);
+
+        assertEquals(0, mServer.getFastAppliedCount());
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void choose_takesAnUnnamedPiOnlyIfItIsAlone() {
+        PiDiscovery.Found first = new PiDiscovery.Found("a", "http://10.0.0.2");
+        PiDiscovery.Found second = new PiDiscovery.Found("b", "http://10.0.0.3");
+
+        assertSame(first, PiDiscovery.choose(Arrays.asList(first), null));
+        assertNull(PiDiscovery.choose(Arrays.asList(first, second), null));
+        assertNull(PiDiscovery.choose(new ArrayList<PiDiscovery.Found>(), null));
+    }
+
+    @Test
+    public void choose_sticksToTheNamedPi() {
+        PiDiscovery.Found first = new PiDiscovery.Found("a", "http://10.0.0.2");
+        PiDiscovery.Found second = new PiDiscovery.Found("b", "http://10.0.0.3");
+
+        assertSame(second, PiDiscovery.choose(Arrays.asList(first, second), "b"));
+        assertNull(PiDiscovery.choose(Arrays.asList(first), "b"));
+    }
+
+    @Test
+    public void updateInternalUrl_replacesOnlyWhatDiscoveryFound() {
+        String found = "http://10.1.10.40";
+
+        assertEquals(found, PiDiscovery.updateInternalUrl(null, null, found));
+        assertEquals(found + "/pi", PiDiscovery.updateInternalUrl("http://10.1.10.12/pi",
+                "http://10.1.10.12", found));
+        assertNull(PiDiscovery.updateInternalUrl("http://10.1.10.12/pi", null, found));
+        assertNull(PiDiscovery.updateInternalUrl("http://pi.local/pi", "http://10.1.10.12",
+                found));
+        assertNull(PiDiscovery.updateInternalUrl("http://10.1.10.120", "http://10.1.10.12",
+                found));
+        assertNull(PiDiscovery.updateInternalUrl(found, found, found));
+    }
+
+    @Test
+    public void toUrlBase_leavesOutTheDefaultPort() throws Exception {
+        InetAddress address = InetAddress.getByAddress(new byte[] {10, 1, 10, 12});
+
+        assertEquals("http://10.1.10.12", PiDiscovery.toUrlBase(address, 80));
+        assertEquals("http://10.1.10.12:8080", PiDiscovery.toUrlBase(address, 8080));
+    }
+}
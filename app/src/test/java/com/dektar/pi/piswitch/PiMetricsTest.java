@@ -0,0 +1,127 @@
+package com.dektar.pi.piswitch;
+
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PiMetricsTest {
+    @Test
+    public void getEndpoint_matchesTheScriptName() {
+        PiMetrics metrics = new PiMetrics();
+
+        assertEquals("status.php", metrics.getEndpoint("http://pi/status.php").getName());
+        assertEquals("on.py", metrics.getEndpoint("http://pi/cgi-bin/on.py").getName());
+        assertEquals("off.py", metrics.getEndpoint("http://pi/cgi-bin/off.py").getName());
+        assertEquals("set.py",
+                metrics.getEndpoint("http://pi/cgi-bin/set.py?on=a&off=b.py").getName());
+        assertEquals("other", metrics.getEndpoint("http://pi/cgi-bin/won.py").getName());
+        assertEquals("other", metrics.getEndpoint("http://pi/").getName());
+    }
+
+    @Test
+    public void recordRequest_countsOutcomesAndSkipsMissingPhases() {
+        PiMetrics metrics = new PiMetrics();
+        PiMetrics.Endpoint status = metrics.getEndpoint("http://pi/status.php");
+
+        status.recordRequest(PiMetrics.OUTCOME_SUCCESS, 2, 40, 1, 3);
+        status.recordRequest(PiMetrics.OUTCOME_TIMEOUT, 1, 2500, -1, 2);
+        status.recordRequest(PiMetrics.OUTCOME_ERROR, 1, 30, -1, 2);
+        status.recordCacheHit();
+
+        assertEquals(1, status.getSuccesses());
+        assertEquals(1, status.getTimeouts());
+        assertEquals(1, status.getErrors());
+        assertEquals(1, status.getCacheHits());
+        assertEquals(1, status.getPercentileMs(PiMetrics.PHASE_PARSE, 1));
+        assertEquals(2503, status.getPercentileMs(PiMetrics.PHASE_TOTAL, 1));
+    }
+
+    @Test
+    public void getReport_listsEveryEndpointAndTapTiming() {
+        PiMetrics metrics = new PiMetrics();
+        metrics.getEndpoint("http://pi/cgi-bin/on.py")
+                .recordRequest(PiMetrics.OUTCOME_SUCCESS, 1, 80, 1, 2);
+        metrics.recordTapToConfirmed(120);
+
+        String report = metrics.getReport();
+
+        assertTrue(report, report.contains("tap to confirmed: n=1"));
+        assertTrue(report, report.contains("on.py: 1 ok, 0 errors, 0 timeouts"));
+        assertTrue(report, report.contains("status.php: 0 ok"));
+        assertTrue(report, report.contains("network"));
+    }
+
+    @Test
+    public void getReport_listsStartupTimings() {
+        PiMetrics metrics = new PiMetrics();
+        metrics.recordLaunchToFirstFrame(180);
+        metrics.recordLaunchToConfirmed(650);
+
+        String report = metrics.getReport();
+
+        assertTrue(report, report.contains("launch to first frame: n=1"));
+        assertTrue(report, report.contains("launch to confirmed: n=1"));
+
+        metrics.reset();
+        assertTrue(metrics.getReport().contains("launch to first frame: n=0"));
+    }
+
+    @Test
+    public void getReport_listsQuickToggleTiming() {
+        PiMetrics metrics = new PiMetrics();
+        metrics.recordQuickToggleToConfirmed(120);
+
+        String report = metrics.getReport();
+
+        assertTrue(report, report.contains("quick toggle to confirmed: n=1"));
+
+        metrics.reset();
+        assertTrue(metrics.getReport().contains("quick toggle to confirmed: n=0"));
+    }
+
+    @Test
+    public void meteredRequest_recordsEachRequestWhenItIsDelivered() {
+        PiMetrics.Endpoint onPy = PiMetrics.getInstance().getEndpoint("http://pi/cgi-bin/on.py");
+        int successes = onPy.getSuccesses();
+        int timeouts = onPy.getTimeouts();
+        final int[] delivered = new int[2];
+        Response.Listener<PiStatus> listener = new Response.Listener<PiStatus>() {
+            @Override
+            public void onResponse(PiStatus response) {
+                delivered[0]++;
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                delivered[1]++;
+            }
+        };
+
+        PiCommandRequest ok = new PiCommandRequest("http://pi/cgi-bin/on.py", listener,
+                errorListener);
+        passThroughNetwork(ok);
+        ok.deliverResponse(null);
+        PiCommandRequest timedOut = new PiCommandRequest("http://pi/cgi-bin/on.py", listener,
+                errorListener);
+        passThroughNetwork(timedOut);
+        timedOut.deliverError(new TimeoutError());
+
+        assertEquals(1, delivered[0]);
+        assertEquals(1, delivered[1]);
+        assertEquals(successes + 1, onPy.getSuccesses());
+        assertEquals(timeouts + 1, onPy.getTimeouts());
+    }
+
+    // The markers Volley adds on its way to delivering a request's result.
+    private static void passThroughNetwork(MeteredRequest<?> request) {
+        request.addMarker("add-to-queue");
+        request.addMarker("network-queue-take");
+        request.addMarker("network-http-complete");
+        request.addMarker("network-parse-complete");
+    }
+}
@@ -0,0 +1,85 @@
+package com.dektar.pi.piswitch;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+public class PiStatusRequestTest {
+    private static final long LATENCY_MS = 1000;
+    private static final long HEDGE_AFTER_MS = 100;
+
+    private StubPiServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubPiServer();
+        mServer.setLatencyMs(LATENCY_MS);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void hedgedAttempt_reachesASlowPiWhileTheFirstIsOut() throws Exception {
+        String url = mServer.getUrlBase() + "/status.php";
+        PiStatusRequest first = newRequest(url);
+        PiStatusRequest hedge = newRequest(url);
+        // What Volley keys on to hold a request back behind an identical one in flight.
+        assertFalse(first.shouldCache());
+        assertFalse(hedge.shouldCache());
+
+        long start = System.nanoTime();
+        getInBackground(url);
+        Thread.sleep(HEDGE_AFTER_MS);
+        getInBackground(url);
+        while (mServer.getRequestCount() < 2
+                && (System.nanoTime() - start) / 1000000 < LATENCY_MS) {
+            Thread.sleep(10);
+        }
+
+        // Both arrived before the first could have been answered.
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue((System.nanoTime() - start) / 1000000 < LATENCY_MS);
+    }
+
+    private static PiStatusRequest newRequest(String url) {
+        return new PiStatusRequest(url, new Response.Listener<PiStatus>() {
+            @Override
+            public void onResponse(PiStatus response) {
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+            }
+        });
+    }
+
+    private static void getInBackground(final String url) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection =
+                            (HttpURLConnection) new URL(url).openConnection();
+                    connection.getResponseCode();
+                    connection.disconnect();
+                } catch (IOException e) {
+                    // Stopped with the server.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
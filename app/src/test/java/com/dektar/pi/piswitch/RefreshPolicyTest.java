@@ -0,0 +1,104 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RefreshPolicyTest {
+    private static final long START = 1420070400000L;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private static PiStatus status(boolean isOn, double insideTemp) {
+        List<Lamp> lamps = new ArrayList<Lamp>();
+        lamps.add(new Lamp(PiStatus.PRIMARY_LAMP, null, isOn));
+        return new PiStatus(lamps, insideTemp, 5);
+    }
+
+    @Test
+    public void afterCommand_refreshesFast() {
+        RefreshPolicy policy = new RefreshPolicy(0, 0, null);
+        policy.onCommand(START);
+        policy.onStatus(START + 1000, status(true, 21));
+        assertEquals(START + 1000 + RefreshPolicy.FAST_INTERVAL_MS,
+                policy.getNextRefreshMillis(START + 1000));
+    }
+
+    @Test
+    public void whileStable_backsOffExponentiallyUpToTheCap() {
+        RefreshPolicy policy = new RefreshPolicy(0, 0, null);
+        policy.onCommand(START);
+        long now = START;
+        List<Long> intervals = new ArrayList<Long>();
+        for (int i = 0; i < 40; i++) {
+            // Temperatures change, the lamps don't.
+            policy.onStatus(now, status(true, 20 + i * 0.1));
+            long next = policy.getNextRefreshMillis(now);
+            intervals.add(next - now);
+            now = next;
+        }
+        assertEquals(RefreshPolicy.FAST_INTERVAL_MS, (long) intervals.get(0));
+        int fastPolls = (int) (RefreshPolicy.FAST_WINDOW_MS / RefreshPolicy.FAST_INTERVAL_MS);
+        for (int i = fastPolls + 1; i < intervals.size(); i++) {
+            assertTrue(intervals.get(i) >= intervals.get(i - 1));
+        }
+        assertEquals(RefreshPolicy.MAX_INTERVAL_MS, (long) intervals.get(intervals.size() - 1));
+    }
+
+    @Test
+    public void stableNight_costsAFewPolls() {
+        RefreshPolicy policy = new RefreshPolicy(0, 0, null);
+        policy.onCommand(START);
+        int polls = 0;
+        for (long now = START; now < START + 8 * HOUR_MS; polls++) {
+            policy.onStatus(now, status(false, 21));
+            now = policy.getNextRefreshMillis(now);
+        }
+        // Every 15s would be almost 2000.
+        assertTrue("polls " + polls, polls < 30);
+    }
+
+    @Test
+    public void lampChange_restartsFastRefresh() {
+        RefreshPolicy policy = new RefreshPolicy(0, 0, null);
+        policy.onStatus(START, status(false, 21));
+        assertEquals(RefreshPolicy.MAX_INTERVAL_MS, policy.getIntervalMs(START));
+        assertTrue(policy.onStatus(START + HOUR_MS, status(true, 21)));
+        assertEquals(RefreshPolicy.FAST_INTERVAL_MS, policy.getIntervalMs(START + HOUR_MS));
+    }
+
+    @Test
+    public void firstStatus_isNotAChange() {
+        assertFalse(new RefreshPolicy(0, 0, null).onStatus(START, status(true, 21)));
+    }
+
+    @Test
+    public void refreshStarted_delaysTheNextOneEvenWithoutAnswer() {
+        RefreshPolicy policy = new RefreshPolicy(0, 0, null);
+        policy.onCommand(START);
+        policy.onRefreshStarted(START + 5000);
+        assertEquals(START + 5000 + RefreshPolicy.FAST_INTERVAL_MS,
+                policy.getNextRefreshMillis(START + 5000));
+    }
+
+    @Test
+    public void overdueRefresh_isDueNow() {
+        RefreshPolicy policy = new RefreshPolicy(START, START, "1");
+        long now = START + 3 * HOUR_MS;
+        assertEquals(now, policy.getNextRefreshMillis(now));
+    }
+
+    @Test
+    public void restoredPolicy_continuesWhereItLeftOff() {
+        RefreshPolicy policy = new RefreshPolicy(0, 0, null);
+        policy.onCommand(START);
+        policy.onStatus(START + 1000, status(true, 21));
+        RefreshPolicy restored = new RefreshPolicy(policy.getLastChangeMillis(),
+                policy.getLastRefreshMillis(), policy.getLamps());
+        assertEquals(policy.getNextRefreshMillis(START + 2000),
+                restored.getNextRefreshMillis(START + 2000));
+        assertFalse(restored.onStatus(START + 20000, status(true, 22)));
+    }
+}
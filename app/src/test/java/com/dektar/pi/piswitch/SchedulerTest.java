@@ -0,0 +1,141 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static com.dektar.pi.piswitch.SunCalculatorTest.at;
+import static org.junit.Assert.*;
+
+public class SchedulerTest {
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Europe/London");
+    private static final SunCalculator LONDON = new SunCalculator(51.5074, -0.1278);
+    // A Wednesday.
+    private static final long NOW = at(ZONE, 2015, Calendar.JUNE, 17, 12, 0);
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void nextFiringAfter_dailyRuleSkipsDaysNotChosen() {
+        int weekend = (1 << (Calendar.SATURDAY - 1)) | (1 << (Calendar.SUNDAY - 1));
+        ScheduleRule rule = ScheduleRule.daily(1, "porch", true, 7 * 60 + 30, weekend);
+        assertEquals(at(ZONE, 2015, Calendar.JUNE, 20, 7, 30),
+                rule.nextFiringAfter(NOW, ZONE, LONDON));
+    }
+
+    @Test
+    public void nextFiringAfter_keepsTheTimeOfDayAcrossDaylightSaving() {
+        ScheduleRule rule = ScheduleRule.daily(1, "porch", true, 7 * 60, ScheduleRule.EVERY_DAY);
+        long saturday = at(ZONE, 2015, Calendar.MARCH, 28, 8, 0);
+        assertEquals(at(ZONE, 2015, Calendar.MARCH, 29, 7, 0),
+                rule.nextFiringAfter(saturday, ZONE, LONDON));
+    }
+
+    @Test
+    public void nextFiringAfter_sunsetRuleAppliesItsOffset() {
+        ScheduleRule rule = new ScheduleRule(1, "porch", true, ScheduleRule.TYPE_SUNSET, -30,
+                ScheduleRule.EVERY_DAY);
+        Calendar today = SunCalculatorTest.day(ZONE, 2015, Calendar.JUNE, 17);
+        assertEquals(LONDON.sunset(today) - 30 * MINUTE,
+                rule.nextFiringAfter(NOW, ZONE, LONDON));
+        assertEquals(-1, rule.nextFiringAfter(NOW, ZONE, null));
+    }
+
+    @Test
+    public void takeDue_batchesNearbyFiringsAndMergesEachLamp() {
+        Scheduler scheduler = new Scheduler(ZONE, LONDON);
+        scheduler.setRules(Arrays.asList(
+                ScheduleRule.once(1, "porch", true, NOW + 10 * MINUTE),
+                ScheduleRule.once(2, PiStatus.PRIMARY_LAMP, true, NOW + 10 * MINUTE + 5000),
+                ScheduleRule.once(3, "porch", false, NOW + 10 * MINUTE + 20000),
+                ScheduleRule.once(4, "porch", true, NOW + 20 * MINUTE)), NOW);
+
+        assertEquals(NOW + 10 * MINUTE, scheduler.getNextFiringMillis());
+        assertTrue(scheduler.takeDue(NOW + 10 * MINUTE - Scheduler.BATCH_WINDOW_MS - 1)
+                .isEmpty());
+
+        Map<String, Boolean> due = scheduler.takeDue(NOW + 10 * MINUTE);
+        assertEquals(2, due.size());
+        assertEquals(Boolean.TRUE, due.get(PiStatus.PRIMARY_LAMP));
+        assertEquals(Boolean.FALSE, due.get("porch"));
+        assertEquals(NOW + 20 * MINUTE, scheduler.getNextFiringMillis());
+    }
+
+    @Test
+    public void resumeFrom_firesWhatWasArmedInANewProcess() {
+        List<ScheduleRule> rules = Arrays.asList(
+                ScheduleRule.once(1, "porch", true, NOW + 10 * MINUTE),
+                ScheduleRule.daily(2, "porch", false, 23 * 60, ScheduleRule.EVERY_DAY));
+        Scheduler scheduler = new Scheduler(ZONE, LONDON);
+        scheduler.setRules(rules, NOW);
+        long armed = scheduler.getNextFiringMillis();
+
+        // The alarm starts a new process a little after it was due.
+        long woken = armed + 2000;
+        Scheduler fresh = new Scheduler(ZONE, LONDON);
+        fresh.setRules(rules, Scheduler.resumeFrom(armed, woken));
+        Map<String, Boolean> due = fresh.takeDue(woken);
+        assertEquals(1, due.size());
+        assertEquals(Boolean.TRUE, due.get("porch"));
+        assertEquals(at(ZONE, 2015, Calendar.JUNE, 17, 23, 0), fresh.getNextFiringMillis());
+
+        assertEquals(woken, Scheduler.resumeFrom(-1, woken));
+        assertEquals(NOW, Scheduler.resumeFrom(armed, NOW));
+    }
+
+    @Test
+    public void takeDue_reschedulesRecurringRulesButNotOneShots() {
+        Scheduler scheduler = new Scheduler(ZONE, LONDON);
+        scheduler.setRules(Arrays.asList(
+                ScheduleRule.daily(1, "porch", true, 13 * 60, ScheduleRule.EVERY_DAY),
+                ScheduleRule.once(2, "porch", false, NOW + 60 * MINUTE)), NOW);
+
+        scheduler.takeDue(NOW + 60 * MINUTE);
+        assertEquals(at(ZONE, 2015, Calendar.JUNE, 18, 13, 0),
+                scheduler.getNextFiringMillis());
+        scheduler.remove(1);
+        assertEquals(-1, scheduler.getNextFiringMillis());
+    }
+
+    @Test
+    public void takeDue_afterALateWakeupFiresEachRuleOnce() {
+        Scheduler scheduler = new Scheduler(ZONE, LONDON);
+        scheduler.setRules(Collections.singletonList(
+                ScheduleRule.daily(1, "porch", true, 13 * 60, ScheduleRule.EVERY_DAY)), NOW);
+
+        long threeDaysLate = at(ZONE, 2015, Calendar.JUNE, 20, 14, 0);
+        assertEquals(1, scheduler.takeDue(threeDaysLate).size());
+        assertTrue(scheduler.takeDue(threeDaysLate).isEmpty());
+        assertEquals(at(ZONE, 2015, Calendar.JUNE, 21, 13, 0),
+                scheduler.getNextFiringMillis());
+    }
+
+    @Test
+    public void takeDue_handlesHundredsOfRulesInOrder() {
+        List<ScheduleRule> rules = new ArrayList<ScheduleRule>();
+        for (int i = 0; i < 500; i++) {
+            int minuteOfDay = (i / 5 * 7) % (24 * 60);
+            rules.add(ScheduleRule.daily(i, "lamp " + (i % 50), i % 2 == 0, minuteOfDay,
+                    ScheduleRule.EVERY_DAY));
+        }
+        Scheduler scheduler = new Scheduler(ZONE, LONDON);
+        scheduler.setRules(rules, NOW);
+
+        int wakeups = 0;
+        long last = NOW;
+        long next;
+        while ((next = scheduler.getNextFiringMillis()) < NOW + 24 * 60 * MINUTE) {
+            assertTrue(next >= last);
+            assertFalse(scheduler.takeDue(next).isEmpty());
+            last = next;
+            wakeups++;
+        }
+        // 500 firings a day, five to a minute.
+        assertEquals(100, wakeups);
+    }
+}
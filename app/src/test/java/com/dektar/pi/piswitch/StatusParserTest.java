@@ -0,0 +1,110 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class StatusParserTest {
+    private static final String STATUS = "{\"lamps\":[{\"name\":\"porch\",\"state\":0},"
+            + "{\"name\":\"living room\",\"state\":1}],"
+            + "\"heating\":[{\"current_temp\":21.5,\"ext_temp\":-3.25,\"mode\":\"auto\"}]}";
+
+    @Test
+    public void parse_readsLampAndTemps() throws Exception {
+        PiStatus status = StatusParser.parse(STATUS.getBytes("UTF-8"));
+        assertTrue(status.isOn());
+        assertEquals(21.5, status.getInsideTemp(), 0);
+        assertEquals(-3.25, status.getOutsideTemp(), 0);
+    }
+
+    @Test
+    public void parse_readsEveryLamp() throws Exception {
+        PiStatus status = StatusParser.parse(new StringReader("{\"lamps\":["
+                + "{\"name\":\"porch\",\"id\":7,\"state\":1},"
+                + "{\"name\":\"living room\",\"state\":0},"
+                + "{\"name\":\"hall\",\"state\":1}],\"heating\":[]}"));
+        assertEquals(3, status.getLamps().size());
+        assertEquals(2, status.getLampsOnCount());
+        assertFalse(status.isOn());
+        assertEquals(new Lamp("porch", "7", true), status.getLamp("porch"));
+        assertEquals("hall", status.getLamps().get(2).getName());
+    }
+
+    @Test
+    public void parse_acceptsStringStateAndAnyKeyOrder() throws Exception {
+        String json = "{ \"version\" : { \"nested\" : [1, 2, {\"a\": \"}\"}] },\n"
+                + "  \"heating\" : [ { \"ext_temp\" : \"4\", \"current_temp\" : 19 } ],\n"
+                + "  \"lamps\" : [ { \"state\" : \"0\", \"name\" : \"living room\" } ] }";
+        PiStatus status = StatusParser.parse(new StringReader(json));
+        assertFalse(status.isOn());
+        assertEquals(19, status.getInsideTemp(), 0);
+        assertEquals(4, status.getOutsideTemp(), 0);
+    }
+
+    @Test
+    public void parse_missingLampIsOffAndEmptyHeatingIsUnknown() throws Exception {
+        PiStatus status = StatusParser.parse(new StringReader(
+                "{\"lamps\":[{\"name\":\"kitchen\",\"state\":1}],\"heating\":[]}"));
+        assertFalse(status.isOn());
+        assertTrue(Double.isNaN(status.getInsideTemp()));
+        assertTrue(Double.isNaN(status.getOutsideTemp()));
+    }
+
+    @Test
+    public void parse_decodesEscapedNames() throws Exception {
+        PiStatus status = StatusParser.parse(new StringReader(
+                "{\"lamps\":[{\"name\":\"living\\u0020room\",\"state\":1}],\"heating\":[{}]}"));
+        assertTrue(status.isOn());
+    }
+
+    @Test
+    public void parse_stopsReadingOnceComplete() throws Exception {
+        // Anything after the fields we need is garbage; the parser must never reach it.
+        StringBuilder json = new StringBuilder(STATUS.substring(0, STATUS.length() - 1));
+        json.append(", \"extra\": ");
+        for (int i = 0; i < 10000; i++) {
+            json.append('!');
+        }
+        CountingReader reader = new CountingReader(json.toString());
+        PiStatus status = StatusParser.parse(reader);
+        assertTrue(status.isOn());
+        assertTrue(reader.mRead < 1024);
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsMissingHeating() throws Exception {
+        StatusParser.parse(new StringReader("{\"lamps\":[]}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsTruncatedDocument() throws Exception {
+        StatusParser.parse(new StringReader("{\"lamps\":[{\"name\":\"porch\""));
+    }
+
+    private static class CountingReader extends Reader {
+        private final StringReader mDelegate;
+        private int mRead;
+
+        CountingReader(String s) {
+            mDelegate = new StringReader(s);
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            int count = mDelegate.read(buf, off, len);
+            if (count > 0) {
+                mRead += count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            mDelegate.close();
+        }
+    }
+}
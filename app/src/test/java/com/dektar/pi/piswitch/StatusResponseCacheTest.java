@@ -0,0 +1,161 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StatusResponseCacheTest {
+    private static final int REFRESHES = 200;
+    // The lamp is switched from elsewhere this often, so some refreshes do see a change.
+    private static final int CHANGE_EVERY = 10;
+
+    private StubPiServer mServer;
+    private String mFullUrl;
+    private String mCompactUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubPiServer();
+        mFullUrl = mServer.getUrlBase() + "/status.php";
+        mCompactUrl = mFullUrl + "?" + StatusResponseCache.FIELDS_QUERY;
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void compactGzippedResponse_parsesLikeTheFullDocument() throws Exception {
+        StatusResponseCache cache = new StatusResponseCache();
+        PiStatus compact = fetch(cache, mCompactUrl);
+        assertEquals(StatusParser.parse(mServer.getStatusJson().getBytes("UTF-8")), compact);
+    }
+
+    @Test
+    public void notModified_returnsLastStatusWithoutParsing() throws Exception {
+        StatusResponseCache cache = new StatusResponseCache();
+        PiStatus first = fetch(cache, mCompactUrl);
+        long bytes = mServer.getBodyBytes();
+        assertSame(first, fetch(cache, mCompactUrl));
+        assertEquals(bytes, mServer.getBodyBytes());
+    }
+
+    @Test
+    public void changedStatus_isFetchedAgain() throws Exception {
+        StatusResponseCache cache = new StatusResponseCache();
+        assertFalse(fetch(cache, mCompactUrl).isOn());
+        mServer.setOn(true);
+        assertTrue(fetch(cache, mCompactUrl).isOn());
+    }
+
+    @Test
+    public void otherUrl_isNotConditional() throws Exception {
+        StatusResponseCache cache = new StatusResponseCache();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("etag", "\"1\"");
+        cache.onResponse(mCompactUrl, 200, headers, mServer.getStatusJson().getBytes("UTF-8"));
+        assertEquals("\"1\"", cache.getRequestHeaders(mCompactUrl).get("If-None-Match"));
+        assertNull(cache.getRequestHeaders(mFullUrl).get("If-None-Match"));
+    }
+
+    @Test(expected = IOException.class)
+    public void notModified_withNothingToReuse_fails() throws Exception {
+        new StatusResponseCache().onResponse(mCompactUrl, 304, null, new byte[0]);
+    }
+
+    @Test
+    public void refresh_savesBytesAndParseTime() throws Exception {
+        long baselineBytes = mServer.getBodyBytes();
+        long baselineNanos = 0;
+        for (int i = 0; i < REFRESHES; i++) {
+            switchEvery(i);
+            byte[] body = get(mFullUrl, new HashMap<String, String>(), null);
+            long start = System.nanoTime();
+            StatusParser.parse(body);
+            baselineNanos += System.nanoTime() - start;
+        }
+        baselineBytes = mServer.getBodyBytes() - baselineBytes;
+
+        StatusResponseCache cache = new StatusResponseCache();
+        long cachedBytes = mServer.getBodyBytes();
+        long cachedNanos = 0;
+        for (int i = 0; i < REFRESHES; i++) {
+            switchEvery(i);
+            Map<String, String> responseHeaders = new HashMap<String, String>();
+            int[] code = new int[1];
+            byte[] body = get(mCompactUrl, cache.getRequestHeaders(mCompactUrl), responseHeaders,
+                    code);
+            long start = System.nanoTime();
+            cache.onResponse(mCompactUrl, code[0], responseHeaders, body);
+            cachedNanos += System.nanoTime() - start;
+        }
+        cachedBytes = mServer.getBodyBytes() - cachedBytes;
+
+        System.out.println("Per refresh: " + baselineBytes / REFRESHES + " -> "
+                + cachedBytes / REFRESHES + " body bytes, " + baselineNanos / REFRESHES / 1000
+                + " -> " + cachedNanos / REFRESHES / 1000 + " us decoding");
+        assertTrue(cachedBytes * 4 < baselineBytes);
+    }
+
+    private void switchEvery(int refresh) {
+        if (refresh % CHANGE_EVERY == 0) {
+            mServer.setOn(refresh / CHANGE_EVERY % 2 == 1);
+        }
+    }
+
+    private PiStatus fetch(StatusResponseCache cache, String url) throws IOException {
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        int[] code = new int[1];
+        byte[] body = get(url, cache.getRequestHeaders(url), responseHeaders, code);
+        return cache.onResponse(url, code[0], responseHeaders, body);
+    }
+
+    private static byte[] get(String url, Map<String, String> headers,
+                              Map<String, String> responseHeaders) throws IOException {
+        return get(url, headers, responseHeaders, new int[1]);
+    }
+
+    private static byte[] get(String url, Map<String, String> headers,
+                              Map<String, String> responseHeaders, int[] code) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            code[0] = connection.getResponseCode();
+            if (responseHeaders != null) {
+                for (Map.Entry<String, List<String>> header
+                        : connection.getHeaderFields().entrySet()) {
+                    if (header.getKey() != null) {
+                        responseHeaders.put(header.getKey(), header.getValue().get(0));
+                    }
+                }
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (code[0] == 200) {
+                InputStream in = connection.getInputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                in.close();
+            }
+            return body.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
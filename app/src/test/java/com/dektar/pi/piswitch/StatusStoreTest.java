@@ -0,0 +1,74 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StatusStoreTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("status", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void get_isNullBeforeAnythingIsSaved() {
+        assertNull(new StatusStore(mFile, DIRECT).get());
+    }
+
+    @Test
+    public void save_survivesANewInstance() {
+        PiStatus status = new PiStatus(Arrays.asList(new Lamp("porch", "3", true),
+                new Lamp(PiStatus.PRIMARY_LAMP, null, true)), 21.5, -2);
+        new StatusStore(mFile, DIRECT).save("http://pi", status);
+
+        StatusStore.Snapshot snapshot = new StatusStore(mFile, DIRECT).get();
+        assertEquals("http://pi", snapshot.getUrlBase());
+        assertEquals(status, snapshot.getStatus());
+        assertTrue(snapshot.getAgeMillis() < 60 * 1000);
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void save_isVisibleBeforeItIsWritten() {
+        StatusStore store = new StatusStore(mFile, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // Never runs.
+            }
+        });
+        PiStatus status = new PiStatus(false, 18, 4);
+        store.save("http://pi", status);
+        assertSame(status, store.get().getStatus());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void get_ignoresATruncatedFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] {0, 0, 0, 1, 0});
+        out.close();
+        assertNull(new StatusStore(mFile, DIRECT).get());
+    }
+}
@@ -0,0 +1,100 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StatusStreamTest {
+    private static final long WAIT_MS = 5000;
+
+    private final BlockingQueue<PiStatus> mStatuses = new LinkedBlockingQueue<PiStatus>();
+    private final BlockingQueue<Boolean> mConnections = new LinkedBlockingQueue<Boolean>();
+    private StubPiServer mServer;
+    private StatusStream mStream;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubPiServer();
+        mStream = new StatusStream(mServer.getUrlBase(), new StatusStream.Listener() {
+            @Override
+            public void onStatus(PiStatus status) {
+                mStatuses.add(status);
+            }
+
+            @Override
+            public void onConnectionChanged(boolean isConnected) {
+                mConnections.add(isConnected);
+            }
+        }, new ExponentialBackoff(20, 40, new Random(1)));
+    }
+
+    @After
+    public void tearDown() {
+        mStream.stop();
+        mServer.stop();
+    }
+
+    @Test
+    public void stream_deliversCurrentThenPushedStatus() throws Exception {
+        mStream.start();
+        assertEquals(Boolean.TRUE, mConnections.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(nextStatus().isOn());
+
+        mServer.setOn(true);
+        assertTrue(nextStatus().isOn());
+        mServer.setOn(false);
+        assertFalse(nextStatus().isOn());
+    }
+
+    @Test
+    public void stream_reconnectsWhenItEnds() throws Exception {
+        mStream.start();
+        nextStatus();
+
+        mServer.closeStreams();
+        assertEquals(Boolean.TRUE, mConnections.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Boolean.FALSE, mConnections.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Boolean.TRUE, mConnections.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        // A new connection starts with the current state...
+        assertFalse(nextStatus().isOn());
+        // ...and keeps receiving changes.
+        mServer.setOn(true);
+        assertTrue(nextStatus().isOn());
+    }
+
+    @Test
+    public void stream_retriesUntilThePiAcceptsIt() throws Exception {
+        mServer.setStreamAvailable(false);
+        mStream.start();
+        Thread.sleep(200);
+        assertNull(mConnections.poll());
+        assertTrue(mServer.getRequestCount() > 1);
+
+        mServer.setStreamAvailable(true);
+        assertEquals(Boolean.TRUE, mConnections.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertNotNull(nextStatus());
+    }
+
+    @Test
+    public void stop_endsDelivery() throws Exception {
+        mStream.start();
+        nextStatus();
+
+        mStream.stop();
+        mServer.setOn(true);
+        assertNull(mStatuses.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    private PiStatus nextStatus() throws InterruptedException {
+        PiStatus status = mStatuses.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("no status within " + WAIT_MS + "ms", status);
+        return status;
+    }
+}
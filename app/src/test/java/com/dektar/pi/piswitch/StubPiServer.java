@@ -0,0 +1,450 @@
+package com.dektar.pi.piswitch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal stand-in for the Pi's web server, listening on a free local port or a given one.
+ *
+ * status.php answers like a Pi with more hardware attached than the app cares about, and
+ * honours the fields query, ETag validators and gzip. Latency, a failure rate and the size
+ * of the full document can be set, and it counts what a Pi would find wasted: conditional
+ * requests for an unchanged status and commands for the state a lamp is already in.
+ *
+ * It also serves the fast command channel, see {@link FastProtocol}, on a UDP port of its own,
+ * as the reference for what the Pi side has to do: carry out each sequence number once and
+ * answer repeats from memory. Discovery requests there are answered with its name and HTTP
+ * port, as a beacon on the LAN would.
+ */
+class StubPiServer {
+    private final HttpServer mServer;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+    private final List<OutputStream> mStreams = new CopyOnWriteArrayList<OutputStream>();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mNoOpCommandCount = new AtomicInteger();
+    private final AtomicInteger mFailureCount = new AtomicInteger();
+    private final Random mRandom = new Random();
+    private volatile long mLatencyMs;
+    private volatile double mFailureRate;
+    private volatile int mPayloadBytes;
+    private volatile boolean mIsOn;
+    private volatile boolean mIsStreamAvailable = true;
+    private volatile String mName = "stub pi";
+    private final DatagramSocket mFastSocket;
+    private final AtomicInteger mFastAppliedCount = new AtomicInteger();
+    // Sender and sequence number to the answer sent, for the most recent requests.
+    private final Map<String, byte[]> mFastAnswers = new LinkedHashMap<String, byte[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > 64;
+        }
+    };
+    private final AtomicInteger mFastRequestsToDrop = new AtomicInteger();
+    private final AtomicInteger mFastAnswersToDrop = new AtomicInteger();
+
+    StubPiServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Listens on port, e.g. that of a stopped server to bring it back.
+     */
+    StubPiServer(int port) throws IOException {
+        this("127.0.0.1", port);
+    }
+
+    /**
+     * Listens on host and port, e.g. a LAN address so that phones can reach it.
+     */
+    StubPiServer(String host, int port) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestCount.incrementAndGet();
+                sleep(mLatencyMs);
+                String path = exchange.getRequestURI().getPath();
+                if (isFailing()) {
+                    mFailureCount.incrementAndGet();
+                    send(exchange, 500, new byte[0]);
+                    return;
+                }
+                if (path.endsWith("/status_stream.php") && mIsStreamAvailable) {
+                    openStream(exchange);
+                    return;
+                }
+                if (path.endsWith("/cgi-bin/on.py")) {
+                    command(true);
+                } else if (path.endsWith("/cgi-bin/off.py")) {
+                    command(false);
+                }
+                if (path.endsWith("/status.php")) {
+                    sendStatus(exchange);
+                    return;
+                }
+                send(exchange, path.endsWith("/status_stream.php") ? 503 : 200, new byte[0]);
+            }
+        });
+        mServer.start();
+        mFastSocket = new DatagramSocket(new InetSocketAddress(host, 0));
+        Thread fastThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serveFast();
+            }
+        }, "stub-fast-channel");
+        fastThread.setDaemon(true);
+        fastThread.start();
+    }
+
+    String getUrlBase() {
+        return "http://" + mServer.getAddress().getHostString() + ":" + getPort();
+    }
+
+    int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    int getFastPort() {
+        return mFastSocket.getLocalPort();
+    }
+
+    /**
+     * Sets the name the stand-in gives in answer to discovery requests.
+     */
+    void setName(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns how many fast channel requests to set lamps were carried out, leaving out
+     * repeats answered from memory.
+     */
+    int getFastAppliedCount() {
+        return mFastAppliedCount.get();
+    }
+
+    /**
+     * Ignores that many fast channel requests to come, as if lost on the way.
+     */
+    void dropFastRequests(int requests) {
+        mFastRequestsToDrop.set(requests);
+    }
+
+    /**
+     * Carries out that many fast channel requests to come but loses their answers.
+     */
+    void dropFastAnswers(int answers) {
+        mFastAnswersToDrop.set(answers);
+    }
+
+    void setLatencyMs(long latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    /**
+     * Answers about that fraction of requests, from 0 to 1, with a 500 and nothing else.
+     */
+    void setFailureRate(double failureRate) {
+        mFailureRate = failureRate;
+    }
+
+    /**
+     * Pads the full status document to at least bytes with sensors nobody reads, like a Pi
+     * with more hardware attached.
+     */
+    void setPayloadBytes(int bytes) {
+        mPayloadBytes = bytes;
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns how many status requests were answered 304 Not Modified.
+     */
+    int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    /**
+     * Returns how many commands asked for the state the lamp was already in.
+     */
+    int getNoOpCommandCount() {
+        return mNoOpCommandCount.get();
+    }
+
+    /**
+     * Returns how many requests were failed on purpose; see {@link #setFailureRate(double)}.
+     */
+    int getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    /**
+     * Returns how many response body bytes have been sent, as they went over the wire.
+     */
+    long getBodyBytes() {
+        return mBodyBytes.get();
+    }
+
+    /**
+     * Returns the whole status document, as sent without a fields query or gzip.
+     */
+    String getStatusJson() {
+        return statusJson(false);
+    }
+
+    boolean isOn() {
+        return mIsOn;
+    }
+
+    /**
+     * Switches the lamp as if from some other client, pushing the change to open streams.
+     */
+    void setOn(boolean isOn) {
+        mIsOn = isOn;
+        for (OutputStream stream : mStreams) {
+            try {
+                writeEvent(stream);
+            } catch (IOException e) {
+                mStreams.remove(stream);
+            }
+        }
+    }
+
+    /**
+     * Makes status_stream.php answer 503, as an overloaded or older Pi would.
+     */
+    void setStreamAvailable(boolean isAvailable) {
+        mIsStreamAvailable = isAvailable;
+    }
+
+    /**
+     * Ends every open status stream, as a Pi restarting its web server would.
+     */
+    void closeStreams() {
+        for (OutputStream stream : mStreams) {
+            mStreams.remove(stream);
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Already gone.
+            }
+        }
+    }
+
+    void stop() {
+        closeStreams();
+        mServer.stop(0);
+        mFastSocket.close();
+    }
+
+    private void serveFast() {
+        byte[] buffer = new byte[FastProtocol.MAX_DATAGRAM_SIZE];
+        while (!mFastSocket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                mFastSocket.receive(packet);
+                if (takeOne(mFastRequestsToDrop)) {
+                    continue;
+                }
+                byte[] answer = answerFast(packet.getSocketAddress(), packet.getData(),
+                        packet.getLength());
+                if (answer == null || takeOne(mFastAnswersToDrop)) {
+                    continue;
+                }
+                mFastSocket.send(new DatagramPacket(answer, answer.length,
+                        packet.getSocketAddress()));
+            } catch (IOException e) {
+                // Closed by stop(), or a client that went away.
+            }
+        }
+    }
+
+    private byte[] answerFast(SocketAddress sender, byte[] data, int length) {
+        FastProtocol.Message request;
+        try {
+            request = FastProtocol.decode(data, length);
+        } catch (IOException e) {
+            return null;
+        }
+        if (request.isAnswer()) {
+            return null;
+        }
+        sleep(mLatencyMs);
+        String key = sender + "#" + request.mSeq;
+        synchronized (mFastAnswers) {
+            byte[] answer = mFastAnswers.get(key);
+            if (answer != null) {
+                return answer;
+            }
+            if (request.mType == FastProtocol.TYPE_DISCOVER) {
+                answer = FastProtocol.encodeDiscoverAnswer(request.mSeq, mName, getPort());
+            } else if (request.mType == FastProtocol.TYPE_SET) {
+                for (Map.Entry<String, Boolean> state : request.mStates.entrySet()) {
+                    if (!PiStatus.PRIMARY_LAMP.equals(state.getKey())) {
+                        answer = FastProtocol.encodeError(request.mSeq,
+                                "No lamp " + state.getKey());
+                    }
+                }
+                if (answer == null) {
+                    mFastAppliedCount.incrementAndGet();
+                    setOn(request.mStates.get(PiStatus.PRIMARY_LAMP));
+                }
+            }
+            if (answer == null) {
+                answer = FastProtocol.encodeAck(request.mType, request.mSeq,
+                        new PiStatus(mIsOn, 21.0, 5.0));
+            }
+            mFastAnswers.put(key, answer);
+            return answer;
+        }
+    }
+
+    private void openStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream stream = exchange.getResponseBody();
+        // Listed before the first event goes out, so nothing the client does after seeing it
+        // can miss this stream.
+        mStreams.add(stream);
+        synchronized (stream) {
+            // Heartbeat and the current state, as the real stream starts with.
+            stream.write(": hello\n\n".getBytes("UTF-8"));
+            writeEvent(stream);
+        }
+    }
+
+    private void writeEvent(OutputStream stream) throws IOException {
+        synchronized (stream) {
+            stream.write(("data: " + statusJson(false) + "\n\n").getBytes("UTF-8"));
+            stream.flush();
+        }
+    }
+
+    private void sendStatus(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        boolean isCompact = query != null && query.contains("fields=");
+        String json = statusJson(isCompact);
+        // Each representation needs its own tag.
+        String eTag = "\"" + Integer.toHexString(json.hashCode()) + (isCompact ? "-c\"" : "\"");
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            mNotModifiedCount.incrementAndGet();
+            send(exchange, 304, new byte[0]);
+            return;
+        }
+        byte[] body = json.getBytes("UTF-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(body);
+            gzip.close();
+            body = bytes.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        send(exchange, 200, body);
+    }
+
+    private void command(boolean isOn) {
+        if (mIsOn == isOn) {
+            mNoOpCommandCount.incrementAndGet();
+        }
+        setOn(isOn);
+    }
+
+    private boolean isFailing() {
+        double failureRate = mFailureRate;
+        if (failureRate <= 0) {
+            return false;
+        }
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < failureRate;
+        }
+    }
+
+    private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        boolean isHead = "HEAD".equals(exchange.getRequestMethod());
+        boolean hasBody = !isHead && body.length > 0;
+        exchange.sendResponseHeaders(code, hasBody ? body.length : -1);
+        OutputStream out = exchange.getResponseBody();
+        if (hasBody) {
+            // Counted first, so a client that has read the body always sees it counted.
+            mBodyBytes.addAndGet(body.length);
+            out.write(body);
+        }
+        out.close();
+    }
+
+    /**
+     * Returns the status document; compact has only the fields the app reads.
+     */
+    private String statusJson(boolean isCompact) {
+        int state = mIsOn ? 1 : 0;
+        if (isCompact) {
+            return "{\"lamps\":[{\"name\":\"living room\",\"state\":" + state + "}],"
+                    + "\"heating\":[{\"current_temp\":21.0,\"ext_temp\":5.0}]}";
+        }
+        StringBuilder json = new StringBuilder("{\"lamps\":[{\"name\":\"living room\",\"state\":")
+                .append(state).append(",\"gpio\":17,\"since\":1420070400}],"
+                        + "\"heating\":[{\"current_temp\":21.0,\"ext_temp\":5.0,"
+                        + "\"target\":20.0,\"mode\":\"auto\",\"boiler\":\"idle\"}],\"sensors\":[");
+        for (int i = 0; i < 8; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"sensor-").append(i).append("\",\"value\":").append(i * 0.5)
+                    .append(",\"history\":[1,2,3,4,5,6,7,8,9,10,11,12]}");
+        }
+        for (int i = 8; json.length() < mPayloadBytes; i++) {
+            json.append(",{\"id\":\"sensor-").append(i).append("\",\"value\":0.0}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static boolean takeOne(AtomicInteger counter) {
+        while (true) {
+            int left = counter.get();
+            if (left <= 0) {
+                return false;
+            }
+            if (counter.compareAndSet(left, left - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
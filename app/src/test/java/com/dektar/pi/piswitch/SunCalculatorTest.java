@@ -0,0 +1,58 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class SunCalculatorTest {
+    private static final long TOLERANCE_MS = 3 * 60 * 1000;
+
+    @Test
+    public void sunriseAndSunset_matchPublishedTimesForLondonInJune() {
+        TimeZone london = TimeZone.getTimeZone("Europe/London");
+        SunCalculator sun = new SunCalculator(51.5074, -0.1278);
+        Calendar day = day(london, 2015, Calendar.JUNE, 21);
+
+        assertNear(at(london, 2015, Calendar.JUNE, 21, 4, 43), sun.sunrise(day));
+        assertNear(at(london, 2015, Calendar.JUNE, 21, 21, 21), sun.sunset(day));
+    }
+
+    @Test
+    public void sunriseAndSunset_stayOnTheLocalDayFarFromGreenwich() {
+        TimeZone auckland = TimeZone.getTimeZone("Pacific/Auckland");
+        SunCalculator sun = new SunCalculator(-36.8485, 174.7633);
+        Calendar day = day(auckland, 2015, Calendar.JANUARY, 1);
+
+        assertNear(at(auckland, 2015, Calendar.JANUARY, 1, 6, 5), sun.sunrise(day));
+        assertNear(at(auckland, 2015, Calendar.JANUARY, 1, 20, 42), sun.sunset(day));
+    }
+
+    @Test
+    public void sunset_isMissingUnderTheMidnightSun() {
+        TimeZone oslo = TimeZone.getTimeZone("Europe/Oslo");
+        SunCalculator tromso = new SunCalculator(69.6492, 18.9553);
+        assertEquals(-1, tromso.sunset(day(oslo, 2015, Calendar.JUNE, 21)));
+    }
+
+    static Calendar day(TimeZone zone, int year, int month, int dayOfMonth) {
+        Calendar day = Calendar.getInstance(zone);
+        day.clear();
+        day.set(year, month, dayOfMonth);
+        return day;
+    }
+
+    static long at(TimeZone zone, int year, int month, int dayOfMonth, int hour, int minute) {
+        Calendar at = day(zone, year, month, dayOfMonth);
+        at.set(Calendar.HOUR_OF_DAY, hour);
+        at.set(Calendar.MINUTE, minute);
+        return at.getTimeInMillis();
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("off by " + (actual - expected) / 1000 + "s",
+                Math.abs(actual - expected) <= TOLERANCE_MS);
+    }
+}
@@ -0,0 +1,140 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class TemperatureHistoryTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long DAY_MS = 24 * TemperatureHistory.HOUR_MS;
+    // A whole number of hours, so buckets line up with the samples.
+    private static final long START = 1000 * TemperatureHistory.HOUR_MS;
+
+    private File mFile;
+    private final long[] mTimes = new long[5000];
+    private final double[] mInside = new double[5000];
+    private final double[] mOutside = new double[5000];
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("history", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void query_returnsRawSamplesInOrder() {
+        TemperatureHistory history = new TemperatureHistory(mFile, DIRECT);
+        for (int i = 0; i < 10; i++) {
+            history.record(START + i * MINUTE_MS, 20 + i, -i);
+        }
+
+        int count = query(history, START, START + DAY_MS);
+
+        assertEquals(10, count);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(START + i * MINUTE_MS, mTimes[i]);
+            assertEquals(20 + i, mInside[i], 0);
+            assertEquals(-i, mOutside[i], 0);
+        }
+    }
+
+    @Test
+    public void record_dropsSamplesCloserThanAMinute() {
+        TemperatureHistory history = new TemperatureHistory(mFile, DIRECT);
+        history.record(START, 20, 5);
+        history.record(START + 1000, 21, 5);
+        history.record(START - MINUTE_MS, 22, 5);
+
+        assertEquals(1, query(history, 0, Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void query_averagesWhenThereAreMorePointsThanRoom() {
+        TemperatureHistory history = new TemperatureHistory(mFile, DIRECT);
+        for (int i = 0; i < 100; i++) {
+            history.record(START + i * MINUTE_MS, i, 0);
+        }
+        long[] times = new long[10];
+
+        int count = history.query(START, START + DAY_MS, 10, times, new double[10], mOutside);
+
+        assertEquals(10, count);
+        assertEquals(START + 4 * MINUTE_MS + MINUTE_MS / 2, times[0]);
+        assertEquals(START + 94 * MINUTE_MS + MINUTE_MS / 2, times[9]);
+    }
+
+    @Test
+    public void query_usesCoarserRingsForLongerRanges() {
+        TemperatureHistory history = new TemperatureHistory(mFile, DIRECT);
+        long end = recordMinutes(history, START, 9 * DAY_MS);
+
+        // Raw samples only cover the last day, so two days come from five minute averages.
+        int count = query(history, end - 2 * DAY_MS, end);
+        assertEquals(5 * MINUTE_MS, mTimes[1] - mTimes[0]);
+        assertEquals(2 * 24 * 12, count, 1);
+        assertFiveMinuteAverages(count);
+
+        // ...and eight days from hourly ones.
+        count = query(history, end - 8 * DAY_MS, end);
+        assertEquals(TemperatureHistory.HOUR_MS, mTimes[1] - mTimes[0]);
+        assertEquals(8 * 24, count, 1);
+        for (int i = 0; i < count; i++) {
+            assertEquals(29.5, mInside[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void history_survivesANewInstanceMidBucket() {
+        TemperatureHistory history = new TemperatureHistory(mFile, DIRECT);
+        // Stop two minutes into a five minute bucket.
+        long end = recordMinutes(history, START, 2 * DAY_MS + 2 * MINUTE_MS);
+
+        TemperatureHistory reopened = new TemperatureHistory(mFile, DIRECT);
+        end = recordMinutes(reopened, end, DAY_MS);
+
+        int count = query(reopened, end - 2 * DAY_MS, end);
+        assertTrue(count > 0);
+        // A bucket split by the restart would average to something else.
+        assertFiveMinuteAverages(count);
+    }
+
+    private int query(TemperatureHistory history, long fromMillis, long toMillis) {
+        return history.query(fromMillis, toMillis, mTimes.length, mTimes, mInside, mOutside);
+    }
+
+    /**
+     * Records one sample a minute from start for durationMs, with the inside temperature
+     * being the minute of the hour. Returns the time after the last sample.
+     */
+    private static long recordMinutes(TemperatureHistory history, long start,
+                                      long durationMs) {
+        long time = start;
+        for (; time < start + durationMs; time += MINUTE_MS) {
+            history.record(time, (time / MINUTE_MS) % 60, 0);
+        }
+        return time;
+    }
+
+    private void assertFiveMinuteAverages(int count) {
+        for (int i = 0; i < count; i++) {
+            // The minutes of each bucket average to its middle one.
+            assertEquals(2, mInside[i] % 5, 1e-9);
+        }
+    }
+}
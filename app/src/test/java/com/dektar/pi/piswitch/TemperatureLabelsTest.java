@@ -0,0 +1,50 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class TemperatureLabelsTest {
+    private static final String FORMAT = "%1.1f\u00B0";
+
+    private final Locale mLocale = Locale.getDefault();
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mLocale);
+    }
+
+    @Test
+    public void get_formatsLikeStringFormat() {
+        TemperatureLabels labels = new TemperatureLabels(FORMAT);
+        double[] temps = {21.4, -3.2, 0, 55.9, -60.1, 99.9};
+        for (double temp : temps) {
+            assertEquals(String.format(FORMAT, temp),
+                    labels.get(TemperatureLabels.toTenths(temp)));
+        }
+    }
+
+    @Test
+    public void get_reusesTheLabel() {
+        TemperatureLabels labels = new TemperatureLabels(FORMAT);
+        assertSame(labels.get(214), labels.get(TemperatureLabels.toTenths(21.43)));
+    }
+
+    @Test
+    public void get_followsLocaleChanges() {
+        TemperatureLabels labels = new TemperatureLabels(FORMAT);
+        Locale.setDefault(Locale.US);
+        assertEquals("21.4\u00B0", labels.get(214));
+        Locale.setDefault(Locale.GERMANY);
+        assertEquals("21,4\u00B0", labels.get(214));
+    }
+
+    @Test
+    public void noTemperature_isEmpty() {
+        assertEquals(TemperatureLabels.NO_TEMP, TemperatureLabels.toTenths(Double.NaN));
+        assertEquals("", new TemperatureLabels(FORMAT).get(TemperatureLabels.NO_TEMP));
+    }
+}
@@ -0,0 +1,57 @@
+package com.dektar.pi.piswitch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WidgetStateTest {
+    private static final int ON_COLOR = 0xff48bceb;
+    private static final int LOADING_COLOR = 0xffffff33;
+    private static final int TEXT_COLOR = 0xffffffff;
+
+    private static WidgetState state(boolean isOn, int insideTenths) {
+        return new WidgetState(isOn, ON_COLOR, insideTenths, 50, TEXT_COLOR, 1, 2);
+    }
+
+    @Test
+    public void diff_withNothingShown_isEverything() {
+        assertEquals(WidgetState.ALL, state(true, 210).diff(null));
+    }
+
+    @Test
+    public void diff_ofSameValues_isNothing() {
+        assertEquals(0, state(true, 210).diff(state(true, 210)));
+    }
+
+    @Test
+    public void diff_ofNewTemperature_isOnlyThatView() {
+        assertEquals(WidgetState.INSIDE_TEMP, state(true, 215).diff(state(true, 210)));
+    }
+
+    @Test
+    public void diff_ofPending_isOnlyTheIndicator() {
+        WidgetState shown = state(true, 210);
+        assertEquals(WidgetState.INDICATOR,
+                shown.withIndicatorColor(LOADING_COLOR).diff(shown));
+    }
+
+    @Test
+    public void diff_whileToggling_includesTheClick() {
+        WidgetState shown = state(true, 210);
+        WidgetState toggling = shown.withIndicatorColor(LOADING_COLOR).withToggleClickable(false);
+        assertEquals(WidgetState.INDICATOR | WidgetState.TOGGLE_CLICK, toggling.diff(shown));
+        assertEquals(WidgetState.INDICATOR | WidgetState.TOGGLE_CLICK, shown.diff(toggling));
+    }
+
+    @Test
+    public void diff_ofSwitchedLamp_swapsTheClick() {
+        int changed = state(false, 210).diff(state(true, 210));
+        assertEquals(WidgetState.TOGGLE | WidgetState.TOGGLE_CLICK, changed);
+    }
+
+    @Test
+    public void diff_neverIncludesTheRefreshClick() {
+        WidgetState other = new WidgetState(false, 0, 0, 0, 0, 0, 0);
+        assertEquals(0, other.diff(state(true, 210)) & WidgetState.REFRESH_CLICK);
+    }
+}
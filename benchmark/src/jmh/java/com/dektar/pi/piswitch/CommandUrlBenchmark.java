@@ -0,0 +1,44 @@
+package com.dektar.pi.piswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the URL for a toggle of the primary lamp and for a batch of lamps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandUrlBenchmark {
+    private static final String URL_BASE = "http://10.1.10.12";
+
+    private final Map<String, Boolean> mToggle = new HashMap<String, Boolean>();
+    private final Map<String, Boolean> mBatch = new HashMap<String, Boolean>();
+
+    @Setup
+    public void setUp() {
+        mToggle.put(PiStatus.PRIMARY_LAMP, true);
+        for (int i = 0; i < 8; i++) {
+            mBatch.put(StatusPayloads.lampName(8, i), i % 2 == 0);
+        }
+    }
+
+    @Benchmark
+    public String toggle() {
+        return CommandUrls.build(URL_BASE, mToggle);
+    }
+
+    @Benchmark
+    public String batch() {
+        return CommandUrls.build(URL_BASE, mBatch);
+    }
+}
@@ -0,0 +1,48 @@
+package com.dektar.pi.piswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a lamp change costs before anything is drawn: building the expected status from the
+ * known one, as CommandQueue does for every tap, and working out which lamps changed, as
+ * every listener showing lamps does for every status.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+    @Param({"1", "8", "64"})
+    public int lamps;
+
+    private final Map<String, Boolean> mChange = new HashMap<String, Boolean>();
+    private final LampRegistry mRegistry = new LampRegistry();
+    private PiStatus mKnown;
+    private boolean mTurnOn;
+
+    @Setup
+    public void setUp() throws IOException {
+        mKnown = StatusParser.parse(StatusPayloads.build(lamps, 0).getBytes("UTF-8"));
+        mRegistry.update(mKnown.getLamps());
+    }
+
+    @Benchmark
+    public List<String> toggleAndDispatch() {
+        mTurnOn = !mTurnOn;
+        mChange.put(PiStatus.PRIMARY_LAMP, mTurnOn);
+        PiStatus expected = mKnown.withLampStates(mChange);
+        return mRegistry.update(expected.getLamps());
+    }
+}
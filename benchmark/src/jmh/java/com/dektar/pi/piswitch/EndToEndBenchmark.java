@@ -0,0 +1,82 @@
+package com.dektar.pi.piswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips to a stand-in Pi on localhost over HttpURLConnection, as the app makes them:
+ * reading the status, and toggling the lamp then reading the status to confirm it. Reported
+ * as latency percentiles; latencyMs adds a fixed delay per request like a busy Pi.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EndToEndBenchmark {
+    @Param({"0", "20"})
+    public long latencyMs;
+
+    private final Map<String, Boolean> mToggle = new HashMap<String, Boolean>();
+    private StubPiServer mServer;
+    private boolean mTurnOn;
+
+    @Setup
+    public void setUp() throws IOException {
+        mServer = new StubPiServer();
+        mServer.setLatencyMs(latencyMs);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Benchmark
+    public PiStatus status() throws IOException {
+        return StatusParser.parse(get(mServer.getUrlBase() + "/status.php"));
+    }
+
+    @Benchmark
+    public PiStatus toggleAndConfirm() throws IOException {
+        mTurnOn = !mTurnOn;
+        mToggle.put(PiStatus.PRIMARY_LAMP, mTurnOn);
+        get(CommandUrls.build(mServer.getUrlBase(), mToggle));
+        PiStatus status = status();
+        if (status.isOn() != mTurnOn) {
+            throw new IllegalStateException("toggle not confirmed: " + status);
+        }
+        return status;
+    }
+
+    private static byte[] get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        } finally {
+            // Closing rather than disconnecting keeps the connection for the next request.
+            in.close();
+        }
+    }
+}
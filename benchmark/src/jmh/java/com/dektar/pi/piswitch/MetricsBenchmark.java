@@ -0,0 +1,33 @@
+package com.dektar.pi.piswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a finished request, which happens for every request to the Pi.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    private final PiMetrics mMetrics = new PiMetrics();
+    private final PiMetrics.Endpoint mEndpoint = mMetrics.getEndpoint("http://pi/status.php");
+    private long mLatency;
+
+    @Benchmark
+    public PiMetrics.Endpoint lookUpEndpoint() {
+        return mMetrics.getEndpoint("http://10.1.10.12/cgi-bin/off.py");
+    }
+
+    @Benchmark
+    public void recordRequest() {
+        mLatency = (mLatency + 7) % 5000;
+        mEndpoint.recordRequest(PiMetrics.OUTCOME_SUCCESS, 1, mLatency, 1, 2);
+    }
+}
@@ -0,0 +1,36 @@
+package com.dektar.pi.piswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing status.php responses of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+    @Param({"1", "8", "64"})
+    public int lamps;
+
+    private byte[] mPayload;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPayload = StatusPayloads.build(lamps, lamps / 2).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public PiStatus parse() throws IOException {
+        return StatusParser.parse(mPayload);
+    }
+}
@@ -0,0 +1,38 @@
+package com.dektar.pi.piswitch;
+
+/**
+ * Status documents shaped like the ones the Pi produces.
+ */
+final class StatusPayloads {
+    private StatusPayloads() {
+    }
+
+    /**
+     * Builds a status document with the living room lamp in the middle of the lamp list and
+     * some unrelated sensors, like the Pi produces once more hardware is attached.
+     */
+    static String build(int lamps, int sensors) {
+        StringBuilder builder = new StringBuilder("{\"lamps\":[");
+        for (int i = 0; i < lamps; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"name\":\"").append(lampName(lamps, i)).append("\",\"state\":")
+                    .append(i % 2).append(",\"gpio\":").append(i).append('}');
+        }
+        builder.append("],\"heating\":[{\"current_temp\":21.4,\"ext_temp\":7.9,"
+                + "\"target\":20.0,\"mode\":\"auto\"}],\"sensors\":[");
+        for (int i = 0; i < sensors; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"sensor-").append(i).append("\",\"value\":")
+                    .append(i * 0.5).append(",\"history\":[1,2,3,4,5,6,7,8]}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    static String lampName(int lamps, int index) {
+        return index == lamps / 2 ? PiStatus.PRIMARY_LAMP : "lamp " + index;
+    }
+}
@@ -0,0 +1,43 @@
+package com.dektar.pi.piswitch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form "--name value", or "--name" alone for a flag.
+ */
+final class Args {
+    private final Map<String, String> mValues = new HashMap<String, String>();
+
+    Args(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            mValues.put(name, hasValue ? args[++i] : "");
+        }
+    }
+
+    boolean has(String name) {
+        return mValues.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+        String value = mValues.get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, Integer.toString(defaultValue)));
+    }
+
+    long getLong(String name, long defaultValue) {
+        return Long.parseLong(get(name, Long.toString(defaultValue)));
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return Double.parseDouble(get(name, Double.toString(defaultValue)));
+    }
+}
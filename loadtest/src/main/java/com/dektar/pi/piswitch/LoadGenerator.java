@@ -0,0 +1,83 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives many {@link SimulatedClient}s at once against a Pi, or against a {@link StubPiServer}
+ * started in the same process, and reports throughput, latency percentiles and duplicate
+ * requests. Options:
+ *
+ * --url URL             Pi to load; without it a stand-in is started here.
+ * --clients N           Simulated phones (50).
+ * --duration-s S        How long to run (60).
+ * --refresh-ms MS       Status refresh interval of each phone (15000, as a busy widget).
+ * --tap-interval-ms MS  Mean time between a phone's bursts of taps (20000); 0 for none.
+ * --burst N             Taps per burst (3).
+ * --no-coalesce         Send every tap as its own command.
+ * --no-cache            Ask for the whole status each time: no validators, gzip or fields.
+ * --latency-ms, --failure-rate, --payload-bytes
+ *                       For the stand-in, as in {@link PiStandIn}.
+ */
+public class LoadGenerator {
+    private static final int TIMER_THREADS = 4;
+    private static final long DRAIN_MS = 15 * 1000;
+
+    public static void main(String[] arguments) throws IOException, InterruptedException {
+        Args args = new Args(arguments);
+        int clients = args.getInt("clients", 50);
+        long durationMs = args.getLong("duration-s", 60) * 1000;
+        long refreshMs = args.getLong("refresh-ms", 15 * 1000);
+        long tapIntervalMs = args.getLong("tap-interval-ms", 20 * 1000);
+        int burst = args.getInt("burst", 3);
+
+        // Each phone has a connection of its own to keep alive.
+        System.setProperty("http.maxConnections", Integer.toString(Math.max(5, clients)));
+
+        StubPiServer server = null;
+        String urlBase = args.get("url", null);
+        if (urlBase == null) {
+            server = PiStandIn.start(args, 0);
+            urlBase = server.getUrlBase();
+        }
+        System.out.println("Loading " + urlBase + " with " + clients + " clients for "
+                + durationMs / 1000 + " s");
+
+        LoadReport report = new LoadReport();
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(TIMER_THREADS);
+        ExecutorService network = Executors.newCachedThreadPool();
+        Random random = new Random();
+        List<SimulatedClient> simulated = new ArrayList<SimulatedClient>(clients);
+        for (int i = 0; i < clients; i++) {
+            simulated.add(new SimulatedClient(urlBase, report, timer, network, random, refreshMs,
+                    tapIntervalMs, burst, !args.has("no-coalesce"), !args.has("no-cache")));
+        }
+
+        long start = System.nanoTime();
+        for (SimulatedClient client : simulated) {
+            client.start();
+        }
+        Thread.sleep(durationMs);
+        for (SimulatedClient client : simulated) {
+            client.stop();
+        }
+        timer.shutdownNow();
+        network.shutdown();
+        network.awaitTermination(DRAIN_MS, TimeUnit.MILLISECONDS);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        report.print(System.out, elapsedMs);
+        if (server != null) {
+            PiStandIn.printCounters(server);
+            server.stop();
+        }
+        // Keep-alive connections hold threads of their own.
+        System.exit(0);
+    }
+}
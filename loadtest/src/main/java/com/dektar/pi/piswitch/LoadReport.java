@@ -0,0 +1,72 @@
+package com.dektar.pi.piswitch;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * What every simulated client saw, added up: requests by kind with their latencies and
+ * outcomes, the taps that caused commands, and requests a client made while an identical one
+ * of its own was still in flight. Thread safe.
+ */
+class LoadReport {
+    static final int STATUS = 0;
+    static final int COMMAND = 1;
+
+    private static final String[] KIND_NAMES = {"status", "command"};
+
+    private final LatencyHistogram[] mLatencies = {new LatencyHistogram(), new LatencyHistogram()};
+    private final int[] mErrors = new int[2];
+    private int mNotModified;
+    private long mBodyBytes;
+    private int mTaps;
+    private int mDuplicates;
+
+    synchronized void onRequest(int kind, long latencyMs, boolean isOk, boolean isNotModified,
+                                long bodyBytes) {
+        mLatencies[kind].record(latencyMs);
+        if (!isOk) {
+            mErrors[kind]++;
+        }
+        if (isNotModified) {
+            mNotModified++;
+        }
+        mBodyBytes += bodyBytes;
+    }
+
+    synchronized void onTap() {
+        mTaps++;
+    }
+
+    synchronized void onDuplicate() {
+        mDuplicates++;
+    }
+
+    synchronized int getRequestCount() {
+        return mLatencies[STATUS].getCount() + mLatencies[COMMAND].getCount();
+    }
+
+    synchronized void print(PrintStream out, long elapsedMs) {
+        int requests = getRequestCount();
+        out.println(String.format(Locale.US, "%d requests in %.1f s: %.1f requests/s, %d body"
+                + " bytes", requests, elapsedMs / 1000.0, requests * 1000.0 / elapsedMs,
+                mBodyBytes));
+        for (int kind = STATUS; kind <= COMMAND; kind++) {
+            LatencyHistogram latencies = mLatencies[kind];
+            out.println(String.format(Locale.US, "  %-8s %7d, %5.1f%% failed; ms p50 %d, p95 %d,"
+                    + " p99 %d, max %d", KIND_NAMES[kind], latencies.getCount(),
+                    percent(mErrors[kind], latencies.getCount()),
+                    latencies.getPercentileMs(0.5), latencies.getPercentileMs(0.95),
+                    latencies.getPercentileMs(0.99), latencies.getMaxMs()));
+        }
+        out.println(String.format(Locale.US, "  %.1f%% of status requests not modified",
+                percent(mNotModified, mLatencies[STATUS].getCount())));
+        out.println(String.format(Locale.US, "  %d taps sent as %d commands",
+                mTaps, mLatencies[COMMAND].getCount()));
+        out.println(String.format(Locale.US, "  %.1f%% duplicate requests (%d)",
+                percent(mDuplicates, requests), mDuplicates));
+    }
+
+    private static double percent(int part, int whole) {
+        return whole == 0 ? 0 : part * 100.0 / whole;
+    }
+}
@@ -0,0 +1,53 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+
+/**
+ * Runs a {@link StubPiServer} until stopped, printing what it has served every few seconds,
+ * so phones or {@link LoadGenerator} can be pointed at it instead of a Pi. Options:
+ *
+ * --host HOST           Address to listen on (127.0.0.1); 0.0.0.0 for phones on the LAN.
+ * --port PORT           HTTP port (8080).
+ * --latency-ms MS       Delay before answering each request (0).
+ * --failure-rate F      Fraction of requests answered 500, from 0 to 1 (0).
+ * --payload-bytes N     Pad the full status document to at least N bytes.
+ * --name NAME           Name given in answer to discovery ("stub pi").
+ */
+public class PiStandIn {
+    private static final long REPORT_INTERVAL_MS = 10 * 1000;
+
+    public static void main(String[] arguments) throws IOException, InterruptedException {
+        StubPiServer server = start(new Args(arguments), 8080);
+        System.out.println("Serving " + server.getUrlBase() + ", fast commands and discovery"
+                + " on UDP port " + server.getFastPort());
+        int lastRequests = 0;
+        while (true) {
+            Thread.sleep(REPORT_INTERVAL_MS);
+            int requests = server.getRequestCount();
+            if (requests != lastRequests) {
+                lastRequests = requests;
+                printCounters(server);
+            }
+        }
+    }
+
+    /**
+     * Starts a stand-in configured by args, on defaultPort unless they name one.
+     */
+    static StubPiServer start(Args args, int defaultPort) throws IOException {
+        StubPiServer server = new StubPiServer(args.get("host", "127.0.0.1"),
+                args.getInt("port", defaultPort));
+        server.setLatencyMs(args.getLong("latency-ms", 0));
+        server.setFailureRate(args.getDouble("failure-rate", 0));
+        server.setPayloadBytes(args.getInt("payload-bytes", 0));
+        server.setName(args.get("name", "stub pi"));
+        return server;
+    }
+
+    static void printCounters(StubPiServer server) {
+        System.out.println("Pi served " + server.getRequestCount() + " requests: "
+                + server.getNotModifiedCount() + " not modified, "
+                + server.getNoOpCommandCount() + " commands that changed nothing, "
+                + server.getFailureCount() + " failed on purpose");
+    }
+}
@@ -0,0 +1,280 @@
+package com.dektar.pi.piswitch;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One phone running the app, as far as the Pi can tell.
+ *
+ * It refreshes the status on a timer, conditional, gzipped and compact as StatusRepository
+ * does, and now and then the user taps the switch a few times in a row. Taps go through the
+ * same latest-wins coalescing as CommandQueue: one command in flight, and whatever the user
+ * wants once it finishes goes out next. As in CommandQueue, a finished command is confirmed by
+ * the status in the Pi's answer or else by the last status known, and only a client that has
+ * neither asks for the status again. Caching and coalescing can each be turned off to see what
+ * they save.
+ */
+class SimulatedClient {
+    /** Time between the taps of one burst, like a user changing their mind. */
+    static final long TAP_GAP_MS = 150;
+
+    private static final int TIMEOUT_MS = 10 * 1000;
+    // As StatusRepository.MAX_STALE_MS: how long a known status is still built on.
+    private static final long MAX_STALE_MS = 60 * 60 * 1000;
+
+    private final String mUrlBase;
+    private final String mStatusUrl;
+    private final LoadReport mReport;
+    private final ScheduledExecutorService mTimer;
+    private final Executor mNetwork;
+    private final Random mRandom;
+    private final long mRefreshMs;
+    private final long mMeanTapIntervalMs;
+    private final int mTapsPerBurst;
+    private final boolean mIsCoalescing;
+    private final StatusResponseCache mCache;
+    // URL to how many requests for it are in flight.
+    private final Map<String, Integer> mInFlight = new HashMap<String, Integer>();
+    private volatile boolean mIsRunning;
+
+    // What the Pi last said about the lamp, and when, in milliseconds; 0 if it hasn't yet.
+    private volatile boolean mKnownOn;
+    private volatile long mKnownAtMs;
+    private boolean mWanted;
+    // Wanted state not sent yet, or null.
+    private Boolean mPending;
+    private boolean mIsSending;
+
+    SimulatedClient(String urlBase, LoadReport report, ScheduledExecutorService timer,
+                    Executor network, Random random, long refreshMs, long meanTapIntervalMs,
+                    int tapsPerBurst, boolean isCoalescing, boolean isCaching) {
+        mUrlBase = urlBase;
+        mStatusUrl = urlBase + "/status.php"
+                + (isCaching ? "?" + StatusResponseCache.FIELDS_QUERY : "");
+        mReport = report;
+        mTimer = timer;
+        mNetwork = network;
+        mRandom = random;
+        mRefreshMs = refreshMs;
+        mMeanTapIntervalMs = meanTapIntervalMs;
+        mTapsPerBurst = tapsPerBurst;
+        mIsCoalescing = isCoalescing;
+        mCache = isCaching ? new StatusResponseCache() : null;
+    }
+
+    /**
+     * Starts refreshing and tapping, each at a random point of its first interval so that
+     * clients don't all start at once.
+     */
+    void start() {
+        mIsRunning = true;
+        mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, (long) (mRandom.nextDouble() * mRefreshMs), TimeUnit.MILLISECONDS);
+        scheduleBurst();
+    }
+
+    /**
+     * Stops starting requests; those in flight finish.
+     */
+    void stop() {
+        mIsRunning = false;
+    }
+
+    private void refresh() {
+        if (!mIsRunning) {
+            return;
+        }
+        fetchStatus();
+        mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, mRefreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleBurst() {
+        if (!mIsRunning || mMeanTapIntervalMs <= 0) {
+            return;
+        }
+        // Exponential, so taps across clients arrive like independent users.
+        long delayMs = (long) (-Math.log(1 - mRandom.nextDouble()) * mMeanTapIntervalMs);
+        mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < mTapsPerBurst; i++) {
+                    mTimer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            tap();
+                        }
+                    }, i * TAP_GAP_MS, TimeUnit.MILLISECONDS);
+                }
+                scheduleBurst();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void tap() {
+        if (!mIsRunning) {
+            return;
+        }
+        mReport.onTap();
+        // The switch shows what was last asked for while a command is out, else the status.
+        mWanted = mIsSending || mPending != null ? !mWanted : !mKnownOn;
+        if (!mIsCoalescing) {
+            // Every tap its own request, as before CommandQueue.
+            sendCommand(mWanted);
+            return;
+        }
+        mPending = mWanted;
+        if (!mIsSending) {
+            sendPending();
+        }
+    }
+
+    private void sendPending() {
+        final boolean state = mPending;
+        mPending = null;
+        mIsSending = true;
+        sendCommand(state);
+    }
+
+    private void sendCommand(final boolean state) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Boolean> states = new HashMap<String, Boolean>();
+                states.put(PiStatus.PRIMARY_LAMP, state);
+                boolean isOk = request(LoadReport.COMMAND, CommandUrls.build(mUrlBase, states));
+                onCommandDone(state, isOk);
+            }
+        });
+    }
+
+    private void onCommandDone(boolean state, boolean isOk) {
+        synchronized (this) {
+            if (mIsCoalescing) {
+                mIsSending = false;
+                if (mPending != null && mPending != state) {
+                    // The user changed their mind while this one was in flight.
+                    sendPending();
+                    return;
+                }
+                mPending = null;
+            }
+        }
+        if (isOk && !isStatusKnown()) {
+            // Nothing to build the confirmed status from.
+            fetchStatus();
+        }
+    }
+
+    private void setKnownOn(boolean isOn) {
+        mKnownOn = isOn;
+        mKnownAtMs = Math.max(1, System.nanoTime() / 1000000);
+    }
+
+    private boolean isStatusKnown() {
+        long knownAtMs = mKnownAtMs;
+        return knownAtMs != 0 && System.nanoTime() / 1000000 - knownAtMs <= MAX_STALE_MS;
+    }
+
+    private void fetchStatus() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                request(LoadReport.STATUS, mStatusUrl);
+            }
+        });
+    }
+
+    private void execute(Runnable request) {
+        if (!mIsRunning) {
+            return;
+        }
+        try {
+            mNetwork.execute(request);
+        } catch (RejectedExecutionException e) {
+            // Stopped in the meantime.
+        }
+    }
+
+    /**
+     * Makes one request and reports it. Returns whether it succeeded.
+     */
+    private boolean request(int kind, String url) {
+        synchronized (mInFlight) {
+            Integer inFlight = mInFlight.get(url);
+            if (inFlight != null) {
+                mReport.onDuplicate();
+            }
+            mInFlight.put(url, inFlight == null ? 1 : inFlight + 1);
+        }
+        long start = System.nanoTime();
+        int code = -1;
+        long bodyBytes = 0;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setUseCaches(false);
+            boolean isCached = kind == LoadReport.STATUS && mCache != null;
+            if (isCached) {
+                for (Map.Entry<String, String> header : mCache.getRequestHeaders(url).entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            code = connection.getResponseCode();
+            byte[] body = code == HttpURLConnection.HTTP_OK
+                    ? HttpResponses.readBody(connection) : new byte[0];
+            bodyBytes = body.length;
+            if (isCached && (code == HttpURLConnection.HTTP_OK
+                    || code == StatusResponseCache.SC_NOT_MODIFIED)) {
+                setKnownOn(mCache.onResponse(url, code, HttpResponses.getHeaders(connection), body)
+                        .isOn());
+            } else if (kind == LoadReport.STATUS && code == HttpURLConnection.HTTP_OK) {
+                setKnownOn(StatusParser.parse(body).isOn());
+            } else if (body.length > 0) {
+                try {
+                    setKnownOn(StatusParser.parse(body).isOn());
+                } catch (IOException e) {
+                    // Plain text from an older script; the 200 is all we get.
+                }
+            }
+        } catch (IOException e) {
+            code = -1;
+            if (connection != null) {
+                // Otherwise the connection is kept for the next request, as the app's is.
+                connection.disconnect();
+            }
+        } finally {
+            synchronized (mInFlight) {
+                int inFlight = mInFlight.get(url) - 1;
+                if (inFlight == 0) {
+                    mInFlight.remove(url);
+                } else {
+                    mInFlight.put(url, inFlight);
+                }
+            }
+        }
+        boolean isOk = code == HttpURLConnection.HTTP_OK
+                || code == StatusResponseCache.SC_NOT_MODIFIED;
+        mReport.onRequest(kind, (System.nanoTime() - start) / 1000000, isOk,
+                code == StatusResponseCache.SC_NOT_MODIFIED, bodyBytes);
+        return isOk;
+    }
+}